@@ -0,0 +1,174 @@
+package com.mediatek.labs.linkitremote;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import com.mediatek.labs.linkitremote.protocol.GattLink;
+
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+/**
+ * {@link GattLink} backed by an Android BluetoothGatt connection.
+ *
+ * The BluetoothGattCallback of the connection forwards to the link's
+ * {@link GattLink.Callback}, by characteristic UUID, on the binder thread the
+ * stack calls it on.
+ */
+class BluetoothGattLink implements GattLink {
+    static private final String TAG = "BluetoothGattLink";
+
+    private final Callback mCallback;
+    private volatile BluetoothGatt mGatt;
+
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            mGatt = gatt;
+            mCallback.onConnectionStateChange(status, newState);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            mCallback.onMtuChanged(mtu, status);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            mCallback.onServicesDiscovered(status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicRead(characteristic.getUuid(), characteristic.getValue(), status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicWrite(characteristic.getUuid(), status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            mCallback.onCharacteristicChanged(characteristic.getUuid(), characteristic.getValue());
+        }
+    };
+
+    BluetoothGattLink(Callback callback) {
+        mCallback = callback;
+    }
+
+    void connect(Context context, BluetoothDevice device, boolean autoConnect) {
+        Tracer.section("connectGatt");
+        mGatt = device.connectGatt(context, autoConnect, mGattCallback);
+        Tracer.end();
+    }
+
+    void disconnect() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt != null) {
+            gatt.disconnect();
+        }
+    }
+
+    void close() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt != null) {
+            gatt.close();
+        }
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        // MTU exchange is only available after Android L
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return mGatt.requestMtu(mtu);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return mGatt.requestConnectionPriority(priority);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return mGatt.discoverServices();
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        final BluetoothGattCharacteristic c = find(service, characteristic);
+        return c != null && mGatt.readCharacteristic(c);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withoutResponse) {
+        final BluetoothGattCharacteristic c = find(service, characteristic);
+        if (c == null) {
+            return false;
+        }
+        Tracer.section("writeCharacteristic");
+        try {
+            c.setWriteType(withoutResponse ?
+                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE :
+                    BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            c.setValue(value);
+            return mGatt.writeCharacteristic(c);
+        } finally {
+            Tracer.end();
+        }
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        final BluetoothGattCharacteristic c = find(service, characteristic);
+        return c != null && mGatt.setCharacteristicNotification(c, enable);
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID service, UUID characteristic) {
+        return find(service, characteristic) != null;
+    }
+
+    @Override
+    public int getProperties(UUID service, UUID characteristic) {
+        final BluetoothGattCharacteristic c = find(service, characteristic);
+        return (c != null) ? c.getProperties() : 0;
+    }
+
+    // BluetoothGatt.refresh() is hidden API, so it is called by reflection
+    @Override
+    public boolean refreshServices() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt == null) {
+            return false;
+        }
+        try {
+            final Method refresh = gatt.getClass().getMethod("refresh");
+            return (Boolean) refresh.invoke(gatt);
+        } catch (Exception e) {
+            Log.d(TAG, "refresh not available: " + e.toString());
+            return false;
+        }
+    }
+
+    private BluetoothGattCharacteristic find(UUID service, UUID characteristic) {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt == null) {
+            return null;
+        }
+        final BluetoothGattService s = gatt.getService(service);
+        return (s != null) ? s.getCharacteristic(characteristic) : null;
+    }
+}
@@ -0,0 +1,158 @@
+package com.mediatek.labs.linkitremote;
+
+import android.util.Log;
+
+import com.mediatek.labs.linkitremote.protocol.EventPacker;
+import com.mediatek.labs.linkitremote.protocol.GattLink;
+
+/**
+ * Tunes a fresh connection before service discovery, and keeps the connection
+ * interval short only while the user is actually driving the remote.
+ *
+ * After STATE_CONNECTED the tuner asks for a larger ATT MTU, so long
+ * characteristics such as rcNames and rcConfigDataArray arrive in fewer round
+ * trips, then requests high connection priority and starts discoverServices().
+ * When no event was sent for IDLE_TIMEOUT_MS, or the remote goes to the
+ * background, it drops back to balanced priority. A discovery the link refuses
+ * to start is reported to the callback as a failed discovery, since no
+ * onServicesDiscovered would ever arrive for it.
+ *
+ * All times are in milliseconds from the same monotonic clock.
+ */
+class ConnectionTuner {
+    static private final String TAG = "ConnectionTuner";
+
+    static final int PREFERRED_MTU = 247;          // fits 40 event frames per write
+    static final long MTU_TIMEOUT_MS = 1000;       // some stacks never report onMtuChanged
+    static final long IDLE_TIMEOUT_MS = 5000;
+
+    private enum Stage {
+        idle,
+        exchangingMtu,
+        tuned
+    }
+
+    private final GattLink mLink;
+    private final GattLink.Callback mCallback;
+    private Stage mStage = Stage.idle;
+    private int mMtu = EventPacker.DEFAULT_MTU;
+    private int mPriority = GattLink.CONNECTION_PRIORITY_BALANCED;
+    private boolean mForeground = true;
+    private long mLastActivity;
+
+    ConnectionTuner(GattLink link, GattLink.Callback callback) {
+        mLink = link;
+        mCallback = callback;
+    }
+
+    // called on STATE_CONNECTED, starts MTU exchange and then service discovery
+    synchronized void onConnected(long now) {
+        mLastActivity = now;
+        mStage = Stage.exchangingMtu;
+        if (!mLink.requestMtu(PREFERRED_MTU)) {
+            Log.d(TAG, "MTU exchange not available, keep " + String.valueOf(mMtu));
+            startDiscovery();
+        }
+    }
+
+    synchronized void onMtuChanged(int mtu, int status) {
+        if (status == GattLink.GATT_SUCCESS) {
+            mMtu = mtu;
+        }
+        Log.d(TAG, "MTU = " + String.valueOf(mMtu) + ", status = " + String.valueOf(status));
+        if (mStage == Stage.exchangingMtu) {
+            startDiscovery();
+        }
+    }
+
+    // called MTU_TIMEOUT_MS after onConnected
+    synchronized void onMtuTimeout() {
+        if (mStage == Stage.exchangingMtu) {
+            Log.d(TAG, "MTU exchange timed out");
+            startDiscovery();
+        }
+    }
+
+    synchronized void setForeground(boolean foreground, long now) {
+        mForeground = foreground;
+        mLastActivity = now;
+        if (mStage == Stage.tuned) {
+            updatePriority(foreground ? GattLink.CONNECTION_PRIORITY_HIGH :
+                    GattLink.CONNECTION_PRIORITY_BALANCED);
+        }
+    }
+
+    // called for every user event sent to the board
+    synchronized void onActivity(long now) {
+        mLastActivity = now;
+        if (mStage == Stage.tuned && mForeground) {
+            updatePriority(GattLink.CONNECTION_PRIORITY_HIGH);
+        }
+    }
+
+    /**
+     * Drop back to balanced priority if idle. Returns true if priority changed.
+     */
+    synchronized boolean checkIdle(long now) {
+        if (mPriority == GattLink.CONNECTION_PRIORITY_HIGH && now - mLastActivity >= IDLE_TIMEOUT_MS) {
+            return updatePriority(GattLink.CONNECTION_PRIORITY_BALANCED);
+        }
+        return false;
+    }
+
+    synchronized int getMtu() {
+        return mMtu;
+    }
+
+    synchronized int getPriority() {
+        return mPriority;
+    }
+
+    // upper end of the interval the current priority asks for, see describePriority()
+    synchronized long getConnectionIntervalMs() {
+        switch (mPriority) {
+            case GattLink.CONNECTION_PRIORITY_HIGH:
+                return 15;
+            case GattLink.CONNECTION_PRIORITY_LOW_POWER:
+                return 125;
+            default:
+                return 50;
+        }
+    }
+
+    // Android does not report the negotiated interval, so describe what each priority asks for.
+    static String describePriority(int priority) {
+        switch (priority) {
+            case GattLink.CONNECTION_PRIORITY_HIGH:
+                return "high (11.25-15ms interval)";
+            case GattLink.CONNECTION_PRIORITY_LOW_POWER:
+                return "low power (100-125ms interval)";
+            default:
+                return "balanced (30-50ms interval)";
+        }
+    }
+
+    private void startDiscovery() {
+        mStage = Stage.tuned;
+        if (mForeground) {
+            updatePriority(GattLink.CONNECTION_PRIORITY_HIGH);
+        }
+        if (!mLink.discoverServices()) {
+            Log.d(TAG, "service discovery not started");
+            mCallback.onServicesDiscovered(GattLink.GATT_FAILURE);
+        }
+    }
+
+    private boolean updatePriority(int priority) {
+        if (priority == mPriority) {
+            return false;
+        }
+        if (!mLink.requestConnectionPriority(priority)) {
+            Log.d(TAG, "connection priority request failed");
+            return false;
+        }
+        mPriority = priority;
+        Log.d(TAG, "connection priority = " + describePriority(priority));
+        return true;
+    }
+}
@@ -1,11 +0,0 @@
-package com.mediatek.labs.linkitremote;
-
-/**
- * Created by MediaTek Labs on 2017/9/12.
- */
-
-class ControlEvent {
-    static final byte btnDown = 1;
-    static final byte btnUp = 2;
-    static final byte valueChange = 3;
-}
@@ -0,0 +1,144 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.ControlInfo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * The views of the controls of a layout, matched against the previous layout.
+ *
+ * A control of the same type as the previous control at its index keeps that
+ * view. Views that are no longer needed go to a pool per control type, which is
+ * drawn from before the adapter creates a new view. The views themselves are up
+ * to the adapter, so the diff runs without Android.
+ */
+class ControlViews<V> {
+
+    interface Adapter<V> {
+        // a new view of the control type, or null if the type has no view
+        V create(ControlInfo.ControlType type);
+
+        // apply the control to its view; previous is the control the view showed
+        // before at the same index, or null for a new or pooled view
+        void bind(V view, ControlInfo c, ControlInfo previous);
+
+        // show the view in the cell of the control, it may be shown already
+        void attach(V view, ControlInfo c);
+
+        void detach(V view);
+    }
+
+    private final Adapter<V> mAdapter;
+    private final EnumMap<ControlInfo.ControlType, ArrayDeque<V>> mPool =
+            new EnumMap<>(ControlInfo.ControlType.class);
+
+    private ControlInfo[] mControls = new ControlInfo[0];
+    private List<V> mViews = new ArrayList<>();
+
+    // statistics of the last build()
+    private int mReused;
+    private int mCreated;
+
+    ControlViews(Adapter<V> adapter) {
+        mAdapter = adapter;
+    }
+
+    /**
+     * Bind a view to each control, reusing the views of the previous controls.
+     */
+    void build(ControlInfo[] controls) {
+        mReused = 0;
+        mCreated = 0;
+
+        final List<V> views = new ArrayList<>(controls.length);
+        for (int i = 0; i < controls.length; ++i) {
+            final ControlInfo c = controls[i];
+            ControlInfo previous = (i < mControls.length) ? mControls[i] : null;
+
+            V view;
+            if (previous != null && previous.type == c.type) {
+                view = mViews.get(i);
+                mViews.set(i, null);
+                mReused += 1;
+            } else {
+                if (previous != null) {
+                    recycle(previous.type, mViews.get(i));
+                    mViews.set(i, null);
+                    previous = null;
+                }
+                view = obtain(c.type);
+            }
+
+            if (view != null) {
+                mAdapter.bind(view, c, previous);
+                mAdapter.attach(view, c);
+            }
+            views.add(view);
+        }
+
+        // controls the new layout no longer has
+        for (int i = controls.length; i < mControls.length; ++i) {
+            recycle(mControls[i].type, mViews.get(i));
+        }
+
+        mControls = controls;
+        mViews = views;
+    }
+
+    /**
+     * Return the view of the control at index, or null.
+     */
+    V get(int index) {
+        return (index >= 0 && index < mViews.size()) ? mViews.get(index) : null;
+    }
+
+    /**
+     * Detach all views. They are kept in the pool for the next build().
+     */
+    void clear() {
+        for (int i = 0; i < mControls.length; ++i) {
+            recycle(mControls[i].type, mViews.get(i));
+        }
+        mControls = new ControlInfo[0];
+        mViews = new ArrayList<>();
+    }
+
+    int getReusedCount() {
+        return mReused;
+    }
+
+    int getCreatedCount() {
+        return mCreated;
+    }
+
+    int getPooledCount(ControlInfo.ControlType type) {
+        final ArrayDeque<V> pool = mPool.get(type);
+        return (pool != null) ? pool.size() : 0;
+    }
+
+    private void recycle(ControlInfo.ControlType type, V view) {
+        if (view == null) {
+            return;
+        }
+        mAdapter.detach(view);
+        ArrayDeque<V> pool = mPool.get(type);
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            mPool.put(type, pool);
+        }
+        pool.push(view);
+    }
+
+    private V obtain(ControlInfo.ControlType type) {
+        final ArrayDeque<V> pool = mPool.get(type);
+        if (pool != null && !pool.isEmpty()) {
+            mReused += 1;
+            return pool.pop();
+        }
+        mCreated += 1;
+        return mAdapter.create(type);
+    }
+}
@@ -9,12 +9,17 @@ import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.IBinder;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
@@ -31,8 +36,11 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.mediatek.labs.linkitremote.protocol.RemoteProtocol;
+
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -40,14 +48,31 @@ public class DeviceList extends AppCompatActivity {
 
     static private final String TAG = "DeviceList";
     public static final String CONNECT_DEVICE_MESSAGE = "com.mediatek.labs.linkitremote.connect_device";
+    // the platform limits scan starts per app, so the log outlives the activity and its scheduler
+    static private final ScanScheduler.StartLog sScanStarts = new ScanScheduler.StartLog();
 
 
     private BluetoothAdapter mBluetoothAdapter;
     private BluetoothLeScanner mScanner;
     private ScanResultAdapter mListAdapter;
-    private ScanCallback mScanCallback;
+    private ListView mListView;
+    private ScanScheduler mScanScheduler;
+    private RecentDevices mRecentDevices;
+    private SessionPrefetcher mPrefetcher;
     private Handler mHandler;
 
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mPrefetcher.setService(((RemoteSessionService.LocalBinder) service).getService());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mPrefetcher.setService(null);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -60,10 +85,13 @@ public class DeviceList extends AppCompatActivity {
 
         // setup UI data source and scan resources
         mListAdapter = new ScanResultAdapter(this.getApplicationContext(), this.getLayoutInflater());
-        final ListView listView = (ListView) findViewById(R.id.device_list);
-        listView.setAdapter(mListAdapter);
+        mListView = (ListView) findViewById(R.id.device_list);
+        mListView.setAdapter(mListAdapter);
         mHandler = new Handler();
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mRecentDevices = new RecentDevices(this);
+        mPrefetcher = new SessionPrefetcher(mHandler, Constants.PREFETCH_BUDGET, Constants.PREFETCH_TIMEOUT_MS);
+        bindService(new Intent(this, RemoteSessionService.class), mServiceConnection, Context.BIND_AUTO_CREATE);
+        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
                 ScanResult tappedItem = (ScanResult) adapterView.getItemAtPosition(position);
@@ -95,6 +123,17 @@ public class DeviceList extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mScanTick);
+        if (mScanScheduler != null) {
+            mScanScheduler.stop(SystemClock.elapsedRealtime());
+        }
+        mPrefetcher.cancel();
+        unbindService(mServiceConnection);
+        super.onDestroy();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
@@ -220,56 +259,81 @@ public class DeviceList extends AppCompatActivity {
     }
 
     private void scanDevicesWithPermission() {
-        if (mScanCallback != null) {
-            // scanning
-            Toast.makeText(this, R.string.already_scanning, Toast.LENGTH_SHORT).show();
-        } else {
-
-            if (null == mBluetoothAdapter) {
-                // Bluetooth is not supported.
-                showErrorText(R.string.bt_not_supported);
-            }
-
-            // build scanner and start scanning
-            // Will stop the scanning after a set time.
-            if(mHandler != null) {
-                mHandler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        stopScanning();
-                    }
-                }, Constants.SCAN_PERIOD_MS);
-            }
+        if (null == mBluetoothAdapter) {
+            // Bluetooth is not supported.
+            showErrorText(R.string.bt_not_supported);
+            return;
+        }
 
+        // The scheduler steps the scan mode down, and stops after a set time
+        // or as soon as a board we connected to before shows up. There is one
+        // for the activity, so scanning again while it scans restarts that scan.
+        if (null == mScanScheduler) {
             mScanner = mBluetoothAdapter.getBluetoothLeScanner();
-
-            Log.d(TAG, "create scancallback");
-            mScanCallback = new SampleScanCallback();
-            Log.d(TAG, "create scancallback done");
-
-            mScanner.startScan(buildScanFilters(),
-                    buildScanSettings(),
-                    mScanCallback);
-
-            // Update UI
-            ProgressBar b = (ProgressBar)findViewById(R.id.scanBar);
-            b.setVisibility(View.VISIBLE);
-            b.setIndeterminate(true);
-            Toast.makeText(getApplicationContext(), R.string.scan_start_toast, Toast.LENGTH_LONG).show();
-            TextView view = (TextView) findViewById(R.id.error_textview);
-            view.setVisibility(View.INVISIBLE);
+            mScanScheduler = new ScanScheduler(new PlatformScanner(new SampleScanCallback()),
+                    mBluetoothAdapter.isOffloadedScanBatchingSupported(), sScanStarts);
         }
+        mHandler.removeCallbacks(mScanTick);
+        mHandler.postDelayed(mScanTick, mScanScheduler.start(SystemClock.elapsedRealtime(),
+                new HashSet<>(mRecentDevices.get())));
+
+        // Update UI
+        ProgressBar b = (ProgressBar)findViewById(R.id.scanBar);
+        b.setVisibility(View.VISIBLE);
+        b.setIndeterminate(true);
+        Toast.makeText(getApplicationContext(), R.string.scan_start_toast, Toast.LENGTH_LONG).show();
+        TextView view = (TextView) findViewById(R.id.error_textview);
+        view.setVisibility(View.INVISIBLE);
     }
 
-    private void stopScanning() {
-        mScanner.stopScan(mScanCallback);
-        mScanCallback = null;
+    private final Runnable mScanTick = new Runnable() {
+        @Override
+        public void run() {
+            final long delay = mScanScheduler.onTick(SystemClock.elapsedRealtime());
+            if (delay < 0) {
+                onScanFinished();
+            } else {
+                mHandler.postDelayed(this, delay);
+            }
+        }
+    };
+
+    // the scheduler stopped the scanner
+    private void onScanFinished() {
+        mHandler.removeCallbacks(mScanTick);
+        mHandler.removeCallbacks(mRefreshList);
+        mListAdapter.refresh(mListView);
         ProgressBar b = (ProgressBar)findViewById(R.id.scanBar);
         b.setVisibility(View.INVISIBLE);
 
         if (mListAdapter.getCount() <= 0){
             showErrorText(R.string.empty_list);
         }
+
+        // connect ahead of the tap, the layout is read while the user looks at the list
+        mPrefetcher.prefetch(mListAdapter.getPrefetchCandidates(mRecentDevices.get(),
+                Constants.PREFETCH_BUDGET, Constants.PREFETCH_MIN_RSSI));
+    }
+
+    // redraw the list at most every LIST_REFRESH_MS, however many results arrive
+    private boolean mRefreshPending = false;
+    private final Runnable mRefreshList = new Runnable() {
+        @Override
+        public void run() {
+            mRefreshPending = false;
+            if (mScanScheduler != null && mScanScheduler.isScanning()) {
+                // boards that went away while scanning
+                mListAdapter.removeStale(SystemClock.elapsedRealtime());
+            }
+            mListAdapter.refresh(mListView);
+        }
+    };
+
+    private void scheduleRefresh() {
+        if (!mRefreshPending && mListAdapter.hasChanges()) {
+            mRefreshPending = true;
+            mHandler.postDelayed(mRefreshList, Constants.LIST_REFRESH_MS);
+        }
     }
 
     private void showErrorText(int messageId) {
@@ -286,21 +350,42 @@ public class DeviceList extends AppCompatActivity {
 
         ScanFilter.Builder builder = new ScanFilter.Builder();
         // Comment out the below line to see all BLE devices around you
-        builder.setServiceUuid(Constants.rcService);
+        builder.setServiceUuid(new ParcelUuid(RemoteProtocol.rcService));
         scanFilters.add(builder.build());
 
         return scanFilters;
     }
 
     /**
-     * Return a {@link ScanSettings} object set to use low power (to preserve battery life).
+     * Return a {@link ScanSettings} object for a phase of the {@link ScanScheduler}.
      */
-    private ScanSettings buildScanSettings() {
+    private ScanSettings buildScanSettings(int scanMode, long reportDelayMs) {
         ScanSettings.Builder builder = new ScanSettings.Builder();
-        builder.setScanMode(ScanSettings.SCAN_MODE_LOW_POWER);
+        builder.setScanMode(scanMode);
+        builder.setReportDelay(reportDelayMs);
         return builder.build();
     }
 
+    private class PlatformScanner implements ScanScheduler.Scanner {
+        private final ScanCallback mCallback;
+
+        PlatformScanner(ScanCallback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void startScan(int scanMode, long reportDelayMs) {
+            mScanner.startScan(buildScanFilters(), buildScanSettings(scanMode, reportDelayMs), mCallback);
+        }
+
+        @Override
+        public void stopScan() {
+            // deliver what the controller batched so far before stopping
+            mScanner.flushPendingScanResults(mCallback);
+            mScanner.stopScan(mCallback);
+        }
+    }
+
 
     /**
      * Custom ScanCallback object - adds to adapter on success, displays error on failure.
@@ -311,18 +396,29 @@ public class DeviceList extends AppCompatActivity {
         public void onBatchScanResults(List<ScanResult> results) {
             super.onBatchScanResults(results);
 
+            final long now = SystemClock.elapsedRealtime();
             for (ScanResult result : results) {
-                mListAdapter.add(result);
+                mListAdapter.add(result, now);
+                onResult(result, now);
             }
-            mListAdapter.notifyDataSetChanged();
+            scheduleRefresh();
         }
 
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
             super.onScanResult(callbackType, result);
 
-            mListAdapter.add(result);
-            mListAdapter.notifyDataSetChanged();
+            final long now = SystemClock.elapsedRealtime();
+            mListAdapter.add(result, now);
+            onResult(result, now);
+            scheduleRefresh();
+        }
+
+        private void onResult(ScanResult result, long now) {
+            // late results of a stopped scan are ignored by the scheduler
+            if (mScanScheduler.onResult(result.getDevice().getAddress(), now)) {
+                onScanFinished();
+            }
         }
 
         @Override
@@ -334,6 +430,8 @@ public class DeviceList extends AppCompatActivity {
     }
 
     private void launchRemoteView(ScanResult tappedItem) {
+        mRecentDevices.add(tappedItem.getDevice().getAddress());
+        mPrefetcher.handOff(tappedItem.getDevice());
         Intent intent = new Intent(this, RemoteView.class);
         intent.putExtra(CONNECT_DEVICE_MESSAGE, tappedItem.getDevice());
         startActivity(intent);
@@ -0,0 +1,79 @@
+package com.mediatek.labs.linkitremote;
+
+import android.util.Log;
+
+import com.mediatek.labs.linkitremote.protocol.GattLink;
+
+/**
+ * Decides when to distrust the services Android cached for a board.
+ *
+ * Service discovery normally comes from the OS attribute cache, which is fast
+ * but goes stale when new firmware changes the attribute table: characteristics
+ * go missing, or reads land on the wrong handles. A session refreshes the cache,
+ * at most once per connection, when the discovered service lacks a required
+ * characteristic, a required read fails, or the layout digest differs from the
+ * cached layout. A second discovery then confirms or corrects the layout.
+ */
+class DiscoveryCache {
+    static private final String TAG = "DiscoveryCache";
+
+    private volatile boolean mRefreshed;    // during this connection
+
+    // statistics
+    private int mHits;
+    private int mMisses;
+    private int mRefreshes;
+
+    void onConnected() {
+        mRefreshed = false;
+    }
+
+    // discovery of this connection was refreshed already
+    boolean isRefreshed() {
+        return mRefreshed;
+    }
+
+    // the layout of this connection was confirmed, from cached services unless refreshed
+    synchronized void onConfirmed() {
+        if (!mRefreshed) {
+            mHits += 1;
+        }
+    }
+
+    /**
+     * Services or layout did not match, drop the OS cache of the board.
+     * Returns false if it was refreshed in this connection already, or the stack refused.
+     */
+    synchronized boolean refresh(GattLink link, String reason) {
+        if (mRefreshed) {
+            return false;
+        }
+        mRefreshed = true;
+        mMisses += 1;
+
+        Log.d(TAG, "refreshing services: " + reason);
+        if (link.refreshServices()) {
+            mRefreshes += 1;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized int getHitCount() {
+        return mHits;
+    }
+
+    synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    synchronized int getRefreshCount() {
+        return mRefreshes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "discovery cache hits " + String.valueOf(mHits) + ", misses " + String.valueOf(mMisses)
+                + ", refreshes " + String.valueOf(mRefreshes);
+    }
+}
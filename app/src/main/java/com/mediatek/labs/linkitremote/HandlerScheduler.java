@@ -0,0 +1,33 @@
+package com.mediatek.labs.linkitremote;
+
+import android.os.Handler;
+
+import com.mediatek.labs.linkitremote.protocol.LatencyRecorder;
+import com.mediatek.labs.linkitremote.protocol.Scheduler;
+
+/**
+ * {@link Scheduler} posting to a Handler, on the clock of {@link LatencyRecorder},
+ * so event timestamps compare with MotionEvent times.
+ */
+class HandlerScheduler implements Scheduler {
+    private final Handler mHandler;
+
+    HandlerScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public long now() {
+        return LatencyRecorder.now();
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        mHandler.postDelayed(task, delayMs);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+}
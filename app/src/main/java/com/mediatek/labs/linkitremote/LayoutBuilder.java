@@ -0,0 +1,262 @@
+package com.mediatek.labs.linkitremote;
+
+import android.content.Context;
+import android.graphics.PorterDuff;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.Button;
+import android.widget.SeekBar;
+import android.widget.TextView;
+import android.widget.ToggleButton;
+
+import com.mediatek.labs.linkitremote.protocol.Brandcolor;
+import com.mediatek.labs.linkitremote.protocol.ControlInfo;
+import com.mediatek.labs.linkitremote.protocol.DeviceInfo;
+
+/**
+ * Builds the control views of a remote layout, and updates them incrementally.
+ *
+ * The builder remembers the layout it built last. Building a new DeviceInfo, for
+ * example after a reconnect, compares each control with the previous one at the
+ * same index: a control of the same type keeps its view and only changed text,
+ * color, grid cell or slider range is applied. Views that are no longer needed go to
+ * a pool per control type and are reused before anything is inflated again, see
+ * {@link ControlViews}.
+ */
+class LayoutBuilder {
+    static private final String TAG = "LayoutBuilder";
+
+    /**
+     * Receives the events of all control views.
+     */
+    interface EventListener extends View.OnTouchListener, SeekBar.OnSeekBarChangeListener, View.OnClickListener {
+    }
+
+    private final Context mContext;
+    private final RemoteGridLayout mRoot;
+    private final EventListener mListener;
+    private final ControlViews<View> mViews;
+
+    LayoutBuilder(Context context, RemoteGridLayout root, EventListener listener) {
+        mContext = context;
+        mRoot = root;
+        mListener = listener;
+        mViews = new ControlViews<>(new ControlViews.Adapter<View>() {
+            @Override
+            public View create(ControlInfo.ControlType type) {
+                return LayoutBuilder.this.create(type);
+            }
+
+            @Override
+            public void bind(View view, ControlInfo c, ControlInfo previous) {
+                LayoutBuilder.this.bind(view, c, previous);
+            }
+
+            @Override
+            public void attach(View view, ControlInfo c) {
+                // pixel frames are up to the grid, which keeps them across rotation
+                if (view.getParent() == null) {
+                    mRoot.addView(view, layoutParams(c));
+                } else if (!c.cell.equals(((RemoteGridLayout.LayoutParams) view.getLayoutParams()).cell)) {
+                    view.setLayoutParams(layoutParams(c));
+                }
+            }
+
+            @Override
+            public void detach(View view) {
+                mRoot.removeView(view);
+            }
+        });
+    }
+
+    /**
+     * Make the root view show the given layout.
+     */
+    void build(DeviceInfo d) {
+        mRoot.setGrid(d.row, d.col);
+        mViews.build(d.controls);
+        Log.d(TAG, "layout built, reused " + String.valueOf(mViews.getReusedCount())
+                + ", created " + String.valueOf(mViews.getCreatedCount()));
+    }
+
+    /**
+     * Return the view of the control at index, or null.
+     */
+    View getView(int index) {
+        return mViews.get(index);
+    }
+
+    /**
+     * Remove all control views. They are kept in the pool for the next build().
+     */
+    void clear() {
+        mViews.clear();
+    }
+
+    private static RemoteGridLayout.LayoutParams layoutParams(ControlInfo c) {
+        // we want to make a "square" circle, not an oval
+        final RemoteGridLayout.LayoutParams lp =
+                new RemoteGridLayout.LayoutParams(c.cell, c.type == ControlInfo.ControlType.circleButton);
+        if (c.type == ControlInfo.ControlType.pushButton || c.type == ControlInfo.ControlType.circleButton) {
+            // button pointers are routed by the grid
+            lp.touchIndex = c.index;
+        }
+        return lp;
+    }
+
+    private Drawable loadDrawable(int id){
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return mContext.getResources().getDrawable(id, null);
+        } else {
+            return mContext.getResources().getDrawable(id);
+        }
+    }
+
+    // create the view of a control type, with everything that does not depend on a control
+    private View create(ControlInfo.ControlType type) {
+        final int fontColor = Brandcolor.font.primary;
+
+        switch (type) {
+            case label: {
+                // labels are disabled buttons
+                TextView b = new TextView(mContext);
+                b.setBackground(loadDrawable(R.drawable.rectangle_label));
+                b.setTextColor(fontColor);
+                b.setTextAlignment(TextView.TEXT_ALIGNMENT_CENTER);
+                b.setTextSize(TypedValue.COMPLEX_UNIT_SP, 22);
+                b.setGravity(Gravity.CENTER_VERTICAL | Gravity.CENTER_HORIZONTAL);
+                return b;
+            }
+            case circleButton: {
+                Button b = new Button(mContext);
+                b.setBackground(loadDrawable(R.drawable.round_button));
+                b.setTextColor(fontColor);
+                b.setTypeface(b.getTypeface(), Typeface.BOLD);
+                b.setOnTouchListener(mListener);
+                return b;
+            }
+            case pushButton: {
+                Button b = new Button(mContext);
+                b.setBackground(loadDrawable(R.drawable.rectangle_button));
+                b.setTextColor(fontColor);
+                b.setTypeface(b.getTypeface(), Typeface.BOLD);
+                b.setOnTouchListener(mListener);
+                return b;
+            }
+            case switchButton: {
+                // load the switch button view component
+                View switchPanel = LayoutInflater.from(mContext)
+                        .inflate(R.layout.switch_panel, null);
+                switchPanel.setBackground(loadDrawable(R.drawable.rectangle_button));
+                switchPanel.getBackground().setColorFilter(Brandcolor.grey.secondary, PorterDuff.Mode.MULTIPLY);
+
+                ToggleButton btn = (ToggleButton)switchPanel.findViewById(R.id.switch_button);
+                TextView title = (TextView)switchPanel.findViewById(R.id.switch_title);
+                title.setTextColor(fontColor);
+                title.setTypeface(title.getTypeface(), Typeface.BOLD);
+
+                btn.setOnClickListener(mListener);
+                return switchPanel;
+            }
+            case slider: {
+                // load the slider view component
+                View sliderPanel = LayoutInflater.from(mContext)
+                        .inflate(R.layout.slider_panel, null);
+                sliderPanel.setBackground(loadDrawable(R.drawable.rectangle_button));
+                sliderPanel.getBackground().setColorFilter(Brandcolor.grey.secondary, PorterDuff.Mode.MULTIPLY);
+
+                SeekBar bar = (SeekBar)sliderPanel.findViewById(R.id.slider_bar);
+                TextView title = (TextView)sliderPanel.findViewById(R.id.slider_title);
+                TextView value = (TextView)sliderPanel.findViewById(R.id.slider_value);
+                title.setTypeface(title.getTypeface(), Typeface.BOLD);
+                value.setTypeface(value.getTypeface(), Typeface.BOLD);
+
+                // event handlers
+                bar.setOnSeekBarChangeListener(mListener);
+                return sliderPanel;
+            }
+            default:
+                return null;
+        }
+    }
+
+    // apply control properties to its view, skipping what is unchanged since previous
+    private void bind(View view, ControlInfo c, ControlInfo previous) {
+        final boolean textChanged = previous == null || !c.text.equals(previous.text);
+        final boolean colorChanged = previous == null || c.color != previous.color;
+
+        switch (c.type) {
+            case label:
+            case circleButton:
+            case pushButton: {
+                TextView b = (TextView) view;
+                if (colorChanged) {
+                    b.getBackground().setColorFilter(c.color, PorterDuff.Mode.MULTIPLY);
+                }
+                // labels show the texts of rcUIUpdate, compare with what is shown
+                if (textChanged || !c.text.contentEquals(b.getText())) {
+                    b.setText(c.text);
+                }
+                b.setTag(c);
+                break;
+            }
+            case switchButton: {
+                ToggleButton btn = (ToggleButton)view.findViewById(R.id.switch_button);
+                TextView title = (TextView)view.findViewById(R.id.switch_title);
+                if (colorChanged) {
+                    btn.getBackground().setColorFilter(c.color, PorterDuff.Mode.MULTIPLY);
+                }
+                if (textChanged) {
+                    title.setText(c.text);
+                }
+                // a pooled or repurposed switch starts off; setChecked() does not call onClick
+                if (previous == null || textChanged || colorChanged) {
+                    btn.setChecked(false);
+                }
+                btn.setTag(c);
+                break;
+            }
+            case slider: {
+                SeekBar bar = (SeekBar)view.findViewById(R.id.slider_bar);
+                if (colorChanged) {
+                    bar.getThumb().setColorFilter(c.color, PorterDuff.Mode.SRC_ATOP);
+                    bar.getProgressDrawable().setColorFilter(c.color, PorterDuff.Mode.SRC_ATOP);
+                }
+                if (textChanged) {
+                    TextView title = (TextView)view.findViewById(R.id.slider_title);
+                    title.setText(c.text);
+                }
+
+                // keep the current slider position unless the range changed
+                final boolean rangeChanged = previous == null ||
+                        c.config.data1 != previous.config.data1 ||
+                        c.config.data2 != previous.config.data2 ||
+                        c.config.data3 != previous.config.data3;
+                bar.setTag(c);
+                if (rangeChanged) {
+                    // Note that SeekBar.setMin() is only availble after Android O
+                    // so we have to calculate our own value range and map it.
+                    // bar.setMin((int)c.config.data1);
+                    TextView value = (TextView)view.findViewById(R.id.slider_value);
+                    final int valueRange = c.config.data2 - c.config.data1;
+                    final int mappedInitialValue = c.config.data3 - c.config.data1;
+                    // initial value is not a user event, don't report it
+                    bar.setOnSeekBarChangeListener(null);
+                    bar.setMax(valueRange);
+                    value.setText(String.valueOf(mappedInitialValue));
+                    bar.setProgress(mappedInitialValue);
+                    bar.setOnSeekBarChangeListener(mListener);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.mediatek.labs.linkitremote;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.mediatek.labs.linkitremote.protocol.DeviceInfoParser;
+import com.mediatek.labs.linkitremote.protocol.LayoutDecoder;
+import com.mediatek.labs.linkitremote.protocol.RemoteProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of the layout characteristics of recently used boards.
+ *
+ * Entries hold the raw characteristic values that readDeviceInfo() parses, keyed
+ * by device address and the rcProtocolVersion the board reported. Each entry is
+ * a small file; the least recently used ones are deleted once there are more than
+ * maxEntries. The order of use is kept in an index file next to the entries.
+ * A CRC32 digest over the values tells whether a fresh read of the board still
+ * matches the cached layout.
+ *
+ * The cache does not save GATT reads: the board has no characteristic that tells
+ * cheaply whether its layout changed, and the rcLayout header alone misses
+ * renamed controls. So every connection still reads the whole layout, and the
+ * cache only shows the last layout while that read runs, and spares rebuilding
+ * the views when the digest matches.
+ *
+ * The methods do file I/O, call them off the UI thread or use the async variants.
+ */
+class LayoutCache {
+    static private final String TAG = "LayoutCache";
+
+    static final int DEFAULT_MAX_ENTRIES = 16;
+
+    static private final int MAGIC = 0x4C524331;    // "LRC1"
+    static private final String SUFFIX = ".layout";
+    static private final String INDEX = "recent.index";
+
+    /**
+     * A cached layout, as raw characteristic values.
+     */
+    static class Entry {
+        final int protocolVersion;
+        final Map<UUID, byte[]> values;
+        final long digest;
+
+        Entry(int protocolVersion, Map<UUID, byte[]> values, long digest) {
+            this.protocolVersion = protocolVersion;
+            this.values = values;
+            this.digest = digest;
+        }
+    }
+
+    private final File mDir;
+    private final int mMaxEntries;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private List<String> mRecent;       // keys, most recently used first, read from INDEX on first use
+
+    /**
+     * Receives the result of loadAsync().
+     */
+    interface LoadCallback {
+        // null if there is no usable entry
+        void onLoaded(Entry entry);
+    }
+
+    LayoutCache(File dir, int maxEntries) {
+        mDir = dir;
+        mMaxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Digest of a set of characteristic values, independent of map order.
+     */
+    static long digest(Map<UUID, byte[]> values) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer key = ByteBuffer.allocate(16);
+        for (Map.Entry<UUID, byte[]> e : new TreeMap<>(values).entrySet()) {
+            key.clear();
+            key.putLong(e.getKey().getMostSignificantBits());
+            key.putLong(e.getKey().getLeastSignificantBits());
+            crc.update(key.array(), 0, 16);
+            final byte[] value = e.getValue();
+            if (value != null) {
+                crc.update(value, 0, value.length);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Return the stored layout of the device, or null. Entries that are corrupted,
+     * or of a protocol version the app does not speak, are dropped.
+     */
+    synchronized Entry load(String address) {
+        final String key = key(address);
+        final File[] files = listEntries(key + "-v");
+        if (files.length == 0) {
+            return null;
+        }
+        // store() keeps one entry per device, anything else is left over
+        for (int i = 1; i < files.length; ++i) {
+            files[i].delete();
+        }
+
+        final File file = files[0];
+        final Entry entry = read(file);
+        if (entry == null) {
+            Log.d(TAG, "dropping corrupted entry " + file.getName());
+            file.delete();
+            forget(key);
+            return null;
+        }
+        if (!file.getName().equals(fileName(key, entry.protocolVersion))
+                || entry.protocolVersion != DeviceInfoParser.readProtocolVersion(entry.values)
+                || entry.protocolVersion < RemoteProtocol.PROTOCOL_VERSION
+                || entry.protocolVersion > RemoteProtocol.PROTOCOL_VERSION_BATCH) {
+            Log.d(TAG, "dropping entry " + file.getName() + " of protocol version "
+                    + String.valueOf(entry.protocolVersion));
+            file.delete();
+            forget(key);
+            return null;
+        }
+
+        touch(key);
+        return entry;
+    }
+
+    /**
+     * load() on the cache thread, the callback runs on the handler.
+     */
+    void loadAsync(final String address, final Handler handler, final LoadCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Entry entry = load(address);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoaded(entry);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Store the layout of the device, replacing entries of other protocol versions.
+     */
+    synchronized void store(String address, int protocolVersion, Map<UUID, byte[]> values) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.d(TAG, "cannot create cache directory");
+            return;
+        }
+
+        final String key = key(address);
+        for (File f : listEntries(key + "-v")) {
+            f.delete();
+        }
+
+        final File file = new File(mDir, fileName(key, protocolVersion));
+        final File temp = new File(mDir, file.getName() + ".tmp");
+        try {
+            write(temp, protocolVersion, values);
+            if (!temp.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "failed to store layout: " + e.getMessage());
+            temp.delete();
+            forget(key);
+            return;
+        }
+
+        touch(key);
+        evict();
+    }
+
+    synchronized void remove(String address) {
+        final String key = key(address);
+        for (File f : listEntries(key + "-v")) {
+            f.delete();
+        }
+        forget(key);
+    }
+
+    /**
+     * store() on the cache thread. values must not change afterwards.
+     */
+    void storeAsync(final String address, final int protocolVersion, final Map<UUID, byte[]> values) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                store(address, protocolVersion, values);
+            }
+        });
+    }
+
+    /**
+     * remove() on the cache thread.
+     */
+    void removeAsync(final String address) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                remove(address);
+            }
+        });
+    }
+
+    private void evict() {
+        final File[] files = listEntries("");
+        if (files.length <= mMaxEntries) {
+            return;
+        }
+
+        final List<String> stored = new ArrayList<>();
+        for (File f : files) {
+            stored.add(keyOf(f));
+        }
+
+        // most recently used first, files missing from the index count as oldest
+        final List<String> recent = getRecent();
+        recent.retainAll(stored);
+        for (String key : stored) {
+            if (!recent.contains(key)) {
+                recent.add(key);
+            }
+        }
+        while (recent.size() > mMaxEntries) {
+            final String key = recent.remove(recent.size() - 1);
+            for (File f : listEntries(key + "-v")) {
+                Log.d(TAG, "evict " + f.getName());
+                f.delete();
+            }
+        }
+        writeIndex();
+    }
+
+    // mark as most recently used
+    private void touch(String key) {
+        final List<String> recent = getRecent();
+        if (recent.isEmpty() || !recent.get(0).equals(key)) {
+            recent.remove(key);
+            recent.add(0, key);
+            writeIndex();
+        }
+    }
+
+    private void forget(String key) {
+        if (getRecent().remove(key)) {
+            writeIndex();
+        }
+    }
+
+    private List<String> getRecent() {
+        if (mRecent == null) {
+            mRecent = readIndex(new File(mDir, INDEX));
+        }
+        return mRecent;
+    }
+
+    private static List<String> readIndex(File file) {
+        final List<String> keys = new ArrayList<>();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty() && !keys.contains(line)) {
+                    keys.add(line);
+                }
+            }
+        } catch (IOException e) {
+            // no index yet, or a broken one: every entry is equally old
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return keys;
+    }
+
+    private void writeIndex() {
+        if (!mDir.isDirectory()) {
+            return;
+        }
+        final File file = new File(mDir, INDEX);
+        final File temp = new File(mDir, INDEX + ".tmp");
+        try {
+            final Writer out = new FileWriter(temp);
+            try {
+                for (String key : mRecent) {
+                    out.write(key);
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "failed to write index: " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    private File[] listEntries(String prefix) {
+        final File[] all = mDir.listFiles();
+        if (all == null) {
+            return new File[0];
+        }
+
+        int count = 0;
+        final File[] matches = new File[all.length];
+        for (File f : all) {
+            final String name = f.getName();
+            if (name.startsWith(prefix) && name.endsWith(SUFFIX)) {
+                matches[count++] = f;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    // "AA:BB:CC:DD:EE:FF" -> "AABBCCDDEEFF"
+    private static String key(String address) {
+        return address.replace(":", "");
+    }
+
+    // "AABBCCDDEEFF-v4.layout" -> "AABBCCDDEEFF"
+    private static String keyOf(File file) {
+        final String name = file.getName();
+        final int end = name.lastIndexOf("-v");
+        return (end >= 0) ? name.substring(0, end) : name;
+    }
+
+    private static String fileName(String key, int protocolVersion) {
+        return key + "-v" + String.valueOf(protocolVersion) + SUFFIX;
+    }
+
+    private static void write(File file, int protocolVersion, Map<UUID, byte[]> values) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(protocolVersion);
+            out.writeInt(values.size());
+            for (Map.Entry<UUID, byte[]> e : values.entrySet()) {
+                final byte[] value = (e.getValue() != null) ? e.getValue() : new byte[0];
+                out.writeLong(e.getKey().getMostSignificantBits());
+                out.writeLong(e.getKey().getLeastSignificantBits());
+                out.writeInt(value.length);
+                out.write(value);
+            }
+            out.writeLong(digest(values));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Entry read(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            final int protocolVersion = in.readInt();
+            final int count = in.readInt();
+            if (count < 0 || count > 64) {
+                return null;
+            }
+
+            Map<UUID, byte[]> values = new HashMap<>();
+            for (int i = 0; i < count; ++i) {
+                final UUID uuid = new UUID(in.readLong(), in.readLong());
+                final int length = in.readInt();
+                // rcLayout is the largest value
+                if (length < 0 || length > LayoutDecoder.MAX_BLOB_SIZE) {
+                    return null;
+                }
+                final byte[] value = new byte[length];
+                in.readFully(value);
+                values.put(uuid, value);
+            }
+
+            final long digest = in.readLong();
+            if (digest != digest(values)) {
+                return null;
+            }
+            return new Entry(protocolVersion, values, digest);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.mediatek.labs.linkitremote;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Addresses of the boards the user opened a remote for, most recent first.
+ */
+class RecentDevices {
+    static private final String PREFS = "recent_devices";
+    static private final String KEY_ADDRESSES = "addresses";
+    static final int MAX_DEVICES = 8;
+
+    private final SharedPreferences mPrefs;
+
+    RecentDevices(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    List<String> get() {
+        final String joined = mPrefs.getString(KEY_ADDRESSES, "");
+        if (joined.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(joined.split(",")));
+    }
+
+    void add(String address) {
+        final List<String> addresses = get();
+        addresses.remove(address);
+        addresses.add(0, address);
+
+        final StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < addresses.size() && i < MAX_DEVICES; ++i) {
+            if (i > 0) {
+                joined.append(',');
+            }
+            joined.append(addresses.get(i));
+        }
+        mPrefs.edit().putString(KEY_ADDRESSES, joined.toString()).apply();
+    }
+}
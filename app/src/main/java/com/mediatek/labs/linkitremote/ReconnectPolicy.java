@@ -0,0 +1,103 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.LatencyHistogram;
+
+import java.util.Random;
+
+/**
+ * Decides when and how to reconnect after the link to a board dropped.
+ *
+ * Attempts are spaced by exponential backoff with full jitter: the delay before
+ * attempt n is uniformly random in [0, min(MAX_DELAY_MS, BASE_DELAY_MS * 2^n)],
+ * so boards that lost the link together do not retry in lockstep. The first
+ * DIRECT_ATTEMPTS attempts use a direct connect, which is fast when the board is
+ * in range. After that the policy falls back to autoConnect, which waits in the
+ * controller until the board advertises again without spinning the app.
+ *
+ * Reconnect times, from losing the link to a usable session, are recorded for tuning.
+ * All times are in milliseconds from the same monotonic clock.
+ */
+class ReconnectPolicy {
+    static final long BASE_DELAY_MS = 250;
+    static final long MAX_DELAY_MS = 8000;
+    static final int DIRECT_ATTEMPTS = 3;
+
+    private final Random mRandom;
+    private int mAttempt = 0;
+    private long mLostAt = -1;     // -1 while the session is up
+
+    // statistics
+    private final LatencyHistogram mReconnectTimes = new LatencyHistogram();
+    private int mReconnects;
+    private int mAttempts;
+
+    ReconnectPolicy(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * The link was lost or an attempt failed at now. Returns the delay before the next attempt.
+     */
+    long onLinkLost(long now) {
+        if (mLostAt < 0) {
+            mLostAt = now;
+        }
+        final long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(mAttempt, 16));
+        mAttempt += 1;
+        mAttempts += 1;
+        return (long) (mRandom.nextDouble() * (ceiling + 1));
+    }
+
+    /**
+     * Whether the attempt scheduled by the last onLinkLost() should use autoConnect.
+     */
+    boolean useAutoConnect() {
+        return mAttempt > DIRECT_ATTEMPTS;
+    }
+
+    boolean isReconnecting() {
+        return mLostAt >= 0;
+    }
+
+    int getAttempt() {
+        return mAttempt;
+    }
+
+    /**
+     * The session is usable again at now.
+     */
+    void onReady(long now) {
+        if (mLostAt >= 0) {
+            mReconnectTimes.record(now - mLostAt);
+            mReconnects += 1;
+        }
+        reset();
+    }
+
+    /**
+     * Forget the current outage, for example on a connect by the user.
+     */
+    void reset() {
+        mAttempt = 0;
+        mLostAt = -1;
+    }
+
+    LatencyHistogram getReconnectTimes() {
+        return mReconnectTimes;
+    }
+
+    int getReconnectCount() {
+        return mReconnects;
+    }
+
+    // attempts over all outages, including the successful ones
+    int getAttemptCount() {
+        return mAttempts;
+    }
+
+    @Override
+    public String toString() {
+        return "reconnects " + String.valueOf(mReconnects) + " in " + String.valueOf(mAttempts)
+                + " attempts, time " + mReconnectTimes.toString();
+    }
+}
@@ -0,0 +1,230 @@
+package com.mediatek.labs.linkitremote;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.mediatek.labs.linkitremote.protocol.GridCell;
+
+/**
+ * Lays out remote controls on a fixed grid of rows x columns cells.
+ *
+ * Each child carries its grid cell in {@link LayoutParams}. Cell size follows
+ * from the size of this view, so every child is measured exactly once with its
+ * final size and placed without further passes. A size change, e.g. rotation,
+ * only recomputes pixel frames; the grid cells of the children stay untouched.
+ *
+ * Children with a touch index in their LayoutParams are buttons, whose pointers
+ * this view routes itself, see {@link TouchRouter}. Other children get their
+ * touches as usual.
+ */
+public class RemoteGridLayout extends ViewGroup {
+    private int mRows = 1;
+    private int mColumns = 1;
+    private int mCellPadding = Constants.VIEW_PADDING;
+    private int mCellWidth;
+    private int mCellHeight;
+    private final TouchRouter mTouchRouter = new TouchRouter();
+
+    public RemoteGridLayout(Context context) {
+        super(context);
+    }
+
+    public RemoteGridLayout(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public RemoteGridLayout(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    /**
+     * Set the grid dimension, DeviceInfo.row x DeviceInfo.col.
+     */
+    public void setGrid(int rows, int columns) {
+        rows = Math.max(1, rows);
+        columns = Math.max(1, columns);
+        if (rows != mRows || columns != mColumns) {
+            mRows = rows;
+            mColumns = columns;
+            requestLayout();
+        }
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    // inset of each control within its cells, in pixels
+    public void setCellPadding(int padding) {
+        if (padding != mCellPadding) {
+            mCellPadding = padding;
+            requestLayout();
+        }
+    }
+
+    // receives the button edges of all pointers
+    public void setTouchListener(TouchRouter.Listener listener) {
+        mTouchRouter.setListener(listener);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // the grid always fills the space it is given
+        final int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+        final int height = getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec);
+        setMeasuredDimension(width, height);
+
+        final int cellWidth = (width - getPaddingLeft() - getPaddingRight()) / mColumns;
+        final int cellHeight = (height - getPaddingTop() - getPaddingBottom()) / mRows;
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+
+        final int count = getChildCount();
+        for (int i = 0; i < count; ++i) {
+            final View child = getChildAt(i);
+            if (child.getVisibility() == GONE) {
+                continue;
+            }
+
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            int left = getPaddingLeft() + lp.cell.column * cellWidth + mCellPadding;
+            int top = getPaddingTop() + lp.cell.row * cellHeight + mCellPadding;
+            int w = Math.max(0, lp.cell.columnSpan * cellWidth - 2 * mCellPadding);
+            int h = Math.max(0, lp.cell.rowSpan * cellHeight - 2 * mCellPadding);
+
+            if (lp.square) {
+                // largest square centered in the cells
+                final int side = Math.min(w, h);
+                left += (w - side) / 2;
+                top += (h - side) / 2;
+                w = side;
+                h = side;
+            }
+
+            lp.left = left;
+            lp.top = top;
+            child.measure(MeasureSpec.makeMeasureSpec(w, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(h, MeasureSpec.EXACTLY));
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        mTouchRouter.setGrid(mRows, mColumns, getPaddingLeft(), getPaddingTop(), mCellWidth, mCellHeight);
+        final int count = getChildCount();
+        for (int i = 0; i < count; ++i) {
+            final View child = getChildAt(i);
+            if (child.getVisibility() == GONE) {
+                continue;
+            }
+
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            final int right = lp.left + child.getMeasuredWidth();
+            final int bottom = lp.top + child.getMeasuredHeight();
+            child.layout(lp.left, lp.top, right, bottom);
+            if (lp.touchIndex >= 0) {
+                mTouchRouter.addButton(lp.touchIndex, lp.cell, lp.left, lp.top, right, bottom, lp.square);
+            }
+        }
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        // every pointer passes here in grid coordinates, before it is split between children
+        final long time = ev.getEventTime();
+        switch (ev.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                // a new gesture, in case the last one ended unseen
+                mTouchRouter.cancel(time);
+                // fall through
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                final int i = ev.getActionIndex();
+                mTouchRouter.down(ev.getPointerId(i), (int) ev.getX(i), (int) ev.getY(i), time);
+                break;
+            }
+            case MotionEvent.ACTION_MOVE:
+                // pointers that went down elsewhere, e.g. on a slider, are ignored
+                for (int i = 0; i < ev.getPointerCount(); ++i) {
+                    mTouchRouter.move(ev.getPointerId(i), (int) ev.getX(i), (int) ev.getY(i), time);
+                }
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+            case MotionEvent.ACTION_UP:
+                mTouchRouter.up(ev.getPointerId(ev.getActionIndex()), time);
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                mTouchRouter.cancel(time);
+                break;
+            default:
+                break;
+        }
+        mTouchRouter.endEvent();
+
+        // keep getting the gesture while a button pointer is down, even if no child took it
+        final boolean handled = super.dispatchTouchEvent(ev);
+        return handled || mTouchRouter.isTracking();
+    }
+
+    @Override
+    public boolean shouldDelayChildPressedState() {
+        // nothing scrolls here, show presses right away
+        return false;
+    }
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams p) {
+        return p instanceof LayoutParams;
+    }
+
+    @Override
+    protected ViewGroup.LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(new GridCell(), false);
+    }
+
+    @Override
+    public ViewGroup.LayoutParams generateLayoutParams(AttributeSet attrs) {
+        return new LayoutParams(getContext(), attrs);
+    }
+
+    @Override
+    protected ViewGroup.LayoutParams generateLayoutParams(ViewGroup.LayoutParams p) {
+        return new LayoutParams(p);
+    }
+
+    /**
+     * Grid position of a child. left/top are pixel positions computed while measuring.
+     */
+    public static class LayoutParams extends ViewGroup.LayoutParams {
+        public GridCell cell;
+        public boolean square;      // keep width == height, e.g. for circle buttons
+        public int touchIndex = -1; // control index of a button routed by the grid, or -1
+
+        int left;
+        int top;
+
+        public LayoutParams(GridCell cell, boolean square) {
+            super(MATCH_PARENT, MATCH_PARENT);
+            this.cell = cell;
+            this.square = square;
+        }
+
+        public LayoutParams(Context c, AttributeSet attrs) {
+            super(c, attrs);
+            cell = new GridCell();
+        }
+
+        public LayoutParams(ViewGroup.LayoutParams source) {
+            super(source);
+            cell = (source instanceof LayoutParams) ? ((LayoutParams) source).cell : new GridCell();
+            square = (source instanceof LayoutParams) && ((LayoutParams) source).square;
+            touchIndex = (source instanceof LayoutParams) ? ((LayoutParams) source).touchIndex : -1;
+        }
+    }
+}
@@ -0,0 +1,923 @@
+package com.mediatek.labs.linkitremote;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.mediatek.labs.linkitremote.protocol.ControlEvent;
+import com.mediatek.labs.linkitremote.protocol.ControlInfo;
+import com.mediatek.labs.linkitremote.protocol.DeviceInfo;
+import com.mediatek.labs.linkitremote.protocol.DeviceInfoParser;
+import com.mediatek.labs.linkitremote.protocol.EchoProbe;
+import com.mediatek.labs.linkitremote.protocol.EventPacker;
+import com.mediatek.labs.linkitremote.protocol.EventWriter;
+import com.mediatek.labs.linkitremote.protocol.GattLink;
+import com.mediatek.labs.linkitremote.protocol.LatencyRecorder;
+import com.mediatek.labs.linkitremote.protocol.LayoutReader;
+import com.mediatek.labs.linkitremote.protocol.RemoteProtocol;
+import com.mediatek.labs.linkitremote.protocol.UIUpdateDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * One GATT connection to a board: layout reads, event writes, label updates and
+ * connection tuning, independent of any activity.
+ *
+ * Sessions belong to {@link RemoteSessionService} and outlive the activity that
+ * shows them, so a rotation or an app switch does not drop the link. A visible
+ * activity attaches a {@link Listener}, and the session replays its current state
+ * to it. Call session methods on the main thread.
+ *
+ * When the link drops without disconnect() or close(), the session reconnects on
+ * its own as {@link ReconnectPolicy} says. The layout and the event sequence number
+ * carry over, so the board sees one continuous stream of events and the activity
+ * keeps its views.
+ *
+ * Every connection goes through the states of {@link SessionLifecycle}. A state
+ * that overruns its deadline, or an error status from the stack such as GATT 133,
+ * closes the BluetoothGatt and leaves the retry to the reconnect policy.
+ * The connection itself is a {@link BluetoothGattLink}; layout reads and event
+ * writes run on it through {@link LayoutReader} and {@link EventWriter}.
+ * Discovery trusts the OS attribute cache until the board disagrees with it,
+ * see {@link DiscoveryCache}.
+ */
+class RemoteSession {
+    static private final String TAG = "RemoteSession";
+
+    static private final UUID GAP_SERVICE = UUID.fromString("00001800-0000-1000-8000-00805F9B34FB");
+    static private final UUID GAP_DEVICE_NAME = UUID.fromString("00002A00-0000-1000-8000-00805F9B34FB");
+
+    static private final long WATCHDOG_PERIOD_MS = 1000;
+    static private final long REDISCOVER_DELAY_MS = 100;   // lets an optional read in flight finish
+
+    /**
+     * Called on the main thread, except onLabel().
+     */
+    interface Listener {
+        void onConnecting();
+
+        // layout to show, from the cache or read from the board
+        void onLayout(DeviceInfo d);
+
+        // the board confirmed the layout
+        void onReady();
+
+        // called on the GATT callback thread, for changed labels only
+        void onLabel(int index, String text);
+
+        void onNameChanged(String name);
+
+        void onError(int messageId);
+
+        void onDisconnected(boolean expected);
+    }
+
+    private final Context mContext;
+    private final BluetoothDevice mDevice;
+    private final LayoutCache mLayoutCache;
+    private final Handler mHandler;
+    private final HandlerScheduler mScheduler;
+
+    private volatile Listener mListener;
+    private long mDetachedSince;
+    private final SessionLifecycle mLifecycle = new SessionLifecycle();
+    private final DiscoveryCache mDiscoveryCache = new DiscoveryCache();
+
+    private BluetoothGattLink mLink;
+    private GattCallback mCallback;
+    // set on the GATT callback thread, read on the main thread too
+    private volatile LayoutReader mLayoutReader;
+    private long mLayoutDigest;     // digest of the values mDeviceInfo was parsed from
+    private DeviceInfo mDeviceInfo;
+    private String mName;
+    private volatile EventWriter mEventWriter;
+    private volatile ConnectionTuner mTuner;
+    private boolean mActiveDisconnect = false;
+    private long mConnectTime;
+    private final UIUpdateDecoder mUIUpdateDecoder = new UIUpdateDecoder();
+    private volatile boolean mResetLabels = false;
+    private byte mEventSeq = 0;         // first sequence number of the next EventWriter
+    private final ReconnectPolicy mReconnectPolicy = new ReconnectPolicy(new Random());
+    private boolean mAutoConnect = false;
+    private volatile LatencyRecorder mLatencyRecorder;     // null unless latency is measured
+    private volatile EchoProbe mEchoProbe;                  // of the last echo probe run
+    private int mProbeCount;
+    private int mProbesLeft;
+    private long mProbeIntervalMs;
+    private long mProbeTimeoutMs;
+
+    RemoteSession(Context context, BluetoothDevice device, LayoutCache layoutCache, Handler handler) {
+        mContext = context.getApplicationContext();
+        mDevice = device;
+        mLayoutCache = layoutCache;
+        mHandler = handler;
+        mScheduler = new HandlerScheduler(handler);
+        mDetachedSince = SystemClock.elapsedRealtime();
+    }
+
+    BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    SessionLifecycle.State getState() {
+        return mLifecycle.getState();
+    }
+
+    SessionLifecycle getLifecycle() {
+        return mLifecycle;
+    }
+
+    DiscoveryCache getDiscoveryCache() {
+        return mDiscoveryCache;
+    }
+
+    DeviceInfo getDeviceInfo() {
+        return mDeviceInfo;
+    }
+
+    boolean isAttached() {
+        return mListener != null;
+    }
+
+    // elapsedRealtime() of the last detach()
+    long getDetachedSince() {
+        return mDetachedSince;
+    }
+
+    /**
+     * Attach the listener of a visible activity, and replay the current state to it.
+     */
+    void attach(Listener listener) {
+        mListener = listener;
+        final ConnectionTuner tuner = mTuner;
+        if (null != tuner) {
+            tuner.setForeground(true, SystemClock.elapsedRealtime());
+        }
+
+        if (null != mName) {
+            listener.onNameChanged(mName);
+        }
+        if (null != mDeviceInfo) {
+            listener.onLayout(mDeviceInfo);
+        }
+        switch (mLifecycle.getState()) {
+            case connecting:
+            case discovering:
+            case reading:
+                listener.onConnecting();
+                break;
+            case ready:
+                listener.onReady();
+                break;
+            default:
+                break;
+        }
+    }
+
+    void detach() {
+        mListener = null;
+        mDetachedSince = SystemClock.elapsedRealtime();
+        final ConnectionTuner tuner = mTuner;
+        if (null != tuner) {
+            tuner.setForeground(false, mDetachedSince);
+        }
+    }
+
+    ReconnectPolicy getReconnectPolicy() {
+        return mReconnectPolicy;
+    }
+
+    /**
+     * Start recording event latency into recorder, or stop with null. The recorder
+     * stays with the session across reconnects.
+     */
+    void setLatencyRecorder(LatencyRecorder recorder) {
+        mLatencyRecorder = recorder;
+        final EventWriter writer = mEventWriter;
+        if (null != writer) {
+            writer.setLatencyRecorder(recorder);
+        }
+    }
+
+    // hold events sent until released, to write them together
+    void setEventsHeld(boolean held) {
+        final EventWriter writer = mEventWriter;
+        if (null != writer) {
+            writer.setHeld(held);
+        }
+    }
+
+    // what the link currently takes to write an event, 0 when not connected
+    long getEventLatencyMs() {
+        final EventWriter writer = mEventWriter;
+        return (null != writer) ? writer.getSmoothedLatencyMs() : 0;
+    }
+
+    long getConnectionIntervalMs() {
+        final ConnectionTuner tuner = mTuner;
+        return (null != tuner) ? tuner.getConnectionIntervalMs() : 0;
+    }
+
+    LatencyRecorder getLatencyRecorder() {
+        return mLatencyRecorder;
+    }
+
+    /**
+     * Send count echo probes to the board, one every intervalMs, through the event
+     * path. Results collect in the returned probe as echoes arrive and are logged
+     * when the run ends. Returns null if no layout is ready yet.
+     */
+    EchoProbe startEchoProbe(int count, long intervalMs, long timeoutMs) {
+        final EventWriter writer = mEventWriter;
+        if (null == writer || mLifecycle.getState() != SessionLifecycle.State.ready) {
+            return null;
+        }
+        mHandler.removeCallbacks(mProbeTick);
+        final EchoProbe probe = new EchoProbe(timeoutMs * 1000);   // LatencyRecorder clock
+        mEchoProbe = probe;
+        writer.setEchoProbe(probe);
+        mProbeCount = count;
+        mProbesLeft = count;
+        mProbeIntervalMs = intervalMs;
+        mProbeTimeoutMs = timeoutMs;
+        mHandler.post(mProbeTick);
+        return probe;
+    }
+
+    EchoProbe getEchoProbe() {
+        return mEchoProbe;
+    }
+
+    void connect() {
+        mHandler.removeCallbacks(mReconnect);
+        if (null != mCallback) {
+            // already connected
+            Log.d(TAG, "already connected to device");
+            return;
+        }
+
+        mReconnectPolicy.reset();
+        connectGatt(false);
+    }
+
+    // direct connect fails fast when the board is away, autoConnect waits for it
+    private void connectGatt(boolean autoConnect) {
+        mCallback = new GattCallback();
+        mLink = mCallback.mGattLink;
+        mConnectTime = SystemClock.elapsedRealtime();
+        mAutoConnect = autoConnect;
+        // autoConnect waits for the board as long as it takes
+        mLifecycle.moveTo(SessionLifecycle.State.connecting, mConnectTime,
+                autoConnect ? 0 : SessionLifecycle.CONNECT_TIMEOUT_MS);
+        Tracer.event(Tracer.CONNECT, autoConnect ? 1 : 0);
+        mLink.connect(mContext, mDevice, autoConnect);
+        mHandler.postDelayed(mWatchdog, WATCHDOG_PERIOD_MS);
+
+        final Listener listener = mListener;
+        if (null != listener) {
+            listener.onConnecting();
+        }
+
+        // show the layout we saw last time right away, reading the board validates it
+        if (null == mDeviceInfo) {
+            final GattCallback callback = mCallback;
+            mLayoutCache.loadAsync(mDevice.getAddress(), mHandler, new LayoutCache.LoadCallback() {
+                @Override
+                public void onLoaded(LayoutCache.Entry cached) {
+                    // the board may have been read meanwhile, or the connection cleared
+                    if (null == cached || mCallback != callback || null != mDeviceInfo) {
+                        return;
+                    }
+                    final DeviceInfo d = readDeviceInfo(cached.values);
+                    if (null != d) {
+                        Log.d(TAG, "using cached layout, protocol version " + String.valueOf(cached.protocolVersion));
+                        mLayoutDigest = cached.digest;
+                        setDeviceInfo(d);
+                    } else {
+                        mLayoutCache.removeAsync(mDevice.getAddress());
+                    }
+                }
+            });
+        }
+    }
+
+    void disconnect() {
+        mHandler.removeCallbacks(mReconnect);
+        if (mLink != null) {
+            mActiveDisconnect = true;
+            mLifecycle.moveTo(SessionLifecycle.State.closing, SystemClock.elapsedRealtime());
+            mLink.disconnect();
+        }
+    }
+
+    /**
+     * Drop the connection for good. No listener calls follow.
+     */
+    void close() {
+        mHandler.removeCallbacks(mReconnect);
+        mListener = null;
+        mActiveDisconnect = true;
+        if (mLink != null) {
+            mLink.disconnect();
+        }
+        clearConnection();
+    }
+
+    // label texts were reset from the layout names, forward the next update of each
+    void resetLabels() {
+        mResetLabels = true;
+    }
+
+    // inputTime is when the user caused the event, see LatencyRecorder
+    void sendEvent(ControlInfo c, int event, int data, long inputTime) {
+        final EventWriter writer = mEventWriter;
+        if (null == writer) {
+            return;
+        }
+
+        final ConnectionTuner tuner = mTuner;
+        if (null != tuner) {
+            tuner.onActivity(SystemClock.elapsedRealtime());
+        }
+
+        // slider values are idempotent - only the latest one matters
+        writer.send(c.index, c.type, (byte)event, data, c.type == ControlInfo.ControlType.slider, inputTime);
+    }
+
+    // cleanup resources used for the BLE connection, the layout stays for the next connect
+    private void clearConnection() {
+        mHandler.removeCallbacks(mMtuTimeout);
+        mHandler.removeCallbacks(mIdleCheck);
+        mHandler.removeCallbacks(mProbeTick);
+        mHandler.removeCallbacks(mWatchdog);
+        mHandler.removeCallbacks(mDiscover);
+        mTuner = null;
+        final EventWriter writer = mEventWriter;
+        mEventWriter = null;
+        if (writer != null) {
+            mEventSeq = writer.getSequence();
+            writer.close();
+        }
+        final LayoutReader reader = mLayoutReader;
+        mLayoutReader = null;
+        if (reader != null) {
+            reader.cancel();
+        }
+        if (mLink != null) {
+            mLink.close();
+        }
+        mLink = null;
+        mCallback = null;
+        mLifecycle.moveTo(SessionLifecycle.State.disconnected, SystemClock.elapsedRealtime());
+
+        final boolean expected = mActiveDisconnect;
+        mActiveDisconnect = false;
+        final Listener listener = mListener;
+        if (null != listener) {
+            listener.onDisconnected(expected);
+        }
+
+        if (!expected) {
+            final long delay = mReconnectPolicy.onLinkLost(SystemClock.elapsedRealtime());
+            Log.d(TAG, "reconnect attempt " + String.valueOf(mReconnectPolicy.getAttempt())
+                    + " in " + String.valueOf(delay) + "ms");
+            mHandler.postDelayed(mReconnect, delay);
+        }
+    }
+
+    private final Runnable mReconnect = new Runnable() {
+        @Override
+        public void run() {
+            if (null == mCallback) {
+                connectGatt(mReconnectPolicy.useAutoConnect());
+            }
+        }
+    };
+
+    // close a failed or stuck connection, the reconnect policy retries unless we were closing
+    private void recover(String reason) {
+        Log.d(TAG, "recovering from " + reason + " in " + mLifecycle.getState().name());
+        if (mLink != null) {
+            mLink.disconnect();
+        }
+        clearConnection();
+    }
+
+    // give up on a board we cannot use, without retrying
+    private void fail(int messageId) {
+        notifyError(messageId);
+        disconnect();
+    }
+
+    // the services may come from a stale OS cache, discover them again without it
+    private boolean rediscover(String reason) {
+        if (null == mLink || !mDiscoveryCache.refresh(mLink, reason)) {
+            return false;
+        }
+        final LayoutReader reader = mLayoutReader;
+        mLayoutReader = null;
+        if (reader != null) {
+            reader.cancel();
+        }
+        mLifecycle.moveTo(SessionLifecycle.State.discovering, SystemClock.elapsedRealtime());
+        mHandler.postDelayed(mDiscover, REDISCOVER_DELAY_MS);
+        return true;
+    }
+
+    private final Runnable mDiscover = new Runnable() {
+        @Override
+        public void run() {
+            if (null != mLink && !mLink.discoverServices()) {
+                recover("discovery rejected");
+            }
+        }
+    };
+
+    private final Runnable mWatchdog = new Runnable() {
+        @Override
+        public void run() {
+            if (null == mCallback) {
+                return;
+            }
+            if (mLifecycle.isOverdue(SystemClock.elapsedRealtime())) {
+                mLifecycle.onTimeout();
+                recover("timeout");
+            } else {
+                mHandler.postDelayed(this, WATCHDOG_PERIOD_MS);
+            }
+        }
+    };
+
+    private void setDeviceInfo(DeviceInfo d) {
+        mDeviceInfo = d;
+        final Listener listener = mListener;
+        if (null != listener) {
+            listener.onLayout(d);
+        }
+    }
+
+    private void notifyError(final int messageId) {
+        final Listener listener = mListener;
+        if (null != listener) {
+            listener.onError(messageId);
+        }
+    }
+
+    private final Runnable mMtuTimeout = new Runnable() {
+        @Override
+        public void run() {
+            final ConnectionTuner tuner = mTuner;
+            if (tuner != null) {
+                tuner.onMtuTimeout();
+            }
+        }
+    };
+
+    // send the next echo probe, then wait out the last answers and log the result
+    private final Runnable mProbeTick = new Runnable() {
+        @Override
+        public void run() {
+            final EchoProbe probe = mEchoProbe;
+            final EventWriter writer = mEventWriter;
+            if (null == probe || null == writer) {
+                return;
+            }
+            if (mProbesLeft > 0) {
+                // data is the probe number, for the board's own log
+                mProbesLeft -= 1;
+                writer.send(RemoteProtocol.ECHO_INDEX, null, ControlEvent.valueChange,
+                        (mProbeCount - mProbesLeft) & 0x7FFF, false, 0);
+                mHandler.postDelayed(this, mProbesLeft > 0 ? mProbeIntervalMs : mProbeTimeoutMs);
+            } else if (probe.expire(LatencyRecorder.now()) > 0) {
+                mHandler.postDelayed(this, mProbeTimeoutMs);
+            } else {
+                Log.d(TAG, probe.toString());
+            }
+        }
+    };
+
+    // drop the connection interval back to balanced when the user stops interacting
+    private final Runnable mIdleCheck = new Runnable() {
+        @Override
+        public void run() {
+            final ConnectionTuner tuner = mTuner;
+            if (tuner != null) {
+                tuner.checkIdle(SystemClock.elapsedRealtime());
+                mHandler.postDelayed(this, ConnectionTuner.IDLE_TIMEOUT_MS / 2);
+            }
+        }
+    };
+
+    // all layout characteristics read from the board
+    // decoded is the layout streamed from rcLayout, null if read from the legacy characteristics
+    private void onLayoutRead(Map<UUID, byte[]> values, DeviceInfo decoded, long digest) {
+        if (null == mCallback) {
+            // disconnected meanwhile
+            return;
+        }
+
+        if (null != mDeviceInfo && digest == mLayoutDigest) {
+            Log.d(TAG, "cached layout is up to date");
+        } else {
+            // new firmware may come with a new attribute table, confirm with fresh services
+            if (null != mDeviceInfo && rediscover("layout digest changed")) {
+                return;
+            }
+
+            final DeviceInfo d = (null != decoded) ? checkVersion(decoded) : readDeviceInfo(values);
+            if (null == d) {
+                Log.d(TAG, "cannot load device info!");
+                if (!rediscover("malformed layout")) {
+                    fail(R.string.layout_read_failed);
+                }
+                return;
+            }
+
+            // layout changed since it was cached - update the views
+            mLayoutDigest = digest;
+            setDeviceInfo(d);
+            mLayoutCache.storeAsync(mDevice.getAddress(), DeviceInfoParser.readProtocolVersion(values), values);
+        }
+
+        // newer boards take several events in one write
+        final EventWriter writer = mEventWriter;
+        if (writer != null && mDeviceInfo.protocolVersion >= RemoteProtocol.PROTOCOL_VERSION_BATCH) {
+            final ConnectionTuner tuner = mTuner;
+            final int mtu = (tuner != null) ? tuner.getMtu() : EventPacker.DEFAULT_MTU;
+            final int capacity = EventPacker.capacityForMtu(mtu);
+            Log.d(TAG, "events per write = " + String.valueOf(capacity));
+            writer.setBatchCapacity(capacity);
+        }
+        if (writer != null) {
+            // events sent while layout reads kept the link busy may have stalled
+            writer.flush();
+        }
+
+        mDiscoveryCache.onConfirmed();
+        Tracer.event(Tracer.LAYOUT_READY, mDeviceInfo.controls.length);
+        mLifecycle.moveTo(SessionLifecycle.State.ready, SystemClock.elapsedRealtime());
+        mReconnectPolicy.onReady(SystemClock.elapsedRealtime());
+        final Listener listener = mListener;
+        if (null != listener) {
+            listener.onReady();
+        }
+        Log.d(TAG, "connect to layout: " + String.valueOf(SystemClock.elapsedRealtime() - mConnectTime) + "ms"
+                + (mAutoConnect ? " (autoConnect)" : "") + ", " + mReconnectPolicy.toString()
+                + ", " + mLifecycle.toString() + ", " + mDiscoveryCache.toString());
+    }
+
+    private DeviceInfo readDeviceInfo(Map<UUID, byte[]> values) {
+        final DeviceInfo d;
+        try {
+            d = DeviceInfoParser.parse(values, mContext.getString(R.string.no_name));
+        } catch (IllegalArgumentException e) {
+            Log.d(TAG, "malformed layout: " + e.getMessage());
+            return null;
+        }
+        if (null == d) {
+            return null;
+        }
+        return checkVersion(d);
+    }
+
+    private DeviceInfo checkVersion(DeviceInfo d) {
+        if (d.protocolVersion < RemoteProtocol.PROTOCOL_VERSION || d.protocolVersion > RemoteProtocol.PROTOCOL_VERSION_BATCH) {
+            notifyError(R.string.protocol_mismatch);
+        }
+
+        return d;
+    }
+
+    // Note that these callbacks are invoked in a separate context,
+    // and MUST NOT call Android UI methods directly. Use mHandler.post() instead
+    private class GattCallback implements GattLink.Callback, LayoutReader.Listener, EventWriter.Listener {
+        private final BluetoothGattLink mGattLink = new BluetoothGattLink(this);
+
+        // run on the main thread, unless this connection was cleared meanwhile
+        private void post(final Runnable r) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCallback == GattCallback.this) {
+                        r.run();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onConnectionStateChange(final int status, int newState) {
+            Tracer.event(newState == GattLink.STATE_CONNECTED ? Tracer.CONNECTED : Tracer.DISCONNECTED, status);
+
+            if (status != GattLink.GATT_SUCCESS) {
+                // e.g. 133 GATT_ERROR, 8 supervision timeout - the BluetoothGatt is unusable
+                Log.d(TAG, "connection failed, status = " + String.valueOf(status)
+                        + ", state = " + String.valueOf(newState));
+                mLifecycle.onFailure();
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        recover("status " + String.valueOf(status));
+                    }
+                });
+                return;
+            }
+
+            switch (newState) {
+                case GattLink.STATE_CONNECTED:
+                    Log.d(TAG, "connected");
+                    mLifecycle.moveTo(SessionLifecycle.State.discovering, SystemClock.elapsedRealtime());
+                    mDiscoveryCache.onConnected();
+                    // negotiate MTU & connection priority, then discover services
+                    final ConnectionTuner tuner = new ConnectionTuner(mGattLink, this);
+                    tuner.setForeground(isAttached(), SystemClock.elapsedRealtime());
+                    mTuner = tuner;
+                    tuner.onConnected(SystemClock.elapsedRealtime());
+                    mHandler.postDelayed(mMtuTimeout, ConnectionTuner.MTU_TIMEOUT_MS);
+                    mHandler.postDelayed(mIdleCheck, ConnectionTuner.IDLE_TIMEOUT_MS / 2);
+                    break;
+                case GattLink.STATE_DISCONNECTED:
+                    Log.d(TAG, "device disconnected");
+
+                    // Post to main thread to clean up
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            clearConnection();
+                        }
+                    });
+                    break;
+                default:
+                    Log.d(TAG, "Unhandled stat=" + String.valueOf(newState));
+                    break;
+            }
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            final ConnectionTuner tuner = mTuner;
+            if (tuner != null) {
+                tuner.onMtuChanged(mtu, status);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(final int status) {
+            Tracer.section("onServicesDiscovered");
+            try {
+                Tracer.event(Tracer.DISCOVERED, status);
+
+                if (status != GattLink.GATT_SUCCESS) {
+                    Log.d(TAG, "Service discovery failed");
+                    mLifecycle.onFailure();
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            recover("discovery status " + String.valueOf(status));
+                        }
+                    });
+                    return;
+                }
+
+                // read our own "Remote Control" service info
+                if (!LayoutReader.hasRequiredCharacteristics(mGattLink) &&
+                        mDiscoveryCache.refresh(mGattLink, "incomplete service")) {
+                    mLifecycle.onProgress(SystemClock.elapsedRealtime());
+                    if (!mGattLink.discoverServices()) {
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                recover("discovery rejected");
+                            }
+                        });
+                    }
+                    return;
+                }
+                if (!mGattLink.hasCharacteristic(RemoteProtocol.rcService, RemoteProtocol.rcEventArray)) {
+                    Log.d(TAG, "no remote control service");
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            fail(R.string.layout_read_failed);
+                        }
+                    });
+                    return;
+                }
+
+                mLifecycle.moveTo(SessionLifecycle.State.reading, SystemClock.elapsedRealtime());
+                final EventWriter previous = mEventWriter;
+                if (previous != null) {
+                    // discovered again, continue the sequence of the previous writer
+                    mEventSeq = previous.getSequence();
+                    previous.close();
+                }
+                final boolean noResponse = (mGattLink.getProperties(RemoteProtocol.rcService,
+                        RemoteProtocol.rcEventArray) & GattLink.PROPERTY_WRITE_NO_RESPONSE) != 0;
+                // publish the writer once it is set up
+                final EventWriter writer = new EventWriter(mGattLink, noResponse, mScheduler, mEventSeq);
+                writer.setListener(this);
+                writer.setLatencyRecorder(mLatencyRecorder);
+                writer.setEchoProbe(mEchoProbe);
+                mEventWriter = writer;
+                if (mGattLink.hasCharacteristic(RemoteProtocol.rcService, RemoteProtocol.rcUIUpdate)) {
+                    mGattLink.setCharacteristicNotification(RemoteProtocol.rcService, RemoteProtocol.rcUIUpdate, true);
+                }
+
+                // the layout first, then try to get the device name
+                final ConnectionTuner tuner = mTuner;
+                final int mtu = (tuner != null) ? tuner.getMtu() : EventPacker.DEFAULT_MTU;
+                final LayoutReader reader = new LayoutReader(mGattLink, mScheduler, mtu,
+                        mContext.getString(R.string.no_name), this);
+                if (mGattLink.hasCharacteristic(GAP_SERVICE, GAP_DEVICE_NAME)) {
+                    reader.addOptional(GAP_SERVICE, GAP_DEVICE_NAME);
+                }
+                mLayoutReader = reader;
+                reader.start();
+            } finally {
+                Tracer.end();
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+            Tracer.section("onCharacteristicRead");
+            try {
+                Tracer.event(Tracer.READ, status);
+
+                mLifecycle.onProgress(SystemClock.elapsedRealtime());
+                if (status != GattLink.GATT_SUCCESS) {
+                    Log.d(TAG, "read failed, status = " + String.valueOf(status));
+                }
+                final LayoutReader reader = mLayoutReader;
+                if (reader != null) {
+                    reader.onCharacteristicRead(characteristic, value, status);
+                }
+            } finally {
+                Tracer.end();
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int status) {
+            final LayoutReader reader = mLayoutReader;
+            if (RemoteProtocol.rcLayout.equals(characteristic) && reader != null) {
+                // a layout chunk was selected
+                reader.onCharacteristicWrite(characteristic, status);
+                return;
+            }
+
+            final EventWriter writer = mEventWriter;
+            if (RemoteProtocol.rcEventArray.equals(characteristic) && writer != null) {
+                writer.onWritten(status);
+                if (Tracer.VERBOSE) {
+                    Log.d(TAG, "onWritten, status = " + String.valueOf(status)
+                            + ", queued = " + String.valueOf(writer.getQueueDepth())
+                            + ", latency = " + String.valueOf(writer.getLastLatencyMs()) + "ms");
+                }
+            }
+        }
+
+        @Override
+        // Characteristic notification
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+            Tracer.section("onUIUpdate");
+            try {
+                if (mDeviceInfo == null || !RemoteProtocol.rcUIUpdate.equals(characteristic)) {
+                    return;
+                }
+
+                // echo probe answers never reach the labels
+                final int echo = EchoProbe.parseEcho(value);
+                if (echo >= 0) {
+                    final EchoProbe probe = mEchoProbe;
+                    if (null != probe) {
+                        probe.onEcho(echo, LatencyRecorder.now());
+                    }
+                    return;
+                }
+
+                if (mResetLabels) {
+                    // labels were rebuilt from the layout names
+                    mResetLabels = false;
+                    mUIUpdateDecoder.reset();
+                }
+
+                // unchanged or corrupted updates are dropped here, without allocation
+                if (!mUIUpdateDecoder.decode(value)) {
+                    return;
+                }
+                Tracer.event(Tracer.NOTIFY, mUIUpdateDecoder.getIndex());
+
+                final Listener listener = mListener;
+                if (null != listener) {
+                    listener.onLabel(mUIUpdateDecoder.getIndex(), mUIUpdateDecoder.getText());
+                }
+            } finally {
+                Tracer.end();
+            }
+        }
+
+        @Override
+        public void onLayoutRead(final Map<UUID, byte[]> values, final DeviceInfo decoded) {
+            final LayoutReader reader = mLayoutReader;
+            if (null != reader) {
+                // read times in microseconds
+                Log.d(TAG, "all characteristic read in "
+                        + String.valueOf(reader.getReadScheduler().getRequiredTime() / 1000) + "ms, reads "
+                        + reader.getReadScheduler().getReadTimes().toString());
+            }
+            final long digest = LayoutCache.digest(values);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    RemoteSession.this.onLayoutRead(values, decoded, digest);
+                }
+            });
+        }
+
+        @Override
+        public void onOptionalRead(UUID characteristic, byte[] value) {
+            if (!GAP_DEVICE_NAME.equals(characteristic) || null == value || value.length == 0) {
+                return;
+            }
+            // Update device name if needed
+            final String fullDeviceName = new String(value, StandardCharsets.UTF_8);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mName = fullDeviceName;
+                    final Listener listener = mListener;
+                    if (null != listener) {
+                        listener.onNameChanged(fullDeviceName);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onReadFailed(UUID characteristic) {
+            mLifecycle.onFailure();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    // reads of stale handles fail, the next connect discovers from scratch
+                    if (null == mLink || !mDiscoveryCache.refresh(mLink, "read failure")) {
+                        notifyError(R.string.layout_read_failed);
+                    }
+                    recover("read failure");
+                }
+            });
+        }
+
+        @Override
+        public void onLayoutInvalid(final String reason) {
+            Log.d(TAG, "malformed layout blob: " + reason);
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    // the blob may come from stale handles, otherwise the board cannot be used
+                    if (!rediscover("malformed layout blob")) {
+                        fail(R.string.layout_read_failed);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onQueued(int index) {
+            Tracer.event(Tracer.EVENT_QUEUED, index);
+        }
+
+        @Override
+        public void onWrite(int count) {
+            Tracer.event(Tracer.WRITE, count);
+        }
+
+        @Override
+        public void onWritten(int status) {
+            Tracer.event(Tracer.WRITTEN, status);
+            if (status != GattLink.GATT_SUCCESS) {
+                Log.d(TAG, "write failed, status = " + String.valueOf(status));
+            }
+        }
+
+        @Override
+        public void onStalled() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    // nothing else holds a ready link this long, it is stuck
+                    if (mLifecycle.getState() == SessionLifecycle.State.ready) {
+                        mLifecycle.onFailure();
+                        recover("event writes stalled");
+                    }
+                }
+            });
+        }
+    }
+}
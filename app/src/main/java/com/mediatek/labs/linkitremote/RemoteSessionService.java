@@ -0,0 +1,181 @@
+package com.mediatek.labs.linkitremote;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the GATT sessions to boards open while activities come and go.
+ *
+ * Activities bind to the service and attach to a session, which stays connected
+ * when the activity pauses or goes away. Sessions that nobody attached to for
+ * IDLE_TIMEOUT_MS are closed, and at most maxSessions are open at a time: opening
+ * one more closes the least recently used detached session, or fails if all are
+ * attached. While any session is open the service runs in the foreground, so the
+ * links survive the app being in the background.
+ */
+public class RemoteSessionService extends Service {
+    static private final String TAG = "RemoteSessionService";
+
+    static final int DEFAULT_MAX_SESSIONS = 4;
+    static final long IDLE_TIMEOUT_MS = 60000;
+    static private final int NOTIFICATION_ID = 1;
+
+    class LocalBinder extends Binder {
+        RemoteSessionService getService() {
+            return RemoteSessionService.this;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+    // by address, least recently used first
+    private final LinkedHashMap<String, RemoteSession> mSessions = new LinkedHashMap<>(8, 0.75f, true);
+    private Handler mHandler;
+    private LayoutCache mLayoutCache;
+    private int mMaxSessions = DEFAULT_MAX_SESSIONS;
+    private boolean mForeground = false;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mHandler = new Handler(getMainLooper());
+        mLayoutCache = new LayoutCache(new File(getCacheDir(), "layouts"), LayoutCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // connections cannot be restored after the process was killed
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        mHandler.removeCallbacks(mIdleCheck);
+        for (RemoteSession s : mSessions.values()) {
+            s.close();
+        }
+        mSessions.clear();
+        super.onDestroy();
+    }
+
+    /**
+     * Return the session to device, opening a new one if needed.
+     * Returns null if maxSessions are open and all of them are attached.
+     */
+    RemoteSession open(BluetoothDevice device) {
+        RemoteSession s = mSessions.get(device.getAddress());
+        if (null != s) {
+            return s;
+        }
+
+        if (mSessions.size() >= mMaxSessions && !closeLeastRecentlyUsed()) {
+            Log.d(TAG, "session limit reached: " + String.valueOf(mMaxSessions));
+            return null;
+        }
+
+        s = new RemoteSession(this, device, mLayoutCache, mHandler);
+        mSessions.put(device.getAddress(), s);
+        if (mSessions.size() == 1) {
+            mHandler.postDelayed(mIdleCheck, IDLE_TIMEOUT_MS / 4);
+        }
+        updateForeground();
+        return s;
+    }
+
+    // null if no session to address is open
+    RemoteSession find(String address) {
+        return mSessions.get(address);
+    }
+
+    /**
+     * Disconnect the session and remove it from the pool.
+     */
+    void close(RemoteSession s) {
+        if (mSessions.remove(s.getDevice().getAddress()) != null) {
+            s.close();
+            updateForeground();
+        }
+    }
+
+    /**
+     * Limit the number of concurrent sessions. Detached sessions over the limit are closed.
+     */
+    void setMaxSessions(int max) {
+        mMaxSessions = Math.max(1, max);
+        while (mSessions.size() > mMaxSessions && closeLeastRecentlyUsed()) {
+            // keep closing
+        }
+    }
+
+    int getSessionCount() {
+        return mSessions.size();
+    }
+
+    // close the least recently used session that is not attached
+    private boolean closeLeastRecentlyUsed() {
+        for (RemoteSession s : mSessions.values()) {
+            if (!s.isAttached()) {
+                Log.d(TAG, "closing least recently used session " + s.getDevice().getAddress());
+                close(s);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final Runnable mIdleCheck = new Runnable() {
+        @Override
+        public void run() {
+            final long now = SystemClock.elapsedRealtime();
+            for (RemoteSession s : new ArrayList<>(mSessions.values())) {
+                if (!s.isAttached() && now - s.getDetachedSince() >= IDLE_TIMEOUT_MS) {
+                    Log.d(TAG, "closing idle session " + s.getDevice().getAddress());
+                    close(s);
+                }
+            }
+            if (!mSessions.isEmpty()) {
+                mHandler.postDelayed(this, IDLE_TIMEOUT_MS / 4);
+            }
+        }
+    };
+
+    private void updateForeground() {
+        if (mSessions.isEmpty()) {
+            mHandler.removeCallbacks(mIdleCheck);
+            if (mForeground) {
+                stopForeground(true);
+                mForeground = false;
+            }
+            // bound activities keep the service alive until they unbind
+            stopSelf();
+            return;
+        }
+
+        final Intent intent = new Intent(this, DeviceList.class);
+        final Notification notification = new Notification.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.sessions_open, mSessions.size()))
+                .setContentIntent(PendingIntent.getActivity(this, 0, intent, 0))
+                .setOngoing(true)
+                .build();
+        startForeground(NOTIFICATION_ID, notification);
+        mForeground = true;
+    }
+}
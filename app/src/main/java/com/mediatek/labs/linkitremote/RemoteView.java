@@ -1,71 +1,114 @@
 package com.mediatek.labs.linkitremote;
 
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
-import android.content.res.ColorStateList;
-import android.graphics.PorterDuff;
-import android.graphics.Rect;
-import android.graphics.Typeface;
-import android.graphics.drawable.Drawable;
-import android.os.Build;
+import android.content.ServiceConnection;
+import android.content.pm.ActivityInfo;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
-import android.util.TypedValue;
-import android.view.Gravity;
-import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
-import android.widget.Button;
 import android.widget.ProgressBar;
-import android.widget.RelativeLayout;
 import android.widget.SeekBar;
 import android.widget.TextView;
+import android.widget.Toast;
 import android.widget.ToggleButton;
 import android.os.SystemClock;
 
-import java.io.UnsupportedEncodingException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.UUID;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.Semaphore;
+import com.mediatek.labs.linkitremote.protocol.ControlEvent;
+import com.mediatek.labs.linkitremote.protocol.ControlInfo;
+import com.mediatek.labs.linkitremote.protocol.DeviceInfo;
+import com.mediatek.labs.linkitremote.protocol.EchoProbe;
+import com.mediatek.labs.linkitremote.protocol.LatencyHistogram;
+import com.mediatek.labs.linkitremote.protocol.LatencyRecorder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 
 
 public class RemoteView extends AppCompatActivity {
     static private final String TAG = "RemoteView";
+    static private final long LATENCY_OVERLAY_PERIOD_MS = 1000;
 
     private BluetoothDevice mDevice;
-    private BluetoothGattCallback mCallback;
-    private BluetoothGatt mGatt;
-    private BluetoothGattService mService;
-    private BluetoothGattCharacteristic mDeviceNameCharacteristic;
-    private BluetoothGattCharacteristic mEventCharacteristic;
-    private BluetoothGattCharacteristic mUIUpdateCharacteristic;
-    private HashSet<BluetoothGattCharacteristic> mQuery;
-    private HashMap<UUID, BluetoothGattCharacteristic> mValues;
+    private RemoteSessionService mSessionService;
+    private RemoteSession mSession;
+    private boolean mResumed = false;
     private ProgressBar mActivityIndicator;
     private Handler mHandler;
     private UIEventListener mEventListener;
+    private LayoutBuilder mLayoutBuilder;
     private DeviceInfo mDeviceInfo;
-    private byte mEventSeq = 0;
-    private boolean mActiveDisconnect = false;
-    private final LinkedBlockingDeque<byte[]> mWriteRequests = new LinkedBlockingDeque<>();
-    private final Semaphore mWriting = new Semaphore(1, true);
-    private long mLastSliderUpdateTime;
+    private UIUpdateDispatcher mUIUpdateDispatcher;
+    private final SliderShaper mSliderShaper = new SliderShaper();
+    private TextView mLatencyOverlay;
+    private boolean mShowLatency = false;
+
+    // sends held slider values on their trailing edge
+    private final Runnable mSliderFlush = new Runnable() {
+        @Override
+        public void run() {
+            final long now = SystemClock.uptimeMillis();
+            int index;
+            while ((index = mSliderShaper.pollDue(now)) >= 0) {
+                if (null != mDeviceInfo && index < mDeviceInfo.controls.length) {
+                    sendRemoteEvent(mDeviceInfo.controls[index], ControlEvent.valueChange,
+                            mSliderShaper.getSentValue(index));
+                }
+            }
+            scheduleSliderFlush(now);
+        }
+    };
+
+    private final Runnable mLatencyUpdate = new Runnable() {
+        @Override
+        public void run() {
+            final LatencyRecorder recorder = (null != mSession) ? mSession.getLatencyRecorder() : null;
+            final EchoProbe probe = (null != mSession) ? mSession.getEchoProbe() : null;
+            final StringBuilder text = new StringBuilder();
+            if (null != recorder) {
+                text.append(recorder.getSummary());
+            }
+            if (null != probe) {
+                final LatencyHistogram rtt = probe.getRtt();
+                text.append(text.length() > 0 ? "\n" : "")
+                        .append("echo ").append(probe.getReceivedCount()).append('/').append(probe.getSentCount())
+                        .append(" lost=").append(probe.getLostCount())
+                        .append(" rtt p50=").append(LatencyRecorder.millis(rtt.getValueAtPercentile(50)))
+                        .append(" p99=").append(LatencyRecorder.millis(rtt.getValueAtPercentile(99)))
+                        .append(" jitter=").append(LatencyRecorder.millis(probe.getJitter()));
+            }
+            mLatencyOverlay.setText(text);
+            mHandler.postDelayed(this, LATENCY_OVERLAY_PERIOD_MS);
+        }
+    };
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mSessionService = ((RemoteSessionService.LocalBinder) service).getService();
+            if (mResumed) {
+                attachSession();
+            }
+        }
 
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mSessionService = null;
+            mSession = null;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -78,6 +121,25 @@ public class RemoteView extends AppCompatActivity {
 
         // for posting UI methods from GATT callbacks
         mHandler = new Handler(RemoteView.this.getApplicationContext().getMainLooper());
+        mActivityIndicator = (ProgressBar) findViewById(R.id.progressBar);
+        mLatencyOverlay = (TextView) findViewById(R.id.latencyOverlay);
+
+        mUIUpdateDispatcher = new UIUpdateDispatcher(new UIUpdateDispatcher.Target() {
+            @Override
+            public boolean applyLabel(int index, String text) {
+                // update to corresponding UI controls, if it is a Label control
+                if (mDeviceInfo == null || index >= mDeviceInfo.controls.length) {
+                    return false;
+                }
+                final ControlInfo c = mDeviceInfo.controls[index];
+                final View view = mLayoutBuilder.getView(index);
+                if (c.type != ControlInfo.ControlType.label || view == null) {
+                    return false;
+                }
+                ((TextView) view).setText(text);
+                return true;
+            }
+        });
 
         // Set device name
         final String name = mDevice.getName();
@@ -89,24 +151,68 @@ public class RemoteView extends AppCompatActivity {
                 bar.setTitle(R.string.no_name);
             }
         }
+
+        // the service keeps the connection while this activity is paused or recreated
+        final Intent service = new Intent(this, RemoteSessionService.class);
+        startService(service);
+        bindService(service, mServiceConnection, Context.BIND_AUTO_CREATE);
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        connectDevice();
+        mResumed = true;
+        if (null != mSessionService) {
+            attachSession();
+        }
+        if (mShowLatency) {
+            mHandler.post(mLatencyUpdate);
+        }
     }
 
     @Override
     protected void onPause() {
-        disconnectDevice();
+        mResumed = false;
+        mHandler.removeCallbacks(mLatencyUpdate);
+        detachSession();
+        dumpTrace();
         super.onPause();
     }
 
+    // debug builds keep a trace of recent events, see Tracer
+    private void dumpTrace() {
+        final File dir = getExternalFilesDir(null);
+        if (!Tracer.ENABLED || null == dir) {
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Tracer.dump(new File(dir, "trace.csv"));
+                } catch (IOException e) {
+                    Log.d(TAG, "trace dump failed: " + e.getMessage());
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        unbindService(mServiceConnection);
+        mSessionService = null;
+        super.onDestroy();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.menu_main, menu);
+        if (Tracer.ENABLED) {
+            menu.findItem(R.id.action_latency).setVisible(true).setChecked(mShowLatency);
+            menu.findItem(R.id.action_export_latency).setVisible(true);
+            menu.findItem(R.id.action_echo_probe).setVisible(true);
+        }
         return super.onCreateOptionsMenu(menu);
     }
 
@@ -115,78 +221,136 @@ public class RemoteView extends AppCompatActivity {
         // Handle item selection
         switch (item.getItemId()) {
             case R.id.action_refresh:
-                disconnectDevice();
+                if (null == mSession) {
+                    return true;
+                }
+                mSession.disconnect();
                 mHandler.postDelayed(new Runnable() {
                     @Override
                     public void run() {
-                        connectDevice();
+                        if (null != mSession) {
+                            mSession.connect();
+                        }
                     }
                 }, 10);
 
+                return true;
+            case R.id.action_latency:
+                item.setChecked(!item.isChecked());
+                showLatency(item.isChecked());
+                return true;
+            case R.id.action_export_latency:
+                exportLatency();
+                return true;
+            case R.id.action_echo_probe:
+                if (null == mSession || null == mSession.startEchoProbe(Constants.ECHO_PROBE_COUNT,
+                        Constants.ECHO_PROBE_INTERVAL_MS, Constants.ECHO_PROBE_TIMEOUT_MS)) {
+                    Log.d(TAG, "echo probe needs a ready session");
+                } else if (!mShowLatency) {
+                    showLatency(true);
+                    supportInvalidateOptionsMenu();
+                }
                 return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
-    private void connectDevice() {
+    private void attachSession() {
         if (null == mDevice) {
             Log.d(TAG, "no device assigned to activity");
             return;
         }
 
-        if (null != mCallback) {
-            // already connected
-            Log.d(TAG, "already connected to device");
+        mSession = mSessionService.open(mDevice);
+        if (null == mSession) {
+            showError(R.string.too_many_sessions);
             return;
         }
 
-        mCallback = new GattCallback();
-        mGatt = mDevice.connectGatt(getApplicationContext(),
-                false, // direct connect
-                mCallback);
-
-        mActivityIndicator = (ProgressBar) findViewById(R.id.progressBar);
-        if(null != mActivityIndicator) {
-            mActivityIndicator.setVisibility(View.VISIBLE);
-        }
         hideError();
+        if (mShowLatency && null == mSession.getLatencyRecorder()) {
+            mSession.setLatencyRecorder(new LatencyRecorder());
+        }
+        mSession.attach(new SessionListener());
+        if (mSession.getState() == SessionLifecycle.State.disconnected) {
+            mSession.connect();
+        }
     }
 
-    private void disconnectDevice() {
-        if(mGatt != null) {
-            mActiveDisconnect = true;
-            mGatt.disconnect();
+    private void detachSession() {
+        if (null != mSession) {
+            mSession.detach();
+            mSession = null;
         }
+        mHandler.removeCallbacks(mSliderFlush);
+        mSliderShaper.reset();
+        mUIUpdateDispatcher.clear();
     }
 
-    // cleanup resources used for BLE connection & UI views
-    private void clearConnection() {
-
-        // clear UI elements
-        final RelativeLayout viewGroup = (RelativeLayout) findViewById(R.id.remote_layout);
-        if(viewGroup != null) {
-            viewGroup.removeAllViews();
+    // the overlay shows the latency recorded while it is on, recording stops with it
+    private void showLatency(boolean show) {
+        mShowLatency = show;
+        mHandler.removeCallbacks(mLatencyUpdate);
+        if (null != mSession) {
+            mSession.setLatencyRecorder(show ? new LatencyRecorder() : null);
         }
+        mLatencyOverlay.setText("");
+        mLatencyOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
+        if (show) {
+            mHandler.post(mLatencyUpdate);
+        }
+    }
 
-        // release resources
-        mCallback = null;
-        mGatt = null;
-        mService = null;
-        mDeviceNameCharacteristic = null;
-        mEventCharacteristic = null;
-        mUIUpdateCharacteristic = null;
-        mDeviceInfo = null;
-        mQuery = null;
-        mValues = null;
-        mEventListener = null;
-
-        if(mActiveDisconnect){
-            mActiveDisconnect = false;
-        } else {
-            showError(R.string.device_disconnected);
+    private void exportLatency() {
+        final LatencyRecorder recorder = (null != mSession) ? mSession.getLatencyRecorder() : null;
+        final EchoProbe probe = (null != mSession) ? mSession.getEchoProbe() : null;
+        final File dir = getExternalFilesDir(null);
+        if (null == recorder || null == dir) {
+            return;
         }
+        final File file = new File(dir, "latency.csv");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Writer out = new FileWriter(file);
+                    try {
+                        recorder.writeCsv(out);
+                        if (null != probe) {
+                            writeEchoCsv(out, probe);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    Log.d(TAG, "latency export failed: " + e.getMessage());
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(RemoteView.this, getString(R.string.latency_exported, file.getPath()),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }).start();
+    }
 
+    // echo round trip times as one more latency line, microseconds
+    private static void writeEchoCsv(Writer out, EchoProbe probe) throws IOException {
+        final LatencyHistogram rtt = probe.getRtt();
+        out.write("echo,rtt," + rtt.getCount() + "," + rtt.getMin()
+                + "," + rtt.getValueAtPercentile(50)
+                + "," + rtt.getValueAtPercentile(90)
+                + "," + rtt.getValueAtPercentile(99)
+                + "," + rtt.getMax()
+                + "," + Math.round(rtt.getMean()) + "\n");
+        out.write("echo,jitter,,,,,,," + probe.getJitter() + "\n");
+        // probe counts in the count column
+        out.write("echo,sent," + probe.getSentCount() + ",,,,,,\n");
+        out.write("echo,lost," + probe.getLostCount() + ",,,,,,\n");
     }
 
     private void hideError() {
@@ -204,487 +368,167 @@ public class RemoteView extends AppCompatActivity {
         }
     }
 
-    // Note that these callbacks are invoked in a separate context,
-    // and MUST NOT call Android UI methods directly. Use mHandler.post() instead
-    private class GattCallback extends BluetoothGattCallback {
+    private void showProgress(boolean show) {
+        if (null != mActivityIndicator) {
+            mActivityIndicator.setVisibility(show ? View.VISIBLE : View.INVISIBLE);
+        }
+    }
 
+    private class SessionListener implements RemoteSession.Listener {
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            super.onConnectionStateChange(gatt, status, newState);
-
-            switch (newState) {
-                case BluetoothProfile.STATE_CONNECTED:
-                    Log.d(TAG, "connected");
-                    mGatt.discoverServices();
-                    break;
-                case BluetoothProfile.STATE_DISCONNECTED:
-                    Log.d(TAG, "device disconnected");
-
-                    // Post to main thread to clean up
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            RemoteView.this.clearConnection();
-                        }
-                    });
-                    break;
-                default:
-                    Log.d(TAG, "Unhandled stat=" + String.valueOf(newState));
-                    break;
-            }
+        public void onConnecting() {
+            showProgress(true);
+            hideError();
         }
 
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            super.onServicesDiscovered(gatt, status);
-
-            if (status != BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "Service discovery failed");
-                return;
-            }
-
-            // Try to get device name
-            BluetoothGattService gapService = gatt.getService(UUID.fromString("00001800-0000-1000-8000-00805F9B34FB"));
-            if (null != gapService) {
-                mDeviceNameCharacteristic = gapService.getCharacteristic(UUID.fromString("00002A00-0000-1000-8000-00805F9B34FB"));
-                gatt.readCharacteristic(mDeviceNameCharacteristic);
-            }
-
-            // read our own "Remote Control" service info
-            mService = gatt.getService(Constants.rcService.getUuid());
-
-            if(mService != null) {
-                mValues = new HashMap<>();
-                mQuery = new HashSet<>(mService.getCharacteristics());
-                mEventCharacteristic = mService.getCharacteristic(Constants.rcEventArray);
-                mUIUpdateCharacteristic = mService.getCharacteristic(Constants.rcUIUpdate);
-                if(mUIUpdateCharacteristic != null) {
-                    gatt.setCharacteristicNotification(mUIUpdateCharacteristic, true);
-                }
-
-                for (BluetoothGattCharacteristic c : mQuery) {
-                    final boolean result = gatt.readCharacteristic(c);
-                    if (!result) {
-                        // we failed to continuous read - read later
-                        break;
-                    }
-                }
-            }
+        public void onLayout(DeviceInfo d) {
+            createDeviceLayout(d);
         }
 
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicRead(gatt, characteristic, status);
-
-            if (mDeviceNameCharacteristic != null && characteristic == mDeviceNameCharacteristic) {
-                // Update device name if needed
-                final String fullDeviceName = mDeviceNameCharacteristic.getStringValue(0);
-                if (!fullDeviceName.isEmpty()) {
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            RemoteView.this.setTitle(fullDeviceName);
-                            ActionBar bar = getSupportActionBar();
-                            if(null != bar) {
-                                 bar.setTitle(fullDeviceName);
-                            }
-                        }
-                    });
-                }
-            } else {
-                // these are Remote Controll service characteristics
-                mQuery.remove(characteristic);
-                mValues.put(characteristic.getUuid(), characteristic);
-            }
-
-            if (mQuery.isEmpty()) {
-                Log.d(TAG, "all characteristic read");
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        createDeviceLayout();
-                    }
-                });
-            } else {
-                // keep reading
-                for (BluetoothGattCharacteristic c : mQuery) {
-                    final boolean result = gatt.readCharacteristic(c);
-                    if (!result) {
-                        // we failed to continuous read - read later
-                        break;
-                    }
-                }
-            }
+        public void onReady() {
+            showProgress(false);
+            // the board may have restarted, send every slider value again
+            mHandler.removeCallbacks(mSliderFlush);
+            mSliderShaper.reset();
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt,
-                                          BluetoothGattCharacteristic characteristic,
-                                          int status) {
-            if(characteristic == mEventCharacteristic) {
-                Log.d(TAG, "onWritten, status = " + String.valueOf(status));
-                mWriting.release();
-                performWriteOperation();
-            }
+        public void onLabel(int index, String text) {
+            // since we're in BLE context, the dispatcher applies it on the next frame.
+            mUIUpdateDispatcher.post(index, text);
         }
 
         @Override
-        // Characteristic notification
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            if(mDeviceInfo == null) {
-                return;
+        public void onNameChanged(String name) {
+            RemoteView.this.setTitle(name);
+            ActionBar bar = getSupportActionBar();
+            if(null != bar) {
+                bar.setTitle(name);
             }
+        }
 
-            if(characteristic == mUIUpdateCharacteristic) {
-                Log.d(TAG, "notification received!");
-                final ByteBuffer configDataBuffer = ByteBuffer.wrap(characteristic.getValue());
-                configDataBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                final byte controlIndex = configDataBuffer.get();
-                final byte dataSize = configDataBuffer.get();
-                final int headerOffset = configDataBuffer.position();
-                try {
-                    final String text = new String(characteristic.getValue(), headerOffset, dataSize - 1 , "UTF-8");
-                    Log.d(TAG, text);
-
-                    // since we're in BLE context, we need to send task to UI loop.
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            // update to corresponding UI controls, if it is a Label control
-                            if (mDeviceInfo != null) {
-                                for(ControlInfo c : mDeviceInfo.controls){
-                                    if (c.index == controlIndex && c.type == ControlInfo.ControlType.label && c.view != null) {
-                                        TextView tv = (TextView)c.view;
-                                        tv.setText(text);
-                                        tv.invalidate();
-                                    }
-                                }
-                            }
-                        }
-                    });
-                } catch (UnsupportedEncodingException e){
-                    Log.d(TAG, "encoding error");
-                } catch (IndexOutOfBoundsException e) {
-                    Log.d(TAG, "corrupted update info");
-                }
-
-
-            }
+        @Override
+        public void onError(int messageId) {
+            showProgress(false);
+            showError(messageId);
         }
 
-        private Drawable loadDrawable(int id){
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                return getResources().getDrawable(id, null);
-            } else {
-                return getResources().getDrawable(id);
+        @Override
+        public void onDisconnected(boolean expected) {
+            // control views stay in place, the next layout build only updates what changed
+            mUIUpdateDispatcher.clear();
+            Log.d(TAG, "label updates: " + mUIUpdateDispatcher.toString());
+            showProgress(false);
+            if (!expected) {
+                showError(R.string.device_disconnected);
             }
         }
+    }
 
-        private void createDeviceLayout() {
-            final DeviceInfo d = readDeviceInfo();
-            if (null == d) {
-                Log.d(TAG, "cannot load device info!");
-                return;
-            }
+    private void createDeviceLayout(final DeviceInfo d) {
+        final RemoteGridLayout v = (RemoteGridLayout) findViewById(R.id.remote_layout);
+        if (null == v) {
+            Log.d(TAG, "root view not found!");
+            return;
+        }
 
-            final RelativeLayout v = (RelativeLayout) findViewById(R.id.remote_layout);
-            if (null == v) {
-                Log.d(TAG, "root view not found!");
-                return;
-            }
+        // the activity handles rotation itself, so this only resizes the grid
+        setRequestedOrientation(d.isLandscape ?
+                ActivityInfo.SCREEN_ORIENTATION_SENSOR_LANDSCAPE :
+                ActivityInfo.SCREEN_ORIENTATION_SENSOR_PORTRAIT);
 
-            // Setup UI resources
+        // Setup UI resources, views of the previous layout are reused where possible
+        if (null == mLayoutBuilder) {
             mEventListener = new UIEventListener();
-
-            final int padding = Constants.VIEW_PADDING;
-            final int cw = v.getWidth() / d.col;
-            final int ch = v.getHeight() / d.row;
-
-            for (ControlInfo c : d.controls) {
-                final int controlWidthInCell = c.cell.width();
-                final int controlHeightInCell = c.cell.height();
-                c.cell.left *= cw;
-                c.cell.top *= ch;
-                c.cell.right = c.cell.left + controlWidthInCell * cw;
-                c.cell.bottom = c.cell.top + controlHeightInCell * ch;
-                c.cell.inset(padding, padding);
-
-                final int fontColor = Brandcolor.font.primary;
-
-                View component = null;
-                switch (c.type) {
-                    case label: {
-                        // labels are disabled buttons
-                        TextView b = new TextView(RemoteView.this);
-                        b.setBackground(loadDrawable(R.drawable.rectangle_label));
-                        b.getBackground().setColorFilter(c.color, PorterDuff.Mode.MULTIPLY);
-                        b.setText(c.text);
-                        b.setTextColor(fontColor);
-                        b.setTextAlignment(TextView.TEXT_ALIGNMENT_CENTER);
-                        b.setTextSize(TypedValue.COMPLEX_UNIT_SP, 22);
-                        b.setGravity(Gravity.CENTER_VERTICAL | Gravity.CENTER_HORIZONTAL);
-                        component = b;
-                        break;
-                    }
-                    case circleButton: {
-                        Button b = new Button(RemoteView.this);
-                        b.setBackground(loadDrawable(R.drawable.round_button));
-                        b.getBackground().setColorFilter(c.color, PorterDuff.Mode.MULTIPLY);
-
-                        b.setText(c.text);
-                        b.setTextColor(fontColor);
-                        b.setTypeface(b.getTypeface(), Typeface.BOLD);
-
-                        // we want to make a "square" circle, not an oval - adjust cell rect.
-                        final int cX = c.cell.centerX();
-                        final int cY = c.cell.centerY();
-                        final int radius = Math.min(c.cell.width(), c.cell.height()) / 2;
-                        c.cell.left = cX - radius;
-                        c.cell.right = cX + radius;
-                        c.cell.top = cY - radius;
-                        c.cell.bottom = cY + radius;
-
-                        b.setTag(c);
-                        b.setOnTouchListener(mEventListener);
-                        component = b;
-                        break;
-                    }
-                    case pushButton: {
-                        Button b = new Button(RemoteView.this);
-                        b.setBackground(loadDrawable(R.drawable.rectangle_button));
-                        b.getBackground().setColorFilter(c.color, PorterDuff.Mode.MULTIPLY);
-                        b.setText(c.text);
-                        b.setTextColor(fontColor);
-                        b.setTypeface(b.getTypeface(), Typeface.BOLD);
-
-                        b.setOnTouchListener(mEventListener);
-                        b.setTag(c);
-                        component = b;
-                        break;
-                    }
-                    case switchButton: {
-                        // load the switch button view component
-                        View switchPanel = LayoutInflater.from(getApplicationContext())
-                                .inflate(R.layout.switch_panel, null);
-                        switchPanel.setBackground(loadDrawable(R.drawable.rectangle_button));
-                        switchPanel.getBackground().setColorFilter(Brandcolor.grey.secondary, PorterDuff.Mode.MULTIPLY);
-
-                        ToggleButton btn = (ToggleButton)switchPanel.findViewById(R.id.switch_button);
-                        btn.getBackground().setColorFilter(c.color, PorterDuff.Mode.MULTIPLY);
-
-                        TextView title = (TextView)switchPanel.findViewById(R.id.switch_title);
-                        title.setText(c.text);
-                        title.setTextColor(fontColor);
-                        title.setTypeface(title.getTypeface(), Typeface.BOLD);
-
-                        btn.setTag(c);
-                        btn.setOnClickListener(mEventListener);
-                        component = switchPanel;
-                        break;
-                    }
-                    case slider: {
-                        // load the slider view component
-                        View sliderPanel = LayoutInflater.from(getApplicationContext())
-                                .inflate(R.layout.slider_panel, null);
-                        sliderPanel.setBackground(loadDrawable(R.drawable.rectangle_button));
-                        sliderPanel.getBackground().setColorFilter(Brandcolor.grey.secondary, PorterDuff.Mode.MULTIPLY);
-
-                        SeekBar bar = (SeekBar)sliderPanel.findViewById(R.id.slider_bar);
-                        TextView title = (TextView)sliderPanel.findViewById(R.id.slider_title);
-                        TextView value = (TextView)sliderPanel.findViewById(R.id.slider_value);
-
-                        bar.getThumb().setColorFilter(c.color, PorterDuff.Mode.SRC_ATOP);
-                        bar.getProgressDrawable().setColorFilter(c.color, PorterDuff.Mode.SRC_ATOP);
-                        title.setText(c.text);
-                        title.setTypeface(title.getTypeface(), Typeface.BOLD);
-                        value.setTypeface(value.getTypeface(), Typeface.BOLD);
-
-                        // Note that SeekBar.setMin() is only availble after Android O
-                        // so we have to calculate our own value range and map it.
-                        // bar.setMin((int)c.config.data1);
-                        final int valueRange = c.config.data2 - c.config.data1;
-                        final int mappedInitialValue = c.config.data3 - c.config.data1;
-                        bar.setMax(valueRange);
-                        value.setText(String.valueOf(mappedInitialValue));
-                        bar.setProgress(mappedInitialValue);
-
-                        // event handlers
-                        bar.setOnSeekBarChangeListener(mEventListener);
-                        bar.setTag(c);
-                        component = sliderPanel;
-                        break;
-                    }
-                    default:
-                        break;
-                }
-
-                // layout the control
-                if (component != null) {
-                    RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(c.cell.width(), c.cell.height());
-                    params.leftMargin = c.cell.left;
-                    params.topMargin = c.cell.top;
-                    v.addView(component, params);
-                    c.view = component;
-                }
-            }
-
-            mActivityIndicator.setVisibility(View.INVISIBLE);
-            mDeviceInfo = d;
+            mLayoutBuilder = new LayoutBuilder(this, v, mEventListener);
+            v.setTouchListener(mEventListener);
         }
-
-        private DeviceInfo readDeviceInfo() {
-            if (mValues.isEmpty()) {
-                return null;
-            }
-
-
-            // check for versions
-            BluetoothGattCharacteristic versionChar = mValues.get(Constants.rcProtocolVersion);
-            if(null == versionChar || Constants.PROTOCOL_VERSION !=
-                            versionChar.getIntValue(BluetoothGattCharacteristic.FORMAT_SINT32, 0)) {
-                showError(R.string.protocol_mismatch);
-            }
-
-
-            DeviceInfo d = new DeviceInfo();
-
-            d.row = mValues.get(Constants.rcRow).
-                    getIntValue(BluetoothGattCharacteristic.FORMAT_SINT32, 0);
-            d.col = mValues.get(Constants.rcCol).
-                    getIntValue(BluetoothGattCharacteristic.FORMAT_SINT32, 0);
-            d.isLandscape = mValues.get(Constants.rcOrientation).
-                    getIntValue(BluetoothGattCharacteristic.FORMAT_SINT32, 0) > 0;
-
-            final int controlCount = mValues.get(Constants.rcControlCount).
-                    getIntValue(BluetoothGattCharacteristic.FORMAT_SINT32, 0);
-            final byte[] typeArray = mValues.get(Constants.rcControlTypes).getValue();
-            final byte[] colorArray = mValues.get(Constants.rcColors).getValue();
-            final byte[] rectArray = mValues.get(Constants.rcFrames).getValue();
-            final byte[] configArray = mValues.get(Constants.rcConfigDataArray).getValue();
-            final String nameString = mValues.get(Constants.rcNames).getStringValue(0);
-            final String[] names = nameString.split("\n");
-
-            d.controls = new ControlInfo[controlCount];
-
-            // Note that config data are uint16_t stored in little endian byte order.
-            final ByteBuffer configDataBuffer = ByteBuffer.wrap(configArray);
-            configDataBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-            for (int i = 0; i < controlCount; ++i) {
-                ControlInfo c = new ControlInfo();
-                c.index = i;
-                c.type = ControlInfo.ControlType.getEnum(typeArray[i]);
-                c.color = Brandcolor.fromBLE(colorArray[i]).primary;
-                c.cell = new Rect();
-                c.cell.left = rectArray[i * 4];
-                c.cell.top = rectArray[i * 4 + 1];
-                c.cell.right = c.cell.left + rectArray[i * 4 + 2];
-                c.cell.bottom = c.cell.top + rectArray[i * 4 + 3];
-                try {
-                    c.text = names[i];
-                } catch (Exception e) {
-                    c.text = getResources().getString(R.string.no_name);
-                }
-
-                c.config = new ControlConfig();
-                c.config.data1 = configDataBuffer.getShort();
-                c.config.data2 = configDataBuffer.getShort();
-                c.config.data3 = configDataBuffer.getShort();
-                c.config.data4 = configDataBuffer.getShort();
-                d.controls[i] = c;
-            }
-
-            return d;
+        Tracer.section("buildLayout");
+        mLayoutBuilder.build(d);
+        Tracer.end();
+        Tracer.event(Tracer.LAYOUT_BUILT, d.controls.length);
+
+        mDeviceInfo = d;
+        mHandler.removeCallbacks(mSliderFlush);
+        mSliderShaper.reset();
+        if (null != mSession) {
+            mSession.resetLabels();
         }
-
     }
 
-    private void sendRemoteEvent(ControlInfo c, int event, int data) {
-        if(null == mGatt || null == mEventCharacteristic) {
-            return;
+    // inputTime is on the LatencyRecorder clock
+    private void sendRemoteEvent(ControlInfo c, int event, int data, long inputTime) {
+        if(null != mSession) {
+            mSession.sendEvent(c, event, data, inputTime);
         }
+    }
 
-        byte[] eventData = new byte[6];
-        final int index = c.index;
-
-        eventData[0] = mEventSeq;                   // sequence number - increment it
-        mEventSeq += 1;
-        eventData[1] = (byte)index;                 // control index
-        eventData[2] = (byte)event;                 // event
-        eventData[3] = 0;                           // ignored & reserved
-        eventData[4] = (byte)(data & 0xFF);         // event data, high byte
-        eventData[5] = (byte)((data >> 8) & 0xFF);  // event data, low byte
+    private void sendRemoteEvent(ControlInfo c, int event, int data) {
+        sendRemoteEvent(c, event, data, LatencyRecorder.now());
+    }
 
-        mWriteRequests.add(eventData);
-        performWriteOperation();
+    private void scheduleSliderFlush(long now) {
+        mHandler.removeCallbacks(mSliderFlush);
+        final long due = mSliderShaper.getNextDue();
+        if (due >= 0) {
+            mHandler.postDelayed(mSliderFlush, Math.max(0, due - now));
+        }
     }
 
-    private void performWriteOperation() {
-        if(mWriteRequests.isEmpty()){
-            Log.d(TAG, "Nothing to write");
-            return;
+    private class UIEventListener implements LayoutBuilder.EventListener, TouchRouter.Listener {
+        public boolean onTouch(View var1, MotionEvent var2) {
+            Tracer.event(Tracer.TOUCH, var2.getAction());
+            // RemoteGridLayout routes button pointers, see onButton(). Taking them
+            // here keeps further pointers splitting to other controls.
+            return true;
         }
 
-        if(mWriting.tryAcquire()){
-            // lock acquired, start writing
-            try {
-                mEventCharacteristic.setValue(mWriteRequests.take());
-                final boolean writeInitiated = mGatt.writeCharacteristic(mEventCharacteristic);
-                Log.d(TAG, "write event " + String.valueOf(mEventSeq) + ", initiated=" + String.valueOf(writeInitiated));
-                // we'll release the mWriting lock in  "onCharacteristicWritten"
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                mWriting.release();
+        public void onButton(int index, boolean down, long eventTime) {
+            if (null == mDeviceInfo || index >= mDeviceInfo.controls.length) {
+                return;
+            }
+            final View view = mLayoutBuilder.getView(index);
+            if (null != view) {
+                view.setPressed(down);
             }
-        } else {
-            Log.d(TAG, "Writing - perform later");
+            if (null != mSession) {
+                // the edges of one touch event go out together
+                mSession.setEventsHeld(true);
+            }
+            sendRemoteEvent(mDeviceInfo.controls[index], ControlEvent.valueChange, down ? 1 : 0,
+                    LatencyRecorder.fromUptimeMillis(eventTime));
         }
-    }
 
-    private class UIEventListener implements View.OnTouchListener, SeekBar.OnSeekBarChangeListener, ToggleButton.OnClickListener {
-        public boolean onTouch(View var1, MotionEvent var2) {
-            ControlInfo c = (ControlInfo)var1.getTag();
-            Button b = (Button)var1;
-
-            Log.d(TAG, "btn state=" + String.valueOf(var2));
-
-            switch(var2.getAction()) {
-                case MotionEvent.ACTION_DOWN:
-                    sendRemoteEvent(c, ControlEvent.valueChange, 1);
-                    break;
-                case MotionEvent.ACTION_UP:
-                    sendRemoteEvent(c, ControlEvent.valueChange, 0);
-                    break;
-                default:
-                    // unrecognized action
-                    break;
+        public void onTouchDone() {
+            if (null != mSession) {
+                mSession.setEventsHeld(false);
             }
-
-
-            return false;
         }
 
         public void onProgressChanged(SeekBar var1, int var2, boolean var3){
             ControlInfo c = (ControlInfo)var1.getTag();
 
             // update label, note that seekbar range is data2 - data1
-            TextView valueLabel = (TextView)c.view.findViewById(R.id.slider_value);
+            TextView valueLabel = (TextView)mLayoutBuilder.getView(c.index).findViewById(R.id.slider_value);
             final int value = c.config.data1 + var1.getProgress();
             valueLabel.setText(String.valueOf(value));
 
-            // send update according to interval
-            final long EVENT_INTERVAL_MS = 100;
-            final long currentTime = SystemClock.elapsedRealtime();
-            if(currentTime - mLastSliderUpdateTime > EVENT_INTERVAL_MS) {
-                mLastSliderUpdateTime = currentTime;
+            // send at the rate the link takes, the latest value follows on the trailing edge
+            final long now = SystemClock.uptimeMillis();
+            if (null != mSession) {
+                mSliderShaper.setLinkTiming(mSession.getConnectionIntervalMs(), mSession.getEventLatencyMs());
+            }
+            if (mSliderShaper.offer(c.index, value, now)) {
                 sendRemoteEvent(c, ControlEvent.valueChange, value);
+            } else {
+                scheduleSliderFlush(now);
             }
         }
 
         public void onStartTrackingTouch(SeekBar var1) {
             // do nothing, but mandatory to implement.
-            mLastSliderUpdateTime = SystemClock.elapsedRealtime();
         }
 
         public void onStopTrackingTouch(SeekBar var1) {
@@ -692,15 +536,23 @@ public class RemoteView extends AppCompatActivity {
             // note that seekbar stores range, and data1 is min value
             final int seekEnd = var1.getProgress();
             final int value = c.config.data1 + seekEnd;
-            Log.d(TAG, "seek end = " + String.valueOf(seekEnd) + "value = " + String.valueOf(value));
-            sendRemoteEvent(c, ControlEvent.valueChange, value);
+            if (Tracer.VERBOSE) {
+                Log.d(TAG, "seek end = " + String.valueOf(seekEnd) + "value = " + String.valueOf(value));
+            }
+            final long now = SystemClock.uptimeMillis();
+            if (mSliderShaper.finish(c.index, value, now)) {
+                sendRemoteEvent(c, ControlEvent.valueChange, value);
+            }
+            scheduleSliderFlush(now);
         }
 
         public void onClick(View var1) {
             ControlInfo c = (ControlInfo)var1.getTag();
             if(c.type == ControlInfo.ControlType.switchButton) {
                 ToggleButton btn = (ToggleButton)var1;
-                Log.d(TAG, "toggle = " + String.valueOf(btn.isChecked()));
+                if (Tracer.VERBOSE) {
+                    Log.d(TAG, "toggle = " + String.valueOf(btn.isChecked()));
+                }
                 sendRemoteEvent(c, ControlEvent.valueChange, btn.isChecked() ? 1 : 0);
             }
         }
@@ -18,24 +18,36 @@
 
 package com.mediatek.labs.linkitremote;
 
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.ScanResult;
 import android.content.Context;
-import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
+import com.mediatek.labs.linkitremote.protocol.ScanStore;
+
 import java.util.ArrayList;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 /**
  * Holds and displays {@link ScanResult}s.
+ *
+ * Results go into a {@link ScanStore}, and the list only learns about them on
+ * refresh(): a new or lost device redraws the list, otherwise only the visible
+ * rows whose name or RSSI changed are bound again. The adapter shows a snapshot
+ * of the store's entries taken on refresh(), so its count never changes without
+ * notifyDataSetChanged(), as ListView requires.
  */
 public class ScanResultAdapter extends BaseAdapter {
 
-    private ArrayList<ScanResult> mArrayList;
+    private final ScanStore<ScanResult> mStore;
+
+    // the entries the list knows about, as of the last refresh()
+    private final ArrayList<ScanStore.Entry<ScanResult>> mShown = new ArrayList<>();
 
     private Context mContext;
 
@@ -45,22 +57,27 @@ public class ScanResultAdapter extends BaseAdapter {
         super();
         mContext = context;
         mInflater = inflater;
-        mArrayList = new ArrayList<>();
+        mStore = new ScanStore<>(ScanStore.DEFAULT_RSSI_ALPHA, Constants.SCAN_STALE_MS);
     }
 
     @Override
     public int getCount() {
-        return mArrayList.size();
+        return mShown.size();
     }
 
     @Override
     public Object getItem(int position) {
-        return mArrayList.get(position);
+        return mShown.get(position).value;
     }
 
     @Override
     public long getItemId(int position) {
-        return mArrayList.get(position).getDevice().getAddress().hashCode();
+        return mShown.get(position).address.hashCode();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     @Override
@@ -75,53 +92,79 @@ public class ScanResultAdapter extends BaseAdapter {
         TextView deviceSignalView = (TextView)view.findViewById(R.id.device_signal);
 
 
-        ScanResult scanResult = mArrayList.get(position);
-        String name = scanResult.getDevice().getName();
+        ScanStore.Entry<ScanResult> entry = mShown.get(position);
+        String name = entry.name;
         if (name == null) {
             name = mContext.getResources().getString(R.string.no_name);
         }
         deviceNameView.setText(name);
-        deviceSignalView.setText(String.format("%d dB", scanResult.getRssi()));
+        deviceSignalView.setText(String.format("%d dB", entry.getRssi()));
         return view;
     }
 
     /**
-     * Search the adapter for an existing device address and return it, otherwise return -1.
+     * Add a ScanResult item to the adapter if a result from that device isn't already present.
+     * Otherwise updates the existing entry with the new ScanResult.
+     * The list shows it on the next refresh().
      */
-    private int getPosition(String address) {
-        int position = -1;
-        for (int i = 0; i < mArrayList.size(); i++) {
-            if (mArrayList.get(i).getDevice().getAddress().equals(address)) {
-                position = i;
-                break;
-            }
-        }
-        return position;
+    public void add(ScanResult scanResult, long now) {
+        mStore.update(scanResult.getDevice().getAddress(), scanResult.getDevice().getName(),
+                scanResult.getRssi(), scanResult, now);
     }
 
+    /**
+     * Drop devices that stopped advertising.
+     */
+    public void removeStale(long now) {
+        mStore.removeStale(now);
+    }
 
     /**
-     * Add a ScanResult item to the adapter if a result from that device isn't already present.
-     * Otherwise updates the existing position with the new ScanResult.
+     * Devices worth connecting to ahead of a tap, see {@link SessionPrefetcher#choose}.
      */
-    public void add(ScanResult scanResult) {
+    List<BluetoothDevice> getPrefetchCandidates(List<String> recent, int max, int minRssi) {
+        final List<BluetoothDevice> devices = new ArrayList<>();
+        for (ScanStore.Entry<ScanResult> e : SessionPrefetcher.choose(mStore, recent, max, minRssi)) {
+            devices.add(e.value.getDevice());
+        }
+        return devices;
+    }
 
-        int existingPosition = getPosition(scanResult.getDevice().getAddress());
+    boolean hasChanges() {
+        return mStore.hasChanges();
+    }
 
-        if (existingPosition >= 0) {
-            // Device is already in list, update its record.
-            mArrayList.set(existingPosition, scanResult);
+    /**
+     * Show changes since the last refresh in listView.
+     */
+    public void refresh(ListView listView) {
+        if (mStore.isStructureChanged()) {
+            mShown.clear();
+            for (int i = 0; i < mStore.size(); ++i) {
+                mShown.add(mStore.get(i));
+            }
+            notifyDataSetChanged();
         } else {
-            // Add new Device's ScanResult to list.
-            mArrayList.add(scanResult);
+            // same entries at the same positions as shown, rebind changed rows in place,
+            // rows off screen are bound when they scroll in
+            final int first = listView.getFirstVisiblePosition();
+            final int last = listView.getLastVisiblePosition();
+            final List<ScanStore.Entry<ScanResult>> changed = mStore.getChanged();
+            for (int i = 0; i < changed.size(); ++i) {
+                final int position = changed.get(i).getPosition();
+                if (position >= first && position <= last) {
+                    getView(position, listView.getChildAt(position - first), listView);
+                }
+            }
         }
+        mStore.clearChanges();
     }
 
     /**
-     * Clear out the adapter.
+     * Clear out the adapter. The list empties on the next refresh().
      */
     public void clear() {
-        mArrayList.clear();
+        mStore.clear();
     }
 
 }
@@ -0,0 +1,268 @@
+package com.mediatek.labs.linkitremote;
+
+import android.bluetooth.le.ScanSettings;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Steps a BLE scan down from low latency to low power, and ends it early once a
+ * known board shows up.
+ *
+ * A scan starts with a short low latency burst, so boards in the room appear
+ * within a second, then duty-cycles down through balanced to low power until
+ * SCAN_PERIOD_MS. Each phase restarts the scan with new settings. Android allows
+ * an app only MAX_STARTS scan starts per START_WINDOW_MS and silently delivers
+ * nothing for the next one, and a scan stopped early followed by a refresh easily
+ * gets there. So the starts of the app are logged in a {@link StartLog}: near the
+ * limit a phase change is skipped and the scan stays in its mode, a scan started
+ * over while running keeps its scanner, and a new scan waits until a start is
+ * allowed. Where the chipset batches results in hardware,
+ * the slower phases let the controller collect results for REPORT_DELAY_MS
+ * instead of waking the app for each one.
+ *
+ * It reports the time from start to the first device, and an estimate of radio
+ * on time from the scan window of each mode. All times are in milliseconds from
+ * the same monotonic clock.
+ */
+class ScanScheduler {
+    static private final String TAG = "ScanScheduler";
+
+    static final long REPORT_DELAY_MS = 1000;
+
+    // scan mode of each phase, and when it ends; each phase change is a scan start
+    static final int[] PHASE_MODES = {
+            ScanSettings.SCAN_MODE_LOW_LATENCY,
+            ScanSettings.SCAN_MODE_BALANCED,
+            ScanSettings.SCAN_MODE_LOW_POWER
+    };
+    static final long[] PHASE_END_MS = {2000, 5000, Constants.SCAN_PERIOD_MS};
+
+    // the platform limit on scan starts of an app
+    static final int MAX_STARTS = 5;
+    static final long START_WINDOW_MS = 30000;
+    // starts phase changes leave for the user to scan again
+    static final int RESERVED_STARTS = 1;
+
+    /**
+     * Starts and stops the platform scanner.
+     */
+    interface Scanner {
+        void startScan(int scanMode, long reportDelayMs);
+
+        void stopScan();
+    }
+
+    /**
+     * Times of the last MAX_STARTS scan starts. The platform counts per app, so
+     * one log outlives the schedulers and is shared by all of them.
+     */
+    static class StartLog {
+        private final long[] mTimes = new long[MAX_STARTS];
+        private int mCount = 0;
+        private int mNext = 0;       // oldest entry once the log is full
+
+        // starts within START_WINDOW_MS before now
+        int getCount(long now) {
+            int count = 0;
+            for (int i = 0; i < mCount; ++i) {
+                if (now - mTimes[i] < START_WINDOW_MS) {
+                    count += 1;
+                }
+            }
+            return count;
+        }
+
+        // time until another start is allowed, 0 if it is now
+        long getDelay(long now) {
+            if (mCount < MAX_STARTS) {
+                return 0;
+            }
+            return Math.max(0, mTimes[mNext] + START_WINDOW_MS - now);
+        }
+
+        void add(long now) {
+            mTimes[mNext] = now;
+            mNext = (mNext + 1) % MAX_STARTS;
+            mCount = Math.min(mCount + 1, MAX_STARTS);
+        }
+    }
+
+    private final Scanner mScanner;
+    private final boolean mBatching;
+    private final Set<String> mKnown = new HashSet<>();
+    private final StartLog mStarts;
+
+    private int mPhase = -1;        // -1 when not scanning
+    private int mMode = -1;         // of the running scanner, -1 while waiting to start it
+    private long mStartTime;
+    private long mPhaseStart;
+
+    // statistics of the last scan
+    private long mFirstDeviceTime = -1;
+    private double mRadioOnTime;
+    private boolean mStoppedEarly;
+
+    /**
+     * batching tells whether the adapter supports offloaded scan batching. One
+     * scheduler runs scan after scan, starts is shared by all schedulers of the app.
+     */
+    ScanScheduler(Scanner scanner, boolean batching, StartLog starts) {
+        mScanner = scanner;
+        mBatching = batching;
+        mStarts = starts;
+    }
+
+    boolean isScanning() {
+        return mPhase >= 0;
+    }
+
+    /**
+     * Start scanning, or start the running scan over. A result from one of the
+     * known addresses ends the scan. Returns the delay until onTick() is due.
+     */
+    long start(long now, Set<String> known) {
+        mKnown.clear();
+        mKnown.addAll(known);
+        mStartTime = now;
+        mFirstDeviceTime = -1;
+        mRadioOnTime = 0;
+        mStoppedEarly = false;
+        mPhase = 0;
+
+        if (mMode >= 0) {
+            if (mStarts.getDelay(now) > 0) {
+                // another start would be dropped, the running scan starts over instead
+                Log.d(TAG, "scan start limit reached, continuing in mode " + String.valueOf(mMode));
+                mPhaseStart = now;
+                return PHASE_END_MS[0];
+            }
+            mScanner.stopScan();
+            mMode = -1;
+        }
+        if (!startScan(PHASE_MODES[0], now)) {
+            Log.d(TAG, "scan start limit reached, waiting " + String.valueOf(mStarts.getDelay(now)) + "ms");
+            return mStarts.getDelay(now);
+        }
+        return PHASE_END_MS[0];
+    }
+
+    /**
+     * Move on to the next phase when due. Returns the delay until the next tick,
+     * or -1 once the scan finished.
+     */
+    long onTick(long now) {
+        if (!isScanning()) {
+            return -1;
+        }
+        if (mMode < 0) {
+            // waiting for the platform to allow a start, the scan begins once it does
+            if (!startScan(PHASE_MODES[mPhase], now)) {
+                return mStarts.getDelay(now);
+            }
+            mStartTime = now;
+            return PHASE_END_MS[mPhase];
+        }
+
+        final long elapsed = now - mStartTime;
+        if (elapsed < PHASE_END_MS[mPhase]) {
+            return PHASE_END_MS[mPhase] - elapsed;
+        }
+        if (mPhase + 1 >= PHASE_MODES.length) {
+            stop(now);
+            return -1;
+        }
+
+        mPhase += 1;
+        if (mStarts.getCount(now) < MAX_STARTS - RESERVED_STARTS) {
+            mScanner.stopScan();
+            endPhase(now);
+            startScan(PHASE_MODES[mPhase], now);
+        } else {
+            Log.d(TAG, "scan start limit near, staying in mode " + String.valueOf(mMode));
+        }
+        return PHASE_END_MS[mPhase] - elapsed;
+    }
+
+    /**
+     * A scan result of address arrived. Returns true if it ended the scan.
+     */
+    boolean onResult(String address, long now) {
+        if (!isScanning()) {
+            return false;
+        }
+        if (mFirstDeviceTime < 0) {
+            mFirstDeviceTime = now - mStartTime;
+        }
+        if (mKnown.contains(address)) {
+            Log.d(TAG, "known device " + address + ", stopping scan");
+            mStoppedEarly = true;
+            stop(now);
+            return true;
+        }
+        return false;
+    }
+
+    void stop(long now) {
+        if (!isScanning()) {
+            return;
+        }
+        if (mMode >= 0) {
+            mScanner.stopScan();
+            endPhase(now);
+        }
+        mPhase = -1;
+        mMode = -1;
+        Log.d(TAG, toString());
+    }
+
+    // from start to the first result, -1 if there was none
+    long getTimeToFirstDeviceMs() {
+        return mFirstDeviceTime;
+    }
+
+    long getRadioOnTimeMs() {
+        return (long) mRadioOnTime;
+    }
+
+    boolean isStoppedEarly() {
+        return mStoppedEarly;
+    }
+
+    // share of time the radio listens in a scan mode, from the scan window and interval
+    static double dutyCycle(int scanMode) {
+        switch (scanMode) {
+            case ScanSettings.SCAN_MODE_LOW_LATENCY:
+                return 1.0;     // 4096 / 4096 ms
+            case ScanSettings.SCAN_MODE_BALANCED:
+                return 0.25;    // 1024 / 4096 ms
+            default:
+                return 0.1;     // 512 / 5120 ms
+        }
+    }
+
+    // start the scanner in mode, unless the platform would drop the start
+    private boolean startScan(int mode, long now) {
+        if (mStarts.getDelay(now) > 0) {
+            return false;
+        }
+        mStarts.add(now);
+        mMode = mode;
+        mPhaseStart = now;
+        // the burst reports every result at once, later phases may batch
+        final long reportDelay = (mBatching && mode != ScanSettings.SCAN_MODE_LOW_LATENCY) ? REPORT_DELAY_MS : 0;
+        mScanner.startScan(mode, reportDelay);
+        return true;
+    }
+
+    private void endPhase(long now) {
+        mRadioOnTime += (now - mPhaseStart) * dutyCycle(mMode);
+    }
+
+    @Override
+    public String toString() {
+        return "first device " + String.valueOf(mFirstDeviceTime) + "ms, radio on "
+                + String.valueOf(getRadioOnTimeMs()) + "ms" + (mStoppedEarly ? ", stopped early" : "");
+    }
+}
@@ -0,0 +1,133 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.LatencyHistogram;
+
+import java.util.EnumMap;
+
+/**
+ * States of a {@link RemoteSession} connection, with a deadline per state and the
+ * time spent in each.
+ *
+ * A state with a deadline is overdue when it made no progress for its timeout:
+ * a connect that never completes, a discovery that never calls back, or a read
+ * that stalls. The session then closes the connection and retries. Progress
+ * within a state, such as each completed read, restarts its deadline.
+ *
+ * All times are in milliseconds from the same monotonic clock. Transitions may
+ * come from the GATT callback thread.
+ */
+class SessionLifecycle {
+
+    enum State {
+        disconnected,
+        connecting,     // until STATE_CONNECTED
+        discovering,    // MTU exchange and service discovery
+        reading,        // layout characteristics
+        ready,
+        closing         // until STATE_DISCONNECTED after disconnect()
+    }
+
+    static final long CONNECT_TIMEOUT_MS = 10000;
+    static final long DISCOVERY_TIMEOUT_MS = 8000;
+    static final long READ_TIMEOUT_MS = 5000;      // since the last completed read
+    static final long CLOSE_TIMEOUT_MS = 2000;
+
+    private State mState = State.disconnected;
+    private long mEnteredAt;
+    private long mProgressAt;
+    private long mTimeout;          // 0 for no deadline
+
+    // statistics
+    private final EnumMap<State, LatencyHistogram> mTimeIn = new EnumMap<>(State.class);
+    private int mTimeouts;
+    private int mFailures;
+
+    SessionLifecycle() {
+        for (State s : State.values()) {
+            mTimeIn.put(s, new LatencyHistogram());
+        }
+    }
+
+    // default deadline of each state
+    static long timeoutFor(State state) {
+        switch (state) {
+            case connecting:
+                return CONNECT_TIMEOUT_MS;
+            case discovering:
+                return DISCOVERY_TIMEOUT_MS;
+            case reading:
+                return READ_TIMEOUT_MS;
+            case closing:
+                return CLOSE_TIMEOUT_MS;
+            default:
+                return 0;
+        }
+    }
+
+    synchronized State getState() {
+        return mState;
+    }
+
+    void moveTo(State state, long now) {
+        moveTo(state, now, timeoutFor(state));
+    }
+
+    /**
+     * Enter state at now, overdue after timeoutMs without progress. 0 means no deadline.
+     */
+    synchronized void moveTo(State state, long now, long timeoutMs) {
+        if (state == mState) {
+            return;
+        }
+        if (mState != State.disconnected) {
+            mTimeIn.get(mState).record(now - mEnteredAt);
+        }
+        mState = state;
+        mEnteredAt = now;
+        mProgressAt = now;
+        mTimeout = timeoutMs;
+    }
+
+    // the current state made progress, restart its deadline
+    synchronized void onProgress(long now) {
+        mProgressAt = now;
+    }
+
+    synchronized boolean isOverdue(long now) {
+        return mTimeout > 0 && now - mProgressAt > mTimeout;
+    }
+
+    synchronized void onTimeout() {
+        mTimeouts += 1;
+    }
+
+    // the stack reported an error, e.g. GATT 133
+    synchronized void onFailure() {
+        mFailures += 1;
+    }
+
+    synchronized LatencyHistogram getTimeIn(State state) {
+        return mTimeIn.get(state);
+    }
+
+    synchronized int getTimeoutCount() {
+        return mTimeouts;
+    }
+
+    synchronized int getFailureCount() {
+        return mFailures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder b = new StringBuilder();
+        for (State s : State.values()) {
+            final LatencyHistogram h = mTimeIn.get(s);
+            if (h.getCount() > 0) {
+                b.append(s.name()).append(": ").append(h.toString()).append("; ");
+            }
+        }
+        b.append("timeouts ").append(mTimeouts).append(", failures ").append(mFailures);
+        return b.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package com.mediatek.labs.linkitremote;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.util.Log;
+
+import com.mediatek.labs.linkitremote.protocol.ScanStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connects to the boards the user most likely taps next, while the device list
+ * is showing, so that RemoteView finds a session with its layout already read.
+ *
+ * Candidates are boards the user opened before, most recent first, then the
+ * strongest other boards. Prefetched sessions live in {@link RemoteSessionService}
+ * like any other, so opening the tapped device there hands over the live
+ * connection. At most budget sessions are prefetched, and each is closed again
+ * after timeoutMs unless an activity attached to it, or as soon as the user picks
+ * another device.
+ */
+class SessionPrefetcher {
+    static private final String TAG = "SessionPrefetcher";
+
+    private final Handler mHandler;
+    private final int mBudget;
+    private final long mTimeoutMs;
+    private RemoteSessionService mService;
+    private final ArrayList<RemoteSession> mSessions = new ArrayList<>();
+
+    private final Runnable mExpire = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "prefetch expired");
+            cancel();
+        }
+    };
+
+    SessionPrefetcher(Handler handler, int budget, long timeoutMs) {
+        mHandler = handler;
+        mBudget = budget;
+        mTimeoutMs = timeoutMs;
+    }
+
+    void setService(RemoteSessionService service) {
+        mService = service;
+    }
+
+    /**
+     * Pick up to max entries to prefetch: recent addresses in their order, then
+     * the strongest entries at or above minRssi.
+     */
+    static <T> List<ScanStore.Entry<T>> choose(ScanStore<T> store, List<String> recent, int max, int minRssi) {
+        final ArrayList<ScanStore.Entry<T>> chosen = new ArrayList<>();
+        for (int i = 0; i < recent.size() && chosen.size() < max; ++i) {
+            final ScanStore.Entry<T> e = store.find(recent.get(i));
+            if (e != null) {
+                chosen.add(e);
+            }
+        }
+
+        while (chosen.size() < max) {
+            ScanStore.Entry<T> best = null;
+            for (int i = 0; i < store.size(); ++i) {
+                final ScanStore.Entry<T> e = store.get(i);
+                if (e.getRssi() >= minRssi && !chosen.contains(e) &&
+                        (best == null || e.getRssi() > best.getRssi())) {
+                    best = e;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            chosen.add(best);
+        }
+        return chosen;
+    }
+
+    /**
+     * Connect to devices, most likely first, within the budget.
+     */
+    void prefetch(List<BluetoothDevice> devices) {
+        if (null == mService) {
+            return;
+        }
+
+        for (int i = 0; i < devices.size() && mSessions.size() < mBudget; ++i) {
+            final BluetoothDevice device = devices.get(i);
+            if (null != mService.find(device.getAddress())) {
+                // already open, nothing to gain
+                continue;
+            }
+            final RemoteSession s = mService.open(device);
+            if (null == s) {
+                break;
+            }
+            Log.d(TAG, "prefetching " + device.getAddress());
+            s.connect();
+            mSessions.add(s);
+        }
+
+        if (!mSessions.isEmpty()) {
+            mHandler.removeCallbacks(mExpire);
+            mHandler.postDelayed(mExpire, mTimeoutMs);
+        }
+    }
+
+    /**
+     * The user picked device: keep its session for the activity, drop the others.
+     */
+    void handOff(BluetoothDevice device) {
+        for (int i = 0; i < mSessions.size(); ++i) {
+            if (mSessions.get(i).getDevice().getAddress().equals(device.getAddress())) {
+                Log.d(TAG, "handing off " + device.getAddress() + ", " + mSessions.get(i).getState());
+                mSessions.remove(i);
+                break;
+            }
+        }
+        cancel();
+    }
+
+    /**
+     * Close prefetched sessions no activity attached to.
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mExpire);
+        for (RemoteSession s : mSessions) {
+            if (null != mService && !s.isAttached()) {
+                mService.close(s);
+            }
+        }
+        mSessions.clear();
+    }
+}
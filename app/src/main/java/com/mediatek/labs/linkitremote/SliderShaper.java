@@ -0,0 +1,142 @@
+package com.mediatek.labs.linkitremote;
+
+/**
+ * Shapes the values of each slider to the rate the link can carry.
+ *
+ * Every slider has its own schedule, so sliders dragged together do not starve
+ * each other. A value arriving less than one interval after the last one sent is
+ * held, and the newest held value goes out on the trailing edge when the interval
+ * ends, so the board always ends up with where the slider stopped. Values equal to
+ * the last one sent are skipped.
+ *
+ * The interval follows the link: at least one connection interval, and at least
+ * the smoothed enqueue-to-written latency of events, so sliders do not produce
+ * values faster than the link writes them.
+ *
+ * All times are in milliseconds from the same monotonic clock.
+ */
+class SliderShaper {
+    static final long MIN_INTERVAL_MS = 16;     // a display frame
+    static final long MAX_INTERVAL_MS = 200;
+
+    static private final int MAX_CONTROLS = 256;     // control index is a single byte
+    static private final int NONE = Integer.MIN_VALUE;
+
+    private final int[] mSent = new int[MAX_CONTROLS];
+    private final long[] mSentTime = new long[MAX_CONTROLS];
+    private final int[] mHeld = new int[MAX_CONTROLS];
+    private int mHeldCount = 0;
+    private long mInterval = MIN_INTERVAL_MS;
+
+    SliderShaper() {
+        reset();
+    }
+
+    // forget sent and held values, e.g. for a new layout or connection
+    void reset() {
+        for (int i = 0; i < MAX_CONTROLS; ++i) {
+            mSent[i] = NONE;
+            mHeld[i] = NONE;
+        }
+        mHeldCount = 0;
+    }
+
+    /**
+     * Adapt the interval to the connection interval and the smoothed write latency
+     * of events, both 0 if unknown.
+     */
+    void setLinkTiming(long connectionIntervalMs, long writeLatencyMs) {
+        mInterval = Math.min(MAX_INTERVAL_MS,
+                Math.max(MIN_INTERVAL_MS, Math.max(connectionIntervalMs, writeLatencyMs)));
+    }
+
+    long getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * A slider moved to value. Returns true if it should be sent now, otherwise
+     * it is held for the trailing edge, see pollDue(), or skipped as unchanged.
+     */
+    boolean offer(int index, int value, long now) {
+        final int slot = index & 0xFF;
+        if (value == mSent[slot]) {
+            // moved back before the held value went out
+            release(slot);
+            return false;
+        }
+        if (mSent[slot] == NONE || now - mSentTime[slot] >= mInterval) {
+            release(slot);
+            markSent(slot, value, now);
+            return true;
+        }
+        if (mHeld[slot] == NONE) {
+            mHeldCount += 1;
+        }
+        mHeld[slot] = value;
+        return false;
+    }
+
+    /**
+     * The slider was released at value. Returns true if it should be sent now,
+     * which is unless the board has it already.
+     */
+    boolean finish(int index, int value, long now) {
+        final int slot = index & 0xFF;
+        release(slot);
+        if (value == mSent[slot]) {
+            return false;
+        }
+        markSent(slot, value, now);
+        return true;
+    }
+
+    // when the next held value is due, or -1 if none is held
+    long getNextDue() {
+        if (mHeldCount == 0) {
+            return -1;
+        }
+        long due = Long.MAX_VALUE;
+        for (int i = 0; i < MAX_CONTROLS; ++i) {
+            if (mHeld[i] != NONE) {
+                due = Math.min(due, mSentTime[i] + mInterval);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Return the index of a control whose held value is due at now, and count the
+     * value as sent. Get it with getSentValue(). Returns -1 if none is due.
+     */
+    int pollDue(long now) {
+        if (mHeldCount == 0) {
+            return -1;
+        }
+        for (int i = 0; i < MAX_CONTROLS; ++i) {
+            if (mHeld[i] != NONE && now - mSentTime[i] >= mInterval) {
+                final int value = mHeld[i];
+                release(i);
+                markSent(i, value, now);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int getSentValue(int index) {
+        return mSent[index & 0xFF];
+    }
+
+    private void markSent(int slot, int value, long now) {
+        mSent[slot] = value;
+        mSentTime[slot] = now;
+    }
+
+    private void release(int slot) {
+        if (mHeld[slot] != NONE) {
+            mHeld[slot] = NONE;
+            mHeldCount -= 1;
+        }
+    }
+}
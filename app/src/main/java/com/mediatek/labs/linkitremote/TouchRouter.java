@@ -0,0 +1,225 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.GridCell;
+
+/**
+ * Routes the pointers of the remote grid to its buttons, like a game pad.
+ *
+ * Every pointer is tracked on its own and presses the button under it; sliding a
+ * pointer from one button to another releases the first and presses the second.
+ * Only pointers that went down on a button slide like this. A pointer that went
+ * down on a slider, a switch or empty space belongs to that, and never presses a
+ * button until it goes up.
+ * A button is down while at least one pointer is on it, so it reports exactly one
+ * down and one up however many pointers press it. A cancelled gesture releases
+ * everything, so no button stays down on the board.
+ *
+ * Hit tests are O(1): the cell under a point indexes a table of the button
+ * covering it, then the point is checked against that button's frame.
+ *
+ * Positions are in pixels of the grid view, times are uptime milliseconds as in
+ * MotionEvent.
+ */
+class TouchRouter {
+    static final int MAX_POINTERS = 32;         // MotionEvent pointer ids are below this
+    static private final int MAX_CONTROLS = 256;
+    static private final int NONE = -1;
+
+    /**
+     * Receives button edges. All edges of one MotionEvent come before onTouchDone().
+     */
+    interface Listener {
+        void onButton(int index, boolean down, long eventTime);
+
+        // called after a MotionEvent that changed a button
+        void onTouchDone();
+    }
+
+    private Listener mListener;
+
+    // grid geometry
+    private int mRows = 1;
+    private int mColumns = 1;
+    private int mLeft;
+    private int mTop;
+    private int mCellWidth;
+    private int mCellHeight;
+    private int[] mCellOwner = new int[]{NONE};
+
+    // frames of the buttons, by control index
+    private final int[] mFrameLeft = new int[MAX_CONTROLS];
+    private final int[] mFrameTop = new int[MAX_CONTROLS];
+    private final int[] mFrameRight = new int[MAX_CONTROLS];
+    private final int[] mFrameBottom = new int[MAX_CONTROLS];
+    private final boolean[] mRound = new boolean[MAX_CONTROLS];
+
+    private final int[] mPointerButton = new int[MAX_POINTERS];
+    private final boolean[] mRouted = new boolean[MAX_POINTERS];      // went down on a button
+    private final int[] mPressCount = new int[MAX_CONTROLS];
+    private boolean mChanged = false;
+
+    TouchRouter() {
+        for (int i = 0; i < MAX_POINTERS; ++i) {
+            mPointerButton[i] = NONE;
+        }
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Start over with a grid of rows x columns cells of the given size, whose top
+     * left corner is at left, top. Buttons are added again with addButton().
+     */
+    void setGrid(int rows, int columns, int left, int top, int cellWidth, int cellHeight) {
+        mRows = Math.max(1, rows);
+        mColumns = Math.max(1, columns);
+        mLeft = left;
+        mTop = top;
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+        if (mCellOwner.length != mRows * mColumns) {
+            mCellOwner = new int[mRows * mColumns];
+        }
+        for (int i = 0; i < mCellOwner.length; ++i) {
+            mCellOwner[i] = NONE;
+        }
+    }
+
+    /**
+     * Route pointers in the given cells to the button at index. Its frame, in
+     * pixels, is the part of the cells that presses it; round buttons only take
+     * the circle inside their frame.
+     */
+    void addButton(int index, GridCell cell, int left, int top, int right, int bottom, boolean round) {
+        final int slot = index & 0xFF;
+        mFrameLeft[slot] = left;
+        mFrameTop[slot] = top;
+        mFrameRight[slot] = right;
+        mFrameBottom[slot] = bottom;
+        mRound[slot] = round;
+
+        final int lastRow = Math.min(mRows, cell.row + cell.rowSpan);
+        final int lastColumn = Math.min(mColumns, cell.column + cell.columnSpan);
+        for (int row = Math.max(0, cell.row); row < lastRow; ++row) {
+            for (int column = Math.max(0, cell.column); column < lastColumn; ++column) {
+                mCellOwner[row * mColumns + column] = slot;
+            }
+        }
+    }
+
+    // index of the button at x, y, or -1
+    int hitTest(int x, int y) {
+        if (mCellWidth <= 0 || mCellHeight <= 0 || x < mLeft || y < mTop) {
+            return NONE;
+        }
+        final int column = (x - mLeft) / mCellWidth;
+        final int row = (y - mTop) / mCellHeight;
+        if (column >= mColumns || row >= mRows) {
+            return NONE;
+        }
+
+        final int index = mCellOwner[row * mColumns + column];
+        if (index == NONE || x < mFrameLeft[index] || x >= mFrameRight[index]
+                || y < mFrameTop[index] || y >= mFrameBottom[index]) {
+            return NONE;
+        }
+        if (mRound[index]) {
+            final long rx = (mFrameRight[index] - mFrameLeft[index]) / 2;
+            final long ry = (mFrameBottom[index] - mFrameTop[index]) / 2;
+            final long dx = x - (mFrameLeft[index] + rx);
+            final long dy = y - (mFrameTop[index] + ry);
+            final long r = Math.min(rx, ry);
+            if (dx * dx + dy * dy > r * r) {
+                return NONE;
+            }
+        }
+        return index;
+    }
+
+    // a pointer went down at x, y
+    void down(int pointerId, int x, int y, long eventTime) {
+        if (pointerId < 0 || pointerId >= MAX_POINTERS) {
+            return;
+        }
+        final int button = hitTest(x, y);
+        mRouted[pointerId] = (button != NONE);
+        moveTo(pointerId, button, eventTime);
+    }
+
+    // a pointer moved to x, y
+    void move(int pointerId, int x, int y, long eventTime) {
+        if (pointerId < 0 || pointerId >= MAX_POINTERS || !mRouted[pointerId]) {
+            return;
+        }
+        moveTo(pointerId, hitTest(x, y), eventTime);
+    }
+
+    void up(int pointerId, long eventTime) {
+        if (pointerId < 0 || pointerId >= MAX_POINTERS) {
+            return;
+        }
+        mRouted[pointerId] = false;
+        moveTo(pointerId, NONE, eventTime);
+    }
+
+    // the gesture ended without up events, release all buttons
+    void cancel(long eventTime) {
+        for (int i = 0; i < MAX_POINTERS; ++i) {
+            mRouted[i] = false;
+            moveTo(i, NONE, eventTime);
+        }
+    }
+
+    // report the edges of the current MotionEvent as done
+    void endEvent() {
+        if (mChanged) {
+            mChanged = false;
+            if (mListener != null) {
+                mListener.onTouchDone();
+            }
+        }
+    }
+
+    boolean isDown(int index) {
+        return mPressCount[index & 0xFF] > 0;
+    }
+
+    // a pointer that went down on a button is still down
+    boolean isTracking() {
+        for (int i = 0; i < MAX_POINTERS; ++i) {
+            if (mRouted[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void moveTo(int pointerId, int button, long eventTime) {
+        final int previous = mPointerButton[pointerId];
+        if (previous == button) {
+            return;
+        }
+        mPointerButton[pointerId] = button;
+        if (previous != NONE) {
+            mPressCount[previous] -= 1;
+            if (mPressCount[previous] == 0) {
+                report(previous, false, eventTime);
+            }
+        }
+        if (button != NONE) {
+            mPressCount[button] += 1;
+            if (mPressCount[button] == 1) {
+                report(button, true, eventTime);
+            }
+        }
+    }
+
+    private void report(int index, boolean down, long eventTime) {
+        mChanged = true;
+        if (mListener != null) {
+            mListener.onButton(index, down, eventTime);
+        }
+    }
+}
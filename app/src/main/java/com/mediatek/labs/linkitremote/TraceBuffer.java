@@ -0,0 +1,90 @@
+package com.mediatek.labs.linkitremote;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Fixed size ring of timestamped trace events, see {@link Tracer}.
+ *
+ * Events are stored in parallel primitive arrays, so adding one never allocates.
+ * When the ring is full the oldest events are overwritten.
+ */
+class TraceBuffer {
+
+    private final long[] mTimes;
+    private final int[] mEvents;
+    private final int[] mArgs;
+    private final int mMask;
+    private long mCount;        // events added since reset, including overwritten ones
+
+    /**
+     * capacity is rounded up to a power of two.
+     */
+    TraceBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mTimes = new long[size];
+        mEvents = new int[size];
+        mArgs = new int[size];
+        mMask = size - 1;
+    }
+
+    synchronized void add(long timeNanos, int event, int arg) {
+        final int i = (int) (mCount & mMask);
+        mTimes[i] = timeNanos;
+        mEvents[i] = event;
+        mArgs[i] = arg;
+        mCount += 1;
+    }
+
+    synchronized void reset() {
+        mCount = 0;
+    }
+
+    // number of events held, at most the capacity
+    synchronized int size() {
+        return (int) Math.min(mCount, mTimes.length);
+    }
+
+    synchronized long getTotalCount() {
+        return mCount;
+    }
+
+    /**
+     * Write held events, oldest first, as CSV lines "time_ns,event,arg". Event ids
+     * are written by name where names has one.
+     */
+    void writeCsv(Writer out, String[] names) throws IOException {
+        final int size;
+        final long[] times;
+        final int[] events;
+        final int[] args;
+        synchronized (this) {
+            // copy, so writing does not hold up the traced threads
+            size = size();
+            times = new long[size];
+            events = new int[size];
+            args = new int[size];
+            final long first = mCount - size;
+            for (int k = 0; k < size; ++k) {
+                final int i = (int) ((first + k) & mMask);
+                times[k] = mTimes[i];
+                events[k] = mEvents[i];
+                args[k] = mArgs[i];
+            }
+        }
+
+        out.write("time_ns,event,arg\n");
+        for (int k = 0; k < size; ++k) {
+            final int e = events[k];
+            out.write(String.valueOf(times[k]));
+            out.write(',');
+            out.write((e >= 0 && e < names.length) ? names[e] : String.valueOf(e));
+            out.write(',');
+            out.write(String.valueOf(args[k]));
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.mediatek.labs.linkitremote;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Tracing of the connection and event hot paths, for debug builds.
+ *
+ * section() and end() mark android.os.Trace sections, which show up in systrace
+ * next to the framework's own. event() records a timestamped event with an int
+ * argument in a ring buffer, without allocating, and dump() writes the buffer as
+ * CSV for offline latency analysis.
+ *
+ * Everything here, and verbose logging guarded by VERBOSE, compiles out of
+ * release builds, where BuildConfig.DEBUG is a constant false.
+ */
+final class Tracer {
+    static final boolean ENABLED = BuildConfig.DEBUG;
+    static final boolean VERBOSE = BuildConfig.DEBUG;
+
+    static final int CAPACITY = 8192;
+
+    // event ids, the argument is noted with each
+    static final int CONNECT = 0;           // 1 for autoConnect
+    static final int CONNECTED = 1;         // status
+    static final int DISCONNECTED = 2;      // status
+    static final int DISCOVERED = 3;        // status
+    static final int READ = 4;              // status
+    static final int LAYOUT_READY = 5;      // control count
+    static final int LAYOUT_BUILT = 6;      // control count
+    static final int EVENT_QUEUED = 7;      // control index
+    static final int WRITE = 8;             // events in the write
+    static final int WRITTEN = 9;           // status
+    static final int NOTIFY = 10;           // control index
+    static final int LABEL_APPLIED = 11;    // labels applied in the frame
+    static final int TOUCH = 12;            // MotionEvent action
+
+    static final String[] NAMES = {
+            "connect", "connected", "disconnected", "discovered", "read", "layout_ready",
+            "layout_built", "event_queued", "write", "written", "notify", "label_applied", "touch"
+    };
+
+    private static final TraceBuffer sBuffer = ENABLED ? new TraceBuffer(CAPACITY) : null;
+
+    private Tracer() {
+    }
+
+    static void section(String name) {
+        if (ENABLED) {
+            Trace.beginSection(name);
+        }
+    }
+
+    // ends the innermost section() of this thread
+    static void end() {
+        if (ENABLED) {
+            Trace.endSection();
+        }
+    }
+
+    static void event(int event, int arg) {
+        if (ENABLED) {
+            sBuffer.add(SystemClock.elapsedRealtimeNanos(), event, arg);
+        }
+    }
+
+    static void reset() {
+        if (ENABLED) {
+            sBuffer.reset();
+        }
+    }
+
+    /**
+     * Write the recorded events to file as CSV. Does nothing in release builds.
+     */
+    static void dump(File file) throws IOException {
+        if (!ENABLED) {
+            return;
+        }
+        final Writer out = new FileWriter(file);
+        try {
+            sBuffer.writeCsv(out, NAMES);
+        } finally {
+            out.close();
+        }
+    }
+}
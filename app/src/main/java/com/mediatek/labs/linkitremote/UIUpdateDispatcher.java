@@ -0,0 +1,162 @@
+package com.mediatek.labs.linkitremote;
+
+import android.view.Choreographer;
+
+/**
+ * Applies label updates to the UI at most once per display frame.
+ *
+ * Updates can be posted from any thread. Only the newest text of each control
+ * index is kept until the next Choreographer frame, so however fast a board
+ * notifies, the main looper sees one callback per frame and each label is set at
+ * most once per frame. Counters show how much work was merged or dropped.
+ *
+ * Create it on the UI thread.
+ */
+class UIUpdateDispatcher implements Choreographer.FrameCallback {
+
+    interface Target {
+        // called on the UI thread; return false if the index has no label to update
+        boolean applyLabel(int index, String text);
+    }
+
+    // where frame callbacks are posted, the Choreographer outside of tests
+    interface FrameSource {
+        void postFrameCallback(Choreographer.FrameCallback callback);
+
+        void removeFrameCallback(Choreographer.FrameCallback callback);
+    }
+
+    static private final int MAX_CONTROLS = 256;
+
+    private final FrameSource mFrameSource;
+    private final Target mTarget;
+
+    // double buffered, so labels are applied outside the lock without allocating
+    private String[] mPending = new String[MAX_CONTROLS];
+    private int[] mDirty = new int[MAX_CONTROLS];
+    private int mDirtyCount = 0;
+    private String[] mApplying = new String[MAX_CONTROLS];
+    private int[] mApplyingDirty = new int[MAX_CONTROLS];
+    private boolean mScheduled = false;
+
+    // statistics
+    private long mPosted;
+    private long mMerged;       // replaced by a newer text before the frame
+    private long mDropped;      // discarded, no matching label
+    private long mApplied;
+    private long mFrames;
+
+    UIUpdateDispatcher(Target target) {
+        this(target, new FrameSource() {
+            private final Choreographer mChoreographer = Choreographer.getInstance();
+
+            @Override
+            public void postFrameCallback(Choreographer.FrameCallback callback) {
+                mChoreographer.postFrameCallback(callback);
+            }
+
+            @Override
+            public void removeFrameCallback(Choreographer.FrameCallback callback) {
+                mChoreographer.removeFrameCallback(callback);
+            }
+        });
+    }
+
+    UIUpdateDispatcher(Target target, FrameSource frames) {
+        mFrameSource = frames;
+        mTarget = target;
+    }
+
+    void post(int index, String text) {
+        final int slot = index & 0xFF;
+        synchronized (this) {
+            mPosted += 1;
+            if (mPending[slot] != null) {
+                mMerged += 1;
+            } else {
+                mDirty[mDirtyCount++] = slot;
+            }
+            mPending[slot] = text;
+
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+        }
+        mFrameSource.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        final String[] texts;
+        final int[] dirty;
+        final int count;
+        synchronized (this) {
+            mScheduled = false;
+            mFrames += 1;
+
+            texts = mPending;
+            dirty = mDirty;
+            count = mDirtyCount;
+            mPending = mApplying;
+            mDirty = mApplyingDirty;
+            mDirtyCount = 0;
+            mApplying = texts;
+            mApplyingDirty = dirty;
+        }
+
+        int applied = 0;
+        for (int i = 0; i < count; ++i) {
+            final int slot = dirty[i];
+            if (mTarget.applyLabel(slot, texts[slot])) {
+                applied += 1;
+            }
+            texts[slot] = null;
+        }
+
+        Tracer.event(Tracer.LABEL_APPLIED, applied);
+        synchronized (this) {
+            mApplied += applied;
+            mDropped += count - applied;
+        }
+    }
+
+    // discard pending updates, e.g. on disconnect
+    void clear() {
+        synchronized (this) {
+            for (int i = 0; i < mDirtyCount; ++i) {
+                mPending[mDirty[i]] = null;
+            }
+            mDropped += mDirtyCount;
+            mDirtyCount = 0;
+            mScheduled = false;
+            mFrameSource.removeFrameCallback(this);
+        }
+    }
+
+    synchronized long getPostedCount() {
+        return mPosted;
+    }
+
+    synchronized long getMergedCount() {
+        return mMerged;
+    }
+
+    synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    synchronized long getAppliedCount() {
+        return mApplied;
+    }
+
+    synchronized long getFrameCount() {
+        return mFrames;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "posted " + mPosted + ", merged " + mMerged + ", dropped " + mDropped
+                + ", applied " + mApplied + " in " + mFrames + " frames";
+    }
+}
@@ -0,0 +1,162 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.EventPacker;
+import com.mediatek.labs.linkitremote.protocol.GattLink;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Connection tuning policy, exercised against a fake GATT link.
+ */
+public class ConnectionTunerTest {
+    private static final String HIGH = "priority " + GattLink.CONNECTION_PRIORITY_HIGH;
+    private static final String BALANCED = "priority " + GattLink.CONNECTION_PRIORITY_BALANCED;
+
+    // discovery results the tuner reports itself
+    private final List<Integer> mDiscovered = new ArrayList<>();
+    private final GattLink.Callback mCallback = new GattLink.Callback() {
+        @Override
+        public void onConnectionStateChange(int status, int newState) {
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+        }
+
+        @Override
+        public void onServicesDiscovered(int status) {
+            mDiscovered.add(status);
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int status) {
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+        }
+    };
+
+    @Test
+    public void connect_exchangesMtuBeforeDiscovery() throws Exception {
+        FakeGattLink link = new FakeGattLink();
+        ConnectionTuner tuner = new ConnectionTuner(link, mCallback);
+
+        tuner.onConnected(0);
+        assertEquals(Arrays.asList("mtu " + ConnectionTuner.PREFERRED_MTU), link.calls);
+
+        tuner.onMtuChanged(185, GattLink.GATT_SUCCESS);
+        assertEquals(Arrays.asList("mtu " + ConnectionTuner.PREFERRED_MTU, HIGH, "discover"), link.calls);
+        assertEquals(185, tuner.getMtu());
+        assertEquals(GattLink.CONNECTION_PRIORITY_HIGH, tuner.getPriority());
+    }
+
+    @Test
+    public void connect_withoutMtuSupport_discoversImmediately() throws Exception {
+        FakeGattLink link = new FakeGattLink();
+        link.mtuSupported = false;
+        ConnectionTuner tuner = new ConnectionTuner(link, mCallback);
+
+        tuner.onConnected(0);
+        assertEquals(Arrays.asList("mtu " + ConnectionTuner.PREFERRED_MTU, HIGH, "discover"), link.calls);
+        assertEquals(EventPacker.DEFAULT_MTU, tuner.getMtu());
+    }
+
+    @Test
+    public void mtuTimeout_discoversOnce() throws Exception {
+        FakeGattLink link = new FakeGattLink();
+        ConnectionTuner tuner = new ConnectionTuner(link, mCallback);
+
+        tuner.onConnected(0);
+        tuner.onMtuTimeout();
+        tuner.onMtuChanged(247, GattLink.GATT_SUCCESS);
+        tuner.onMtuTimeout();
+
+        assertEquals(1, Collections.frequency(link.calls, "discover"));
+        assertEquals(247, tuner.getMtu());
+    }
+
+    @Test
+    public void failedMtuExchange_keepsDefault() throws Exception {
+        FakeGattLink link = new FakeGattLink();
+        ConnectionTuner tuner = new ConnectionTuner(link, mCallback);
+
+        tuner.onConnected(0);
+        tuner.onMtuChanged(247, GattLink.GATT_FAILURE);
+        assertEquals(EventPacker.DEFAULT_MTU, tuner.getMtu());
+        assertTrue(link.calls.contains("discover"));
+    }
+
+    @Test
+    public void idle_dropsToBalancedAndActivityRestoresHigh() throws Exception {
+        FakeGattLink link = new FakeGattLink();
+        ConnectionTuner tuner = new ConnectionTuner(link, mCallback);
+        tuner.onConnected(0);
+        tuner.onMtuChanged(247, GattLink.GATT_SUCCESS);
+        link.calls.clear();
+
+        assertFalse(tuner.checkIdle(ConnectionTuner.IDLE_TIMEOUT_MS - 1));
+        assertTrue(tuner.checkIdle(ConnectionTuner.IDLE_TIMEOUT_MS));
+        assertEquals(GattLink.CONNECTION_PRIORITY_BALANCED, tuner.getPriority());
+
+        tuner.onActivity(ConnectionTuner.IDLE_TIMEOUT_MS + 10);
+        tuner.onActivity(ConnectionTuner.IDLE_TIMEOUT_MS + 20);
+        assertEquals(Arrays.asList(BALANCED, HIGH), link.calls);
+    }
+
+    @Test
+    public void background_usesBalancedPriority() throws Exception {
+        FakeGattLink link = new FakeGattLink();
+        ConnectionTuner tuner = new ConnectionTuner(link, mCallback);
+        tuner.onConnected(0);
+        tuner.onMtuChanged(247, GattLink.GATT_SUCCESS);
+
+        tuner.setForeground(false, 100);
+        tuner.onActivity(200);
+        assertEquals(GattLink.CONNECTION_PRIORITY_BALANCED, tuner.getPriority());
+
+        tuner.setForeground(true, 300);
+        assertEquals(GattLink.CONNECTION_PRIORITY_HIGH, tuner.getPriority());
+    }
+
+    @Test
+    public void rejectedPriorityRequest_isNotRecorded() throws Exception {
+        FakeGattLink link = new FakeGattLink();
+        link.prioritySupported = false;
+        ConnectionTuner tuner = new ConnectionTuner(link, mCallback);
+        tuner.onConnected(0);
+        tuner.onMtuChanged(247, GattLink.GATT_SUCCESS);
+
+        assertEquals(GattLink.CONNECTION_PRIORITY_BALANCED, tuner.getPriority());
+        assertTrue(link.calls.contains("discover"));
+    }
+
+    @Test
+    public void rejectedDiscovery_reportsFailure() throws Exception {
+        FakeGattLink link = new FakeGattLink();
+        link.discoverSupported = false;
+        ConnectionTuner tuner = new ConnectionTuner(link, mCallback);
+
+        tuner.onConnected(0);
+        assertTrue(mDiscovered.isEmpty());
+        tuner.onMtuChanged(247, GattLink.GATT_SUCCESS);
+        assertEquals(Arrays.asList(GattLink.GATT_FAILURE), mDiscovered);
+
+        // a late timeout does not try again
+        tuner.onMtuTimeout();
+        assertEquals(1, Collections.frequency(link.calls, "discover"));
+        assertEquals(1, mDiscovered.size());
+    }
+}
@@ -0,0 +1,159 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.ControlInfo;
+import com.mediatek.labs.linkitremote.protocol.GridCell;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reuse of control views across layouts.
+ */
+public class ControlViewsTest {
+    private static final ControlInfo.ControlType LABEL = ControlInfo.ControlType.label;
+    private static final ControlInfo.ControlType SWITCH = ControlInfo.ControlType.switchButton;
+    private static final ControlInfo.ControlType SLIDER = ControlInfo.ControlType.slider;
+
+    private static class FakeView {
+        final ControlInfo.ControlType type;
+        ControlInfo control;
+        ControlInfo previous;
+        boolean attached;
+
+        FakeView(ControlInfo.ControlType type) {
+            this.type = type;
+        }
+    }
+
+    private final List<FakeView> mCreated = new ArrayList<>();
+    private ControlViews<FakeView> mViews;
+
+    @Before
+    public void setUp() {
+        mCreated.clear();
+        mViews = new ControlViews<>(new ControlViews.Adapter<FakeView>() {
+            @Override
+            public FakeView create(ControlInfo.ControlType type) {
+                final FakeView view = new FakeView(type);
+                mCreated.add(view);
+                return view;
+            }
+
+            @Override
+            public void bind(FakeView view, ControlInfo c, ControlInfo previous) {
+                assertEquals(c.type, view.type);
+                view.control = c;
+                view.previous = previous;
+            }
+
+            @Override
+            public void attach(FakeView view, ControlInfo c) {
+                view.attached = true;
+            }
+
+            @Override
+            public void detach(FakeView view) {
+                assertTrue(view.attached);
+                view.attached = false;
+            }
+        });
+    }
+
+    private static ControlInfo[] controls(ControlInfo.ControlType... types) {
+        final ControlInfo[] controls = new ControlInfo[types.length];
+        for (int i = 0; i < types.length; ++i) {
+            final ControlInfo c = new ControlInfo();
+            c.type = types[i];
+            c.index = i;
+            c.text = "control " + i;
+            c.cell = new GridCell(0, i, 1, 1);
+            controls[i] = c;
+        }
+        return controls;
+    }
+
+    @Test
+    public void createsViewsOfFirstLayout() {
+        final ControlInfo[] controls = controls(LABEL, SWITCH);
+        mViews.build(controls);
+
+        assertEquals(2, mViews.getCreatedCount());
+        assertEquals(0, mViews.getReusedCount());
+        assertSame(controls[1], mViews.get(1).control);
+        assertNull(mViews.get(1).previous);
+        assertTrue(mViews.get(0).attached);
+        assertNull(mViews.get(2));
+        assertNull(mViews.get(-1));
+    }
+
+    @Test
+    public void keepsViewOfSameTypeAtIndex() {
+        final ControlInfo[] first = controls(LABEL, SWITCH);
+        mViews.build(first);
+        final FakeView label = mViews.get(0);
+        final FakeView toggle = mViews.get(1);
+
+        final ControlInfo[] second = controls(LABEL, SWITCH);
+        mViews.build(second);
+        assertSame(label, mViews.get(0));
+        assertSame(toggle, mViews.get(1));
+        // bind() sees what the view showed, to apply changes only
+        assertSame(first[1], toggle.previous);
+        assertEquals(2, mViews.getReusedCount());
+        assertEquals(0, mViews.getCreatedCount());
+    }
+
+    @Test
+    public void reusesPooledViewAsNew() {
+        mViews.build(controls(SWITCH, LABEL));
+        final FakeView toggle = mViews.get(0);
+
+        // the switch moves to index 1, its old view comes from the pool
+        mViews.build(controls(LABEL, SWITCH));
+        assertSame(toggle, mViews.get(1));
+        assertTrue(toggle.attached);
+        // not the control it showed, so everything is applied again
+        assertNull(toggle.previous);
+        // the label at index 0 is built before the old label is pooled
+        assertEquals(1, mViews.getReusedCount());
+        assertEquals(1, mViews.getCreatedCount());
+        assertEquals(1, mViews.getPooledCount(LABEL));
+    }
+
+    @Test
+    public void poolsViewsOfRemovedControls() {
+        mViews.build(controls(SLIDER, SLIDER, LABEL));
+        final FakeView slider = mViews.get(1);
+
+        mViews.build(controls(SLIDER));
+        assertFalse(slider.attached);
+        assertNull(mViews.get(2));
+        assertEquals(1, mViews.getPooledCount(SLIDER));
+        assertEquals(1, mViews.getPooledCount(LABEL));
+
+        mViews.build(controls(SLIDER, SLIDER, SWITCH));
+        assertSame(slider, mViews.get(1));
+        assertEquals(0, mViews.getPooledCount(SLIDER));
+        assertEquals(1, mViews.getCreatedCount());
+        assertEquals(SWITCH, mCreated.get(mCreated.size() - 1).type);
+    }
+
+    @Test
+    public void clearPoolsAllViews() {
+        mViews.build(controls(LABEL, SWITCH));
+        final FakeView label = mViews.get(0);
+        mViews.clear();
+        assertNull(mViews.get(0));
+        assertFalse(label.attached);
+        assertEquals(1, mViews.getPooledCount(LABEL));
+
+        mViews.build(controls(LABEL));
+        assertSame(label, mViews.get(0));
+        assertNull(label.previous);
+    }
+}
@@ -0,0 +1,69 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.GattLink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Records every {@link GattLink} call so tests can assert on the issued operations.
+ */
+class FakeGattLink implements GattLink {
+    final List<String> calls = new ArrayList<>();
+    boolean mtuSupported = true;
+    boolean prioritySupported = true;
+    boolean discoverSupported = true;
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        calls.add("mtu " + mtu);
+        return mtuSupported;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        calls.add("priority " + priority);
+        return prioritySupported;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        calls.add("discover");
+        return discoverSupported;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        calls.add("read " + characteristic);
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withoutResponse) {
+        calls.add("write " + characteristic);
+        return true;
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        calls.add("notify " + characteristic + " " + enable);
+        return true;
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID service, UUID characteristic) {
+        return true;
+    }
+
+    @Override
+    public int getProperties(UUID service, UUID characteristic) {
+        return PROPERTY_READ | PROPERTY_WRITE;
+    }
+
+    @Override
+    public boolean refreshServices() {
+        calls.add("refresh");
+        return true;
+    }
+}
@@ -0,0 +1,156 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.RemoteProtocol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Store, load and eviction of cached layouts.
+ */
+public class LayoutCacheTest {
+    private static final String A = "00:11:22:33:44:AA";
+    private static final String B = "00:11:22:33:44:BB";
+    private static final String C = "00:11:22:33:44:CC";
+    private static final int VERSION = RemoteProtocol.PROTOCOL_VERSION_BATCH;
+
+    private File mRoot;
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = Files.createTempDirectory("layouts").toFile();
+        mDir = new File(mRoot, "layouts");
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mDir.delete();
+        mRoot.delete();
+    }
+
+    // the rcLayout header carries the protocol version in its second byte
+    private static Map<UUID, byte[]> values(int version, int tag) {
+        final Map<UUID, byte[]> values = new HashMap<>();
+        values.put(RemoteProtocol.rcLayout, new byte[]{1, (byte) version, (byte) tag});
+        return values;
+    }
+
+    private File file(String address, int version) {
+        return new File(mDir, address.replace(":", "") + "-v" + String.valueOf(version) + ".layout");
+    }
+
+    @Test
+    public void loadsStoredLayout() {
+        final LayoutCache cache = new LayoutCache(mDir, 4);
+        assertNull(cache.load(A));
+
+        final Map<UUID, byte[]> values = values(VERSION, 7);
+        cache.store(A, VERSION, values);
+        final LayoutCache.Entry entry = cache.load(A);
+        assertNotNull(entry);
+        assertEquals(VERSION, entry.protocolVersion);
+        assertArrayEquals(values.get(RemoteProtocol.rcLayout), entry.values.get(RemoteProtocol.rcLayout));
+        assertEquals(LayoutCache.digest(values), entry.digest);
+
+        // a new layout replaces the old one
+        cache.store(A, RemoteProtocol.PROTOCOL_VERSION, values(RemoteProtocol.PROTOCOL_VERSION, 8));
+        assertFalse(file(A, VERSION).exists());
+        assertEquals(RemoteProtocol.PROTOCOL_VERSION, cache.load(A).protocolVersion);
+
+        cache.remove(A);
+        assertNull(cache.load(A));
+    }
+
+    @Test
+    public void keepsLargeLayoutBlob() {
+        final LayoutCache cache = new LayoutCache(mDir, 4);
+        // a few hundred named controls
+        final byte[] blob = new byte[20000];
+        for (int i = 0; i < blob.length; ++i) {
+            blob[i] = (byte) i;
+        }
+        blob[1] = (byte) VERSION;
+        final Map<UUID, byte[]> values = new HashMap<>();
+        values.put(RemoteProtocol.rcLayout, blob);
+        cache.store(A, VERSION, values);
+
+        final LayoutCache.Entry entry = cache.load(A);
+        assertNotNull(entry);
+        assertArrayEquals(blob, entry.values.get(RemoteProtocol.rcLayout));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final LayoutCache cache = new LayoutCache(mDir, 2);
+        cache.store(A, VERSION, values(VERSION, 1));
+        cache.store(B, VERSION, values(VERSION, 2));
+        assertNotNull(cache.load(A));
+        cache.store(C, VERSION, values(VERSION, 3));
+
+        assertNull(cache.load(B));
+        assertNotNull(cache.load(A));
+        assertNotNull(cache.load(C));
+    }
+
+    @Test
+    public void keepsRecencyAcrossInstances() {
+        LayoutCache cache = new LayoutCache(mDir, 2);
+        cache.store(A, VERSION, values(VERSION, 1));
+        cache.store(B, VERSION, values(VERSION, 2));
+        assertNotNull(cache.load(A));
+
+        // a restarted app still knows B was used last
+        cache = new LayoutCache(mDir, 2);
+        cache.store(C, VERSION, values(VERSION, 3));
+        assertFalse(file(B, VERSION).exists());
+        assertTrue(file(A, VERSION).exists());
+        assertTrue(file(C, VERSION).exists());
+    }
+
+    @Test
+    public void dropsCorruptedEntry() throws Exception {
+        final LayoutCache cache = new LayoutCache(mDir, 4);
+        cache.store(A, VERSION, values(VERSION, 1));
+        final File file = file(A, VERSION);
+        final RandomAccessFile f = new RandomAccessFile(file, "rw");
+        try {
+            f.setLength(f.length() - 3);
+        } finally {
+            f.close();
+        }
+
+        assertNull(cache.load(A));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void dropsEntryOfOtherProtocolVersion() {
+        final LayoutCache cache = new LayoutCache(mDir, 4);
+        // too old for this app
+        cache.store(A, 2, values(2, 1));
+        assertNull(cache.load(A));
+        assertFalse(file(A, 2).exists());
+
+        // stored under a version the layout does not report
+        cache.store(B, VERSION, values(RemoteProtocol.PROTOCOL_VERSION, 1));
+        assertNull(cache.load(B));
+        assertFalse(file(B, VERSION).exists());
+    }
+}
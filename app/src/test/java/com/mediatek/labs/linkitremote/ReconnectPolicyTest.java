@@ -0,0 +1,75 @@
+package com.mediatek.labs.linkitremote;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backoff, connect mode and statistics of the reconnect policy.
+ */
+public class ReconnectPolicyTest {
+
+    @Test
+    public void delays_stayWithinExponentialCeiling() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy(new Random(1));
+
+        long ceiling = ReconnectPolicy.BASE_DELAY_MS;
+        for (int i = 0; i < 12; ++i) {
+            final long delay = policy.onLinkLost(0);
+            assertTrue(delay >= 0);
+            assertTrue(delay <= ceiling);
+            ceiling = Math.min(ReconnectPolicy.MAX_DELAY_MS, ceiling * 2);
+        }
+    }
+
+    @Test
+    public void delays_areJittered() throws Exception {
+        ReconnectPolicy a = new ReconnectPolicy(new Random(1));
+        ReconnectPolicy b = new ReconnectPolicy(new Random(2));
+
+        boolean differ = false;
+        for (int i = 0; i < 5; ++i) {
+            differ |= a.onLinkLost(0) != b.onLinkLost(0);
+        }
+        assertTrue(differ);
+    }
+
+    @Test
+    public void directConnectFirst_thenAutoConnect() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy(new Random(1));
+
+        for (int i = 0; i < ReconnectPolicy.DIRECT_ATTEMPTS; ++i) {
+            policy.onLinkLost(0);
+            assertFalse(policy.useAutoConnect());
+        }
+        policy.onLinkLost(0);
+        assertTrue(policy.useAutoConnect());
+    }
+
+    @Test
+    public void ready_recordsTimeSinceFirstLoss() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy(new Random(1));
+
+        policy.onLinkLost(1000);
+        policy.onLinkLost(1500);
+        assertTrue(policy.isReconnecting());
+        policy.onReady(2200);
+
+        assertFalse(policy.isReconnecting());
+        assertEquals(0, policy.getAttempt());
+        assertEquals(1, policy.getReconnectCount());
+        assertEquals(2, policy.getAttemptCount());
+        assertEquals(1200, policy.getReconnectTimes().getMax());
+    }
+
+    @Test
+    public void firstConnect_isNotAReconnect() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy(new Random(1));
+
+        policy.onReady(500);
+        assertEquals(0, policy.getReconnectCount());
+        assertEquals(0, policy.getReconnectTimes().getCount());
+    }
+}
@@ -0,0 +1,171 @@
+package com.mediatek.labs.linkitremote;
+
+import android.bluetooth.le.ScanSettings;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scan phases, early stop and statistics of the scan scheduler.
+ */
+public class ScanSchedulerTest {
+
+    private static class FakeScanner implements ScanScheduler.Scanner {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void startScan(int scanMode, long reportDelayMs) {
+            calls.add("start " + scanMode + " " + reportDelayMs);
+        }
+
+        @Override
+        public void stopScan() {
+            calls.add("stop");
+        }
+    }
+
+    private static final String LOW_LATENCY = "start " + ScanSettings.SCAN_MODE_LOW_LATENCY + " 0";
+    private static final Set<String> NONE = Collections.emptySet();
+    private static final String BALANCED = "start " + ScanSettings.SCAN_MODE_BALANCED + " 0";
+
+    // run the scan until it finishes, returns the time it did
+    private static long finish(ScanScheduler scheduler, long now, long delay) {
+        while (delay >= 0) {
+            now += delay;
+            delay = scheduler.onTick(now);
+        }
+        return now;
+    }
+
+    @Test
+    public void phases_stepDownToLowPower() throws Exception {
+        FakeScanner scanner = new FakeScanner();
+        ScanScheduler scheduler = new ScanScheduler(scanner, false, new ScanScheduler.StartLog());
+
+        long now = 0;
+        long delay = scheduler.start(now, NONE);
+        while (delay >= 0) {
+            now += delay;
+            delay = scheduler.onTick(now);
+        }
+
+        assertEquals(Arrays.asList(LOW_LATENCY,
+                "stop", "start " + ScanSettings.SCAN_MODE_BALANCED + " 0",
+                "stop", "start " + ScanSettings.SCAN_MODE_LOW_POWER + " 0",
+                "stop"), scanner.calls);
+        assertEquals(Constants.SCAN_PERIOD_MS, now);
+        assertFalse(scheduler.isScanning());
+
+        // 2 s at 100%, 3 s at 25%, 5 s at 10%
+        assertEquals(2000 + 750 + 500, scheduler.getRadioOnTimeMs());
+        assertEquals(-1, scheduler.getTimeToFirstDeviceMs());
+    }
+
+    @Test
+    public void batching_onlyAfterBurst() throws Exception {
+        FakeScanner scanner = new FakeScanner();
+        ScanScheduler scheduler = new ScanScheduler(scanner, true, new ScanScheduler.StartLog());
+
+        scheduler.start(0, NONE);
+        scheduler.onTick(ScanScheduler.PHASE_END_MS[0]);
+
+        assertEquals(Arrays.asList(LOW_LATENCY, "stop",
+                "start " + ScanSettings.SCAN_MODE_BALANCED + " " + ScanScheduler.REPORT_DELAY_MS), scanner.calls);
+    }
+
+    @Test
+    public void knownDevice_stopsEarly() throws Exception {
+        FakeScanner scanner = new FakeScanner();
+        ScanScheduler scheduler = new ScanScheduler(scanner, false, new ScanScheduler.StartLog());
+
+        scheduler.start(1000, Collections.singleton("B"));
+        assertFalse(scheduler.onResult("A", 1300));
+        assertTrue(scheduler.onResult("B", 1800));
+
+        assertFalse(scheduler.isScanning());
+        assertTrue(scheduler.isStoppedEarly());
+        assertEquals(300, scheduler.getTimeToFirstDeviceMs());
+        assertEquals(800, scheduler.getRadioOnTimeMs());
+        assertEquals(Arrays.asList(LOW_LATENCY, "stop"), scanner.calls);
+        assertEquals(-1, scheduler.onTick(5000));
+    }
+
+    @Test
+    public void startLimit_skipsPhaseChanges() throws Exception {
+        FakeScanner scanner = new FakeScanner();
+        ScanScheduler.StartLog starts = new ScanScheduler.StartLog();
+        ScanScheduler scheduler = new ScanScheduler(scanner, false, starts);
+        assertEquals(Constants.SCAN_PERIOD_MS, finish(scheduler, 0, scheduler.start(0, NONE)));
+        assertEquals(3, starts.getCount(Constants.SCAN_PERIOD_MS));
+
+        // a refresh right after: the burst, then it stays in low latency
+        scanner.calls.clear();
+        long now = Constants.SCAN_PERIOD_MS;
+        assertEquals(now + Constants.SCAN_PERIOD_MS, finish(scheduler, now, scheduler.start(now, NONE)));
+        assertEquals(Arrays.asList(LOW_LATENCY, "stop"), scanner.calls);
+        // one start is left for the user
+        assertEquals(ScanScheduler.MAX_STARTS - ScanScheduler.RESERVED_STARTS, starts.getCount(now + 1));
+
+        // once the first scan's starts age out, phases change again
+        scanner.calls.clear();
+        now = ScanScheduler.START_WINDOW_MS;
+        finish(scheduler, now, scheduler.start(now, NONE));
+        assertEquals(Arrays.asList(LOW_LATENCY, "stop", BALANCED,
+                "stop", "start " + ScanSettings.SCAN_MODE_LOW_POWER + " 0", "stop"), scanner.calls);
+    }
+
+    @Test
+    public void startLimit_delaysNewScan() throws Exception {
+        FakeScanner scanner = new FakeScanner();
+        ScanScheduler scheduler = new ScanScheduler(scanner, false, new ScanScheduler.StartLog());
+        // scans ended by a known board right away
+        for (int i = 0; i < ScanScheduler.MAX_STARTS; ++i) {
+            scheduler.start(i * 1000, Collections.singleton("B"));
+            assertTrue(scheduler.onResult("B", i * 1000 + 500));
+        }
+        scanner.calls.clear();
+
+        // the sixth start within 30 s would be dropped by the platform
+        assertEquals(ScanScheduler.START_WINDOW_MS - 5000, scheduler.start(5000, NONE));
+        assertTrue(scheduler.isScanning());
+        assertTrue(scanner.calls.isEmpty());
+        assertFalse(scheduler.onResult("A", 6000));
+
+        assertEquals(ScanScheduler.PHASE_END_MS[0], scheduler.onTick(ScanScheduler.START_WINDOW_MS));
+        assertEquals(Arrays.asList(LOW_LATENCY), scanner.calls);
+        assertEquals(500, scheduler.onTick(ScanScheduler.START_WINDOW_MS + 1500));
+    }
+
+    @Test
+    public void startLimit_refreshKeepsRunningScan() throws Exception {
+        FakeScanner scanner = new FakeScanner();
+        ScanScheduler scheduler = new ScanScheduler(scanner, false, new ScanScheduler.StartLog());
+        // a scan stopped early, then one refreshed twice while it scans
+        scheduler.start(0, Collections.singleton("B"));
+        assertTrue(scheduler.onResult("B", 500));
+        scheduler.start(1000, NONE);
+        scheduler.onTick(3000);
+        scheduler.start(4000, NONE);
+        scheduler.start(5000, NONE);
+        assertEquals(ScanScheduler.MAX_STARTS, Collections.frequency(scanner.calls, LOW_LATENCY)
+                + Collections.frequency(scanner.calls, BALANCED));
+
+        // no start left, the low latency scan goes on and its phases start over
+        scanner.calls.clear();
+        assertEquals(ScanScheduler.PHASE_END_MS[0], scheduler.start(6000, Collections.singleton("B")));
+        assertTrue(scanner.calls.isEmpty());
+        assertTrue(scheduler.isScanning());
+        assertEquals(1000, scheduler.onTick(7000));
+        // the known devices of the refresh apply
+        assertTrue(scheduler.onResult("B", 7500));
+        assertEquals(Arrays.asList("stop"), scanner.calls);
+        assertEquals(1500, scheduler.getRadioOnTimeMs());
+    }
+}
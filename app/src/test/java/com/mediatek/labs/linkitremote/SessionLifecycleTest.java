@@ -0,0 +1,53 @@
+package com.mediatek.labs.linkitremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Deadlines and per state times of the session lifecycle.
+ */
+public class SessionLifecycleTest {
+
+    @Test
+    public void timeInState_isRecordedOnTransition() throws Exception {
+        SessionLifecycle lifecycle = new SessionLifecycle();
+
+        lifecycle.moveTo(SessionLifecycle.State.connecting, 0);
+        lifecycle.moveTo(SessionLifecycle.State.discovering, 400);
+        lifecycle.moveTo(SessionLifecycle.State.reading, 700);
+        lifecycle.moveTo(SessionLifecycle.State.ready, 1500);
+
+        assertEquals(SessionLifecycle.State.ready, lifecycle.getState());
+        assertEquals(400, lifecycle.getTimeIn(SessionLifecycle.State.connecting).getMax());
+        assertEquals(300, lifecycle.getTimeIn(SessionLifecycle.State.discovering).getMax());
+        assertEquals(1, lifecycle.getTimeIn(SessionLifecycle.State.reading).getCount());
+        assertEquals(0, lifecycle.getTimeIn(SessionLifecycle.State.ready).getCount());
+    }
+
+    @Test
+    public void deadline_restartsOnProgress() throws Exception {
+        SessionLifecycle lifecycle = new SessionLifecycle();
+        final long timeout = SessionLifecycle.READ_TIMEOUT_MS;
+
+        lifecycle.moveTo(SessionLifecycle.State.reading, 0);
+        assertFalse(lifecycle.isOverdue(timeout));
+        lifecycle.onProgress(timeout);
+        assertFalse(lifecycle.isOverdue(timeout + timeout / 2));
+        assertTrue(lifecycle.isOverdue(2 * timeout + 1));
+    }
+
+    @Test
+    public void noDeadline_whenReadyOrWaitingForAutoConnect() throws Exception {
+        SessionLifecycle lifecycle = new SessionLifecycle();
+
+        lifecycle.moveTo(SessionLifecycle.State.connecting, 0, 0);
+        assertFalse(lifecycle.isOverdue(Long.MAX_VALUE / 2));
+
+        lifecycle.moveTo(SessionLifecycle.State.discovering, 10);
+        assertTrue(lifecycle.isOverdue(10 + SessionLifecycle.DISCOVERY_TIMEOUT_MS + 1));
+
+        lifecycle.moveTo(SessionLifecycle.State.ready, 20);
+        assertFalse(lifecycle.isOverdue(Long.MAX_VALUE / 2));
+    }
+}
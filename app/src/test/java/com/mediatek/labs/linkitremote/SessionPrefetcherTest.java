@@ -0,0 +1,51 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.ScanStore;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Choice of devices to prefetch.
+ */
+public class SessionPrefetcherTest {
+
+    private static ScanStore<String> store() {
+        ScanStore<String> store = new ScanStore<>(1, 10000);
+        store.update("A", null, -85, null, 0);
+        store.update("B", null, -60, null, 0);
+        store.update("C", null, -70, null, 0);
+        store.update("D", null, -50, null, 0);
+        return store;
+    }
+
+    private static String addresses(List<ScanStore.Entry<String>> entries) {
+        StringBuilder b = new StringBuilder();
+        for (ScanStore.Entry<String> e : entries) {
+            b.append(e.address);
+        }
+        return b.toString();
+    }
+
+    @Test
+    public void recentDevices_comeFirst() throws Exception {
+        List<String> recent = Arrays.asList("X", "A", "C");
+
+        assertEquals("AC", addresses(SessionPrefetcher.choose(store(), recent, 2, -80)));
+        assertEquals("ACD", addresses(SessionPrefetcher.choose(store(), recent, 3, -80)));
+    }
+
+    @Test
+    public void otherwise_strongestAboveThreshold() throws Exception {
+        List<String> recent = Collections.emptyList();
+
+        assertEquals("DB", addresses(SessionPrefetcher.choose(store(), recent, 2, -80)));
+        assertEquals("DBC", addresses(SessionPrefetcher.choose(store(), recent, 5, -80)));
+        assertEquals("", addresses(SessionPrefetcher.choose(store(), recent, 0, -80)));
+    }
+}
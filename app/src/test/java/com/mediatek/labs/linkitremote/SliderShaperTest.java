@@ -0,0 +1,70 @@
+package com.mediatek.labs.linkitremote;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per-slider rate shaping with trailing edge delivery.
+ */
+public class SliderShaperTest {
+
+    @Test
+    public void holdsWithinInterval_sendsNewestOnTrailingEdge() throws Exception {
+        SliderShaper shaper = new SliderShaper();
+        shaper.setLinkTiming(0, 50);
+
+        assertTrue(shaper.offer(1, 10, 1000));
+        assertFalse(shaper.offer(1, 11, 1010));
+        assertFalse(shaper.offer(1, 12, 1020));
+        assertEquals(1050, shaper.getNextDue());
+        assertEquals(-1, shaper.pollDue(1049));
+
+        assertEquals(1, shaper.pollDue(1050));
+        assertEquals(12, shaper.getSentValue(1));
+        assertEquals(-1, shaper.getNextDue());
+    }
+
+    @Test
+    public void slidersDoNotStarveEachOther() throws Exception {
+        SliderShaper shaper = new SliderShaper();
+        shaper.setLinkTiming(0, 50);
+
+        assertTrue(shaper.offer(1, 10, 1000));
+        assertTrue(shaper.offer(2, 20, 1001));
+        assertFalse(shaper.offer(1, 11, 1002));
+        assertFalse(shaper.offer(2, 21, 1003));
+
+        assertEquals(1, shaper.pollDue(1050));
+        assertEquals(-1, shaper.pollDue(1050));
+        assertEquals(2, shaper.pollDue(1051));
+    }
+
+    @Test
+    public void skipsUnchangedValues() throws Exception {
+        SliderShaper shaper = new SliderShaper();
+        shaper.setLinkTiming(0, 50);
+
+        assertTrue(shaper.offer(1, 10, 1000));
+        assertFalse(shaper.offer(1, 10, 2000));
+        assertTrue(shaper.offer(1, 11, 2010));
+        assertFalse(shaper.offer(1, 12, 2020));
+        assertFalse(shaper.offer(1, 11, 2030));     // back where the board is
+        assertEquals(-1, shaper.getNextDue());
+        assertFalse(shaper.finish(1, 11, 2040));
+        assertTrue(shaper.finish(1, 13, 2050));
+    }
+
+    @Test
+    public void intervalFollowsLink() throws Exception {
+        SliderShaper shaper = new SliderShaper();
+        shaper.setLinkTiming(0, 0);
+        assertEquals(SliderShaper.MIN_INTERVAL_MS, shaper.getInterval());
+        shaper.setLinkTiming(50, 20);
+        assertEquals(50, shaper.getInterval());
+        shaper.setLinkTiming(15, 80);
+        assertEquals(80, shaper.getInterval());
+        shaper.setLinkTiming(125, 1000);
+        assertEquals(SliderShaper.MAX_INTERVAL_MS, shaper.getInterval());
+    }
+}
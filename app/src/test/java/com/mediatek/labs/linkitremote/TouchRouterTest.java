@@ -0,0 +1,114 @@
+package com.mediatek.labs.linkitremote;
+
+import com.mediatek.labs.linkitremote.protocol.GridCell;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pointer routing to grid buttons.
+ */
+public class TouchRouterTest {
+
+    private final List<String> mEdges = new ArrayList<>();
+    private int mDone;
+    private TouchRouter mRouter;
+
+    // 2 x 2 grid of 100 px cells, a button in each top cell, a wide round one below
+    @Before
+    public void setUp() {
+        mRouter = new TouchRouter();
+        mRouter.setListener(new TouchRouter.Listener() {
+            @Override
+            public void onButton(int index, boolean down, long eventTime) {
+                mEdges.add(index + (down ? " down" : " up"));
+            }
+
+            @Override
+            public void onTouchDone() {
+                mDone += 1;
+            }
+        });
+        mRouter.setGrid(2, 2, 0, 0, 100, 100);
+        mRouter.addButton(0, new GridCell(0, 0, 1, 1), 8, 8, 92, 92, false);
+        mRouter.addButton(1, new GridCell(1, 0, 1, 1), 108, 8, 192, 92, false);
+        mRouter.addButton(2, new GridCell(0, 1, 2, 1), 58, 108, 142, 192, true);
+    }
+
+    @Test
+    public void hitTest() throws Exception {
+        assertEquals(0, mRouter.hitTest(50, 50));
+        assertEquals(1, mRouter.hitTest(150, 50));
+        assertEquals(-1, mRouter.hitTest(95, 50));      // cell padding
+        assertEquals(2, mRouter.hitTest(100, 150));
+        assertEquals(-1, mRouter.hitTest(60, 110));     // frame corner, outside the circle
+        assertEquals(-1, mRouter.hitTest(250, 50));
+        assertEquals(-1, mRouter.hitTest(-1, 50));
+    }
+
+    @Test
+    public void chord_eachButtonOnce() throws Exception {
+        mRouter.down(0, 50, 50, 0);
+        mRouter.down(1, 150, 50, 0);
+        mRouter.endEvent();
+        mRouter.down(2, 60, 60, 1);        // second finger on button 0
+        mRouter.endEvent();
+        mRouter.up(0, 2);
+        mRouter.endEvent();
+        mRouter.up(2, 3);
+        mRouter.up(1, 3);
+        mRouter.endEvent();
+
+        assertEquals("[0 down, 1 down, 0 up, 1 up]", mEdges.toString());
+        assertEquals(2, mDone);
+    }
+
+    @Test
+    public void slide_movesPress() throws Exception {
+        mRouter.down(0, 50, 50, 0);
+        mRouter.move(0, 95, 50, 1);
+        mRouter.move(0, 150, 50, 2);
+        mRouter.up(0, 3);
+
+        assertEquals("[0 down, 0 up, 1 down, 1 up]", mEdges.toString());
+        assertFalse(mRouter.isTracking());
+    }
+
+    @Test
+    public void cancel_releasesAll() throws Exception {
+        mRouter.down(0, 50, 50, 0);
+        mRouter.down(3, 100, 150, 0);
+        assertTrue(mRouter.isDown(2));
+        mRouter.cancel(1);
+
+        assertEquals("[0 down, 2 down, 0 up, 2 up]", mEdges.toString());
+        assertFalse(mRouter.isDown(0));
+        assertFalse(mRouter.isTracking());
+    }
+
+    @Test
+    public void slide_onlyFromButtons() throws Exception {
+        // e.g. a slider thumb dragged across button cells
+        mRouter.down(0, 95, 50, 0);
+        mRouter.move(0, 50, 50, 1);
+        mRouter.move(0, 150, 50, 2);
+        mRouter.move(0, 100, 150, 3);
+        mRouter.endEvent();
+        assertFalse(mRouter.isTracking());
+        mRouter.up(0, 4);
+        mRouter.endEvent();
+
+        assertTrue(mEdges.isEmpty());
+        assertEquals(0, mDone);
+
+        // the same pointer id pressing a button next time slides again
+        mRouter.down(0, 50, 50, 5);
+        mRouter.move(0, 150, 50, 6);
+        assertEquals("[0 down, 0 up, 1 down]", mEdges.toString());
+    }
+}
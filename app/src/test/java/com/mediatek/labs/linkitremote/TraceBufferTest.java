@@ -0,0 +1,53 @@
+package com.mediatek.labs.linkitremote;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ring behavior and CSV export of the trace buffer.
+ */
+public class TraceBufferTest {
+
+    private static final String[] NAMES = {"a", "b"};
+
+    @Test
+    public void writeCsv_oldestFirst() throws Exception {
+        TraceBuffer buffer = new TraceBuffer(4);
+        buffer.add(10, 0, 7);
+        buffer.add(20, 1, 8);
+        buffer.add(30, 5, 9);
+
+        StringWriter out = new StringWriter();
+        buffer.writeCsv(out, NAMES);
+        assertEquals("time_ns,event,arg\n10,a,7\n20,b,8\n30,5,9\n", out.toString());
+    }
+
+    @Test
+    public void full_overwritesOldest() throws Exception {
+        TraceBuffer buffer = new TraceBuffer(3);     // rounded up to 4
+        for (int i = 0; i < 6; ++i) {
+            buffer.add(i, 0, i);
+        }
+
+        assertEquals(4, buffer.size());
+        assertEquals(6, buffer.getTotalCount());
+        StringWriter out = new StringWriter();
+        buffer.writeCsv(out, NAMES);
+        assertEquals("time_ns,event,arg\n2,a,2\n3,a,3\n4,a,4\n5,a,5\n", out.toString());
+    }
+
+    @Test
+    public void reset_empties() throws Exception {
+        TraceBuffer buffer = new TraceBuffer(4);
+        buffer.add(1, 0, 0);
+        buffer.reset();
+
+        assertEquals(0, buffer.size());
+        StringWriter out = new StringWriter();
+        buffer.writeCsv(out, NAMES);
+        assertEquals("time_ns,event,arg\n", out.toString());
+    }
+}
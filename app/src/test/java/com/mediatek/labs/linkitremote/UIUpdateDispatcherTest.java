@@ -0,0 +1,117 @@
+package com.mediatek.labs.linkitremote;
+
+import android.view.Choreographer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Coalescing of label updates into display frames.
+ */
+public class UIUpdateDispatcherTest {
+    private final List<String> mApplied = new ArrayList<>();
+    private int mLabels;
+    private Choreographer.FrameCallback mPending;
+    private int mPosts;
+    private UIUpdateDispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mApplied.clear();
+        mLabels = 256;
+        mPending = null;
+        mPosts = 0;
+        mDispatcher = new UIUpdateDispatcher(new UIUpdateDispatcher.Target() {
+            @Override
+            public boolean applyLabel(int index, String text) {
+                if (index >= mLabels) {
+                    return false;
+                }
+                mApplied.add(String.valueOf(index) + "=" + text);
+                return true;
+            }
+        }, new UIUpdateDispatcher.FrameSource() {
+            @Override
+            public void postFrameCallback(Choreographer.FrameCallback callback) {
+                mPending = callback;
+                mPosts += 1;
+            }
+
+            @Override
+            public void removeFrameCallback(Choreographer.FrameCallback callback) {
+                if (mPending == callback) {
+                    mPending = null;
+                }
+            }
+        });
+    }
+
+    private void frame() {
+        final Choreographer.FrameCallback callback = mPending;
+        mPending = null;
+        callback.doFrame(0);
+    }
+
+    @Test
+    public void appliesNewestTextOncePerFrame() {
+        mDispatcher.post(1, "a");
+        mDispatcher.post(2, "x");
+        mDispatcher.post(1, "b");
+        mDispatcher.post(1, "c");
+        // one frame callback for the burst
+        assertEquals(1, mPosts);
+
+        frame();
+        assertEquals(2, mApplied.size());
+        assertEquals("1=c", mApplied.get(0));
+        assertEquals("2=x", mApplied.get(1));
+        assertEquals(4, mDispatcher.getPostedCount());
+        assertEquals(2, mDispatcher.getMergedCount());
+        assertEquals(2, mDispatcher.getAppliedCount());
+        assertEquals(1, mDispatcher.getFrameCount());
+    }
+
+    @Test
+    public void schedulesNextFrameAfterApplying() {
+        mDispatcher.post(1, "a");
+        frame();
+        assertNull(mPending);
+
+        // the same index again is not a merge, the first text was applied
+        mDispatcher.post(1, "b");
+        assertEquals(2, mPosts);
+        frame();
+        assertEquals("1=b", mApplied.get(1));
+        assertEquals(0, mDispatcher.getMergedCount());
+    }
+
+    @Test
+    public void countsUpdatesWithoutLabel() {
+        mLabels = 2;
+        mDispatcher.post(1, "a");
+        mDispatcher.post(7, "b");
+        frame();
+        assertEquals(1, mDispatcher.getAppliedCount());
+        assertEquals(1, mDispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void clearDropsPendingUpdates() {
+        mDispatcher.post(1, "a");
+        mDispatcher.post(2, "b");
+        mDispatcher.clear();
+        assertNull(mPending);
+        assertEquals(2, mDispatcher.getDroppedCount());
+
+        mDispatcher.post(3, "c");
+        assertEquals(2, mPosts);
+        frame();
+        assertEquals(1, mApplied.size());
+        assertEquals("3=c", mApplied.get(0));
+    }
+}
@@ -0,0 +1,38 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the layout characteristics into a DeviceInfo, as done once per connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeviceInfoParserBenchmark {
+
+    @Param({"8", "32", "128", "255"})
+    public int controls;
+
+    private Map<UUID, byte[]> mValues;
+
+    @Setup
+    public void setup() {
+        mValues = LayoutFixture.values(controls);
+    }
+
+    @Benchmark
+    public DeviceInfo parse() {
+        return DeviceInfoParser.parse(mValues, "no name");
+    }
+}
@@ -0,0 +1,60 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding one event per control into rcEventArray values, one frame per write
+ * as for protocol v3 boards, and packed per MTU for batching boards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventEncodeBenchmark {
+
+    @Param({"8", "32", "128", "255"})
+    public int controls;
+
+    @Param({"23", "247"})
+    public int mtu;
+
+    private EventPacker mSingle;
+    private EventPacker mBatch;
+    private byte mSequence;
+
+    @Setup
+    public void setup() {
+        mSingle = new EventPacker(1);
+        mBatch = new EventPacker(EventPacker.capacityForMtu(mtu));
+    }
+
+    @Benchmark
+    public void single(Blackhole bh) {
+        for (int i = 0; i < controls; ++i) {
+            mSingle.add(mSequence++, i, ControlEvent.valueChange, i * 3);
+            bh.consume(mSingle.pack());
+        }
+    }
+
+    @Benchmark
+    public void batched(Blackhole bh) {
+        for (int i = 0; i < controls; ++i) {
+            mBatch.add(mSequence++, i, ControlEvent.valueChange, i * 3);
+            if (mBatch.isFull()) {
+                bh.consume(mBatch.pack());
+            }
+        }
+        if (mBatch.getCount() > 0) {
+            bh.consume(mBatch.pack());
+        }
+    }
+}
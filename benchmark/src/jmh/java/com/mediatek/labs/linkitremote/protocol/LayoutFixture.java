@@ -0,0 +1,66 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Characteristic values of a synthetic board layout, as read over GATT.
+ */
+class LayoutFixture {
+
+    static Map<UUID, byte[]> values(int controlCount) {
+        final int col = 8;
+        final int row = (controlCount + col - 1) / col;
+
+        final byte[] types = new byte[controlCount];
+        final byte[] colors = new byte[controlCount];
+        final byte[] frames = new byte[controlCount * 4];
+        final ByteBuffer config = ByteBuffer.allocate(controlCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+        final StringBuilder names = new StringBuilder();
+
+        for (int i = 0; i < controlCount; ++i) {
+            types[i] = (byte) (1 + i % 5);
+            colors[i] = (byte) (1 + i % 6);
+            frames[i * 4] = (byte) (i % col);
+            frames[i * 4 + 1] = (byte) (i / col);
+            frames[i * 4 + 2] = 1;
+            frames[i * 4 + 3] = 1;
+            config.putShort((short) 0).putShort((short) 100).putShort((short) 50).putShort((short) 0);
+            if (i > 0) {
+                names.append('\n');
+            }
+            names.append("Control ").append(i);
+        }
+
+        Map<UUID, byte[]> values = new HashMap<>();
+        values.put(RemoteProtocol.rcProtocolVersion, int32(RemoteProtocol.PROTOCOL_VERSION));
+        values.put(RemoteProtocol.rcRow, int32(row));
+        values.put(RemoteProtocol.rcCol, int32(col));
+        values.put(RemoteProtocol.rcOrientation, int32(0));
+        values.put(RemoteProtocol.rcControlCount, int32(controlCount));
+        values.put(RemoteProtocol.rcControlTypes, types);
+        values.put(RemoteProtocol.rcColors, colors);
+        values.put(RemoteProtocol.rcFrames, frames);
+        values.put(RemoteProtocol.rcConfigDataArray, config.array());
+        values.put(RemoteProtocol.rcNames, names.toString().getBytes(StandardCharsets.UTF_8));
+        return values;
+    }
+
+    // rcUIUpdate notification value: index, data size including the null terminator, text
+    static byte[] uiUpdate(int index, String text) {
+        final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] value = new byte[UIUpdateDecoder.HEADER_SIZE + utf8.length + 1];
+        value[0] = (byte) index;
+        value[1] = (byte) (utf8.length + 1);
+        System.arraycopy(utf8, 0, value, UIUpdateDecoder.HEADER_SIZE, utf8.length);
+        return value;
+    }
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+}
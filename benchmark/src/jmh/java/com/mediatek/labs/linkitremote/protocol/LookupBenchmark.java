@@ -0,0 +1,53 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping wire bytes of rcControlTypes and rcColors to control types and colors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LookupBenchmark {
+
+    @Param({"8", "32", "128", "255"})
+    public int controls;
+
+    private byte[] mTypes;
+    private byte[] mColors;
+
+    @Setup
+    public void setup() {
+        mTypes = new byte[controls];
+        mColors = new byte[controls];
+        for (int i = 0; i < controls; ++i) {
+            // include out of range values, which fall back to defaults
+            mTypes[i] = (byte) (i % 7);
+            mColors[i] = (byte) (i % 8);
+        }
+    }
+
+    @Benchmark
+    public void controlType(Blackhole bh) {
+        for (byte b : mTypes) {
+            bh.consume(ControlInfo.ControlType.getEnum(b));
+        }
+    }
+
+    @Benchmark
+    public void brandColor(Blackhole bh) {
+        for (byte b : mColors) {
+            bh.consume(Brandcolor.fromBLE(b).primary);
+        }
+    }
+}
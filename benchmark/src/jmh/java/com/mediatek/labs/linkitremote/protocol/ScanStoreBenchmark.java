@@ -0,0 +1,94 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One scan result against a full list of nearby boards: the address map of
+ * ScanStore versus the linear search ScanResultAdapter used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScanStoreBenchmark {
+
+    @Param({"20", "150", "500"})
+    public int devices;
+
+    private static class Result {
+        final String address;
+        final int rssi;
+
+        Result(String address, int rssi) {
+            this.address = address;
+            this.rssi = rssi;
+        }
+    }
+
+    private Result[] mResults;
+    private ScanStore<Result> mStore;
+    private ArrayList<Result> mList;
+    private int mNext;
+    private long mNow;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(11);
+        // advertisements arrive in random device order, with noisy RSSI
+        mResults = new Result[4096];
+        for (int i = 0; i < mResults.length; ++i) {
+            final int device = random.nextInt(devices);
+            mResults[i] = new Result(String.format("00:11:22:33:%02X:%02X", device >> 8, device & 0xFF),
+                    -50 - random.nextInt(40));
+        }
+
+        mStore = new ScanStore<>(ScanStore.DEFAULT_RSSI_ALPHA, Long.MAX_VALUE);
+        mList = new ArrayList<>();
+        for (int i = 0; i < devices; ++i) {
+            final Result r = new Result(String.format("00:11:22:33:%02X:%02X", i >> 8, i & 0xFF), -70);
+            mStore.update(r.address, "board", r.rssi, r, 0);
+            mList.add(r);
+        }
+        mStore.clearChanges();
+    }
+
+    private Result next() {
+        final Result r = mResults[mNext];
+        mNext = (mNext + 1) & (mResults.length - 1);
+        return r;
+    }
+
+    @Benchmark
+    public boolean scanStore() {
+        final Result r = next();
+        final boolean added = mStore.update(r.address, "board", r.rssi, r, ++mNow);
+        if (mStore.getChanged().size() > 64) {
+            // the list refresh drains changes regularly
+            mStore.clearChanges();
+        }
+        return added;
+    }
+
+    @Benchmark
+    public int linearSearch() {
+        final Result r = next();
+        for (int i = 0; i < mList.size(); i++) {
+            if (mList.get(i).address.equals(r.address)) {
+                mList.set(i, r);
+                return i;
+            }
+        }
+        mList.add(r);
+        return -1;
+    }
+}
@@ -0,0 +1,62 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding one rcUIUpdate notification per control, for labels that keep
+ * their text and for labels that change on every notification.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UIUpdateDecoderBenchmark {
+
+    @Param({"8", "32", "128", "255"})
+    public int controls;
+
+    private UIUpdateDecoder mDecoder;
+    private byte[][] mEven;
+    private byte[][] mOdd;
+    private boolean mFlip;
+
+    @Setup
+    public void setup() {
+        mDecoder = new UIUpdateDecoder();
+        mEven = new byte[controls][];
+        mOdd = new byte[controls][];
+        for (int i = 0; i < controls; ++i) {
+            mEven[i] = LayoutFixture.uiUpdate(i, "Temp 23.5 C");
+            mOdd[i] = LayoutFixture.uiUpdate(i, "Temp 23.6 C");
+        }
+    }
+
+    @Benchmark
+    public void repeated(Blackhole bh) {
+        for (int i = 0; i < controls; ++i) {
+            if (mDecoder.decode(mEven[i])) {
+                bh.consume(mDecoder.getText());
+            }
+        }
+    }
+
+    @Benchmark
+    public void changing(Blackhole bh) {
+        final byte[][] values = mFlip ? mOdd : mEven;
+        mFlip = !mFlip;
+        for (int i = 0; i < controls; ++i) {
+            if (mDecoder.decode(values[i])) {
+                bh.consume(mDecoder.getText());
+            }
+        }
+    }
+}
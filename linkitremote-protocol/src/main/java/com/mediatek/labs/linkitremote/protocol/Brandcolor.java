@@ -1,10 +1,10 @@
-package com.mediatek.labs.linkitremote;
+package com.mediatek.labs.linkitremote.protocol;
 
 /**
  * Created by MediaTek Labs on 2017/9/12.
  */
 
-class Brandcolor {
+public class Brandcolor {
     public static final ColorSet gold = new ColorSet( 0xFFF39A1E, 0xFFDEC9A5);
     public static final ColorSet yellow = new ColorSet( 0xFFFED100, 0xFFE1D4A0);
     public static final ColorSet blue = new ColorSet( 0xFF00A1DE, 0xFFABCBDD);
@@ -1,10 +1,10 @@
-package com.mediatek.labs.linkitremote;
+package com.mediatek.labs.linkitremote.protocol;
 
 /**
  * Created by MediaTek Labs on 2017/9/12.
  */
 
-class ColorSet {
+public class ColorSet {
     public int primary;
     public int secondary;
 
@@ -1,16 +1,16 @@
-package com.mediatek.labs.linkitremote;
+package com.mediatek.labs.linkitremote.protocol;
 
 /**
  * Created by mtk03251 on 2017/9/13.
  */
 
-class ControlConfig {
+public class ControlConfig {
     public short data1;
     public short data2;
     public short data3;
     public short data4;
 
-    ControlConfig() {
+    public ControlConfig() {
         data1 = 0;
         data2 = 0;
         data3 = 0;
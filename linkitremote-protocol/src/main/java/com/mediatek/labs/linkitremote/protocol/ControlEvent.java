@@ -0,0 +1,11 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+/**
+ * Created by MediaTek Labs on 2017/9/12.
+ */
+
+public class ControlEvent {
+    public static final byte btnDown = 1;
+    public static final byte btnUp = 2;
+    public static final byte valueChange = 3;
+}
@@ -1,14 +1,12 @@
-package com.mediatek.labs.linkitremote;
+package com.mediatek.labs.linkitremote.protocol;
 
 /*
  * Created by MediaTek Labs on 2017/9/13.
  */
 
-import android.graphics.Rect;
-import android.view.View;
 
-class ControlInfo {
-    enum ControlType {
+public class ControlInfo {
+    public enum ControlType {
         label,
         pushButton,
         circleButton,
@@ -33,7 +31,7 @@ class ControlInfo {
         }
     }
 
-    enum ColorType {
+    public enum ColorType {
         gold,
         yellow,
         blue,
@@ -61,12 +59,11 @@ class ControlInfo {
         }
     }
 
-    ControlType type;    // control type, such as button or label
-    int color;     // control color set
-    Rect cell;           // coordinate in Remote Grid, not actual screen space.
-    String text;         // control label text
-    ControlConfig config;
-    View view;
-    int index;   // index in the control / event array
+    public ControlType type;    // control type, such as button or label
+    public int color;     // control color set
+    public GridCell cell;       // coordinate in Remote Grid, not actual screen space.
+    public String text;         // control label text
+    public ControlConfig config;
+    public int index;   // index in the control / event array
 }
 
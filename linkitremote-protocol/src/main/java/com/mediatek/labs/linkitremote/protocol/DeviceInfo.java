@@ -1,12 +1,13 @@
-package com.mediatek.labs.linkitremote;
+package com.mediatek.labs.linkitremote.protocol;
 
 /**
  * Created by mtk03251 on 2017/9/13.
  */
 
-class DeviceInfo {
+public class DeviceInfo {
     public int row = 4;
     public int col = 2;
     public boolean isLandscape = false;
+    public int protocolVersion = RemoteProtocol.PROTOCOL_VERSION;
     public ControlInfo[] controls;
 }
@@ -0,0 +1,111 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Parses the layout characteristics of a board into a DeviceInfo.
+ *
+ * Pure Java, so it can be unit tested and benchmarked off the device.
+ */
+public class DeviceInfoParser {
+
+    static private final int MAX_CONTROLS = 256;
+    static private final int CONFIG_SIZE = 8;      // four uint16_t per control
+
+    /**
+     * Parse raw characteristic values, keyed by characteristic UUID, either a
+     * single rcLayout blob or the legacy per-field characteristics.
+     * Controls without a name get defaultName. Returns null if values is empty.
+     *
+     * @throws IllegalArgumentException if the values do not describe a valid layout.
+     */
+    public static DeviceInfo parse(Map<UUID, byte[]> values, String defaultName) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        final byte[] blob = values.get(RemoteProtocol.rcLayout);
+        if (blob != null) {
+            return LayoutDecoder.decode(blob, defaultName);
+        }
+
+        DeviceInfo d = new DeviceInfo();
+        d.protocolVersion = readInt32(values.get(RemoteProtocol.rcProtocolVersion));
+        d.row = readInt32(values.get(RemoteProtocol.rcRow));
+        d.col = readInt32(values.get(RemoteProtocol.rcCol));
+        d.isLandscape = readInt32(values.get(RemoteProtocol.rcOrientation)) > 0;
+
+        final int controlCount = readInt32(values.get(RemoteProtocol.rcControlCount));
+        final byte[] typeArray = values.get(RemoteProtocol.rcControlTypes);
+        final byte[] colorArray = values.get(RemoteProtocol.rcColors);
+        final byte[] rectArray = values.get(RemoteProtocol.rcFrames);
+        final byte[] configArray = values.get(RemoteProtocol.rcConfigDataArray);
+        final byte[] nameArray = values.get(RemoteProtocol.rcNames);
+
+        if (d.row < 1 || d.col < 1) {
+            throw new IllegalArgumentException("invalid grid " + d.row + " x " + d.col);
+        }
+        if (controlCount < 0 || controlCount > MAX_CONTROLS) {
+            throw new IllegalArgumentException("invalid control count " + controlCount);
+        }
+        if (length(typeArray) < controlCount || length(colorArray) < controlCount ||
+                length(rectArray) < controlCount * 4 || length(configArray) < controlCount * CONFIG_SIZE) {
+            throw new IllegalArgumentException("control arrays shorter than control count " + controlCount);
+        }
+
+        final String[] names = (nameArray != null) ?
+                new String(nameArray, StandardCharsets.UTF_8).split("\n") : new String[0];
+
+        d.controls = new ControlInfo[controlCount];
+
+        // Note that config data are uint16_t stored in little endian byte order.
+        final ByteBuffer configDataBuffer = ByteBuffer.wrap(configArray, 0, controlCount * CONFIG_SIZE);
+        configDataBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < controlCount; ++i) {
+            ControlInfo c = new ControlInfo();
+            c.index = i;
+            c.type = ControlInfo.ControlType.getEnum(typeArray[i]);
+            c.color = Brandcolor.fromBLE(colorArray[i]).primary;
+            c.cell = new GridCell(rectArray[i * 4], rectArray[i * 4 + 1],
+                    rectArray[i * 4 + 2], rectArray[i * 4 + 3]);
+            c.text = (i < names.length) ? names[i] : defaultName;
+
+            c.config = new ControlConfig();
+            c.config.data1 = configDataBuffer.getShort();
+            c.config.data2 = configDataBuffer.getShort();
+            c.config.data3 = configDataBuffer.getShort();
+            c.config.data4 = configDataBuffer.getShort();
+            d.controls[i] = c;
+        }
+
+        return d;
+    }
+
+    /**
+     * Protocol version the board reported in values, from either layout format,
+     * or 0 if none.
+     */
+    public static int readProtocolVersion(Map<UUID, byte[]> values) {
+        final byte[] blob = values.get(RemoteProtocol.rcLayout);
+        if (blob != null) {
+            return (blob.length > 1) ? (blob[1] & 0xFF) : 0;
+        }
+        return readInt32(values.get(RemoteProtocol.rcProtocolVersion));
+    }
+
+    private static int length(byte[] value) {
+        return (value != null) ? value.length : 0;
+    }
+
+    // integer characteristics are int32_t in little endian byte order
+    public static int readInt32(byte[] value) {
+        if (null == value || value.length < 4) {
+            return 0;
+        }
+        return ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+}
@@ -0,0 +1,139 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+/**
+ * Application level round trip measurement through the board sketch.
+ *
+ * Probe events go to the reserved control index ECHO_INDEX like any other
+ * remote event. A board that supports echo answers each one with an rcUIUpdate
+ * notification for ECHO_INDEX whose text is the decimal sequence number of the
+ * probe frame. Write acknowledgements only tell that the board's stack got a
+ * frame; the echo also covers the sketch's loop and its notification.
+ *
+ * The probe matches echoes to sent frames by sequence number and collects round
+ * trip times, interarrival jitter as in RFC 3550 and loss. Sequence numbers wrap
+ * at 256, so fewer than 256 events should be written within one timeout.
+ * Times are up to the caller, in one unit and clock.
+ */
+public class EchoProbe {
+    static private final int SEQUENCES = 256;
+
+    private final long mTimeout;
+    private final long[] mSentAt = new long[SEQUENCES];
+    private final boolean[] mPending = new boolean[SEQUENCES];
+    private final LatencyHistogram mRtt = new LatencyHistogram();
+    private long mLastRtt = -1;
+    private double mJitter;
+    private int mSent;
+    private int mLost;
+    private int mUnmatched;     // late, duplicated or unknown echoes
+
+    /**
+     * A probe that is not answered within timeout counts as lost.
+     */
+    public EchoProbe(long timeout) {
+        mTimeout = timeout;
+    }
+
+    /**
+     * Return the sequence number an rcUIUpdate value echoes, or -1 if it is no echo.
+     */
+    public static int parseEcho(byte[] value) {
+        if (value == null || value.length <= UIUpdateDecoder.HEADER_SIZE
+                || (value[0] & 0xFF) != RemoteProtocol.ECHO_INDEX) {
+            return -1;
+        }
+        // dataSize includes the null terminator
+        final int end = Math.min(value.length, UIUpdateDecoder.HEADER_SIZE + (value[1] & 0xFF) - 1);
+        int seq = 0;
+        for (int i = UIUpdateDecoder.HEADER_SIZE; i < end; ++i) {
+            final int digit = value[i] - '0';
+            if (digit < 0 || digit > 9 || seq >= SEQUENCES) {
+                return -1;
+            }
+            seq = seq * 10 + digit;
+        }
+        return (end > UIUpdateDecoder.HEADER_SIZE && seq < SEQUENCES) ? seq : -1;
+    }
+
+    // a probe frame with sequence number seq was written at time
+    public synchronized void onSent(int seq, long time) {
+        seq &= 0xFF;
+        if (mPending[seq]) {
+            // the previous probe with this number is overdue by now
+            mPending[seq] = false;
+            mLost += 1;
+        }
+        mSentAt[seq] = time;
+        mPending[seq] = true;
+        mSent += 1;
+    }
+
+    public synchronized void onEcho(int seq, long time) {
+        seq &= 0xFF;
+        if (!mPending[seq] || time - mSentAt[seq] > mTimeout) {
+            mUnmatched += 1;
+            return;
+        }
+        mPending[seq] = false;
+
+        final long rtt = time - mSentAt[seq];
+        mRtt.record(rtt);
+        if (mLastRtt >= 0) {
+            mJitter += (Math.abs(rtt - mLastRtt) - mJitter) / 16;
+        }
+        mLastRtt = rtt;
+    }
+
+    /**
+     * Count probes sent more than the timeout before now as lost.
+     * Returns the number of probes still waiting for their echo.
+     */
+    public synchronized int expire(long now) {
+        int pending = 0;
+        for (int i = 0; i < SEQUENCES; ++i) {
+            if (!mPending[i]) {
+                continue;
+            }
+            if (now - mSentAt[i] > mTimeout) {
+                mPending[i] = false;
+                mLost += 1;
+            } else {
+                pending += 1;
+            }
+        }
+        return pending;
+    }
+
+    public synchronized int getSentCount() {
+        return mSent;
+    }
+
+    public synchronized int getReceivedCount() {
+        return (int) mRtt.getCount();
+    }
+
+    public synchronized int getLostCount() {
+        return mLost;
+    }
+
+    public synchronized int getUnmatchedCount() {
+        return mUnmatched;
+    }
+
+    // copy of the round trip times
+    public synchronized LatencyHistogram getRtt() {
+        final LatencyHistogram copy = new LatencyHistogram();
+        copy.add(mRtt);
+        return copy;
+    }
+
+    public synchronized long getJitter() {
+        return Math.round(mJitter);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "echo sent=" + mSent + " received=" + mRtt.getCount() + " lost=" + mLost
+                + " unmatched=" + mUnmatched + " jitter=" + getJitter() + " rtt " + mRtt;
+    }
+}
@@ -0,0 +1,38 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+/**
+ * Reference decoder for rcEventArray writes.
+ *
+ * This mirrors what the board firmware does with a received value, and accepts
+ * both the single-frame v3 format and batched v4 writes. See {@link EventPacker}
+ * for the frame layout.
+ */
+public class EventDecoder {
+
+    public interface Listener {
+        void onEvent(int seq, int index, int event, int data);
+    }
+
+    /**
+     * Decode every event frame in value, in order. Returns the number of frames.
+     *
+     * @throws IllegalArgumentException if value is not a whole number of frames.
+     */
+    public static int decode(byte[] value, Listener listener) {
+        if (value == null || value.length == 0 || value.length % EventPacker.FRAME_SIZE != 0) {
+            throw new IllegalArgumentException("invalid event array length");
+        }
+
+        final int count = value.length / EventPacker.FRAME_SIZE;
+        for (int i = 0; i < count; ++i) {
+            final int offset = i * EventPacker.FRAME_SIZE;
+            final int seq = value[offset] & 0xFF;
+            final int index = value[offset + 1] & 0xFF;
+            final int event = value[offset + 2] & 0xFF;
+            // event data is int16_t in little endian byte order
+            final int data = (short)((value[offset + 4] & 0xFF) | ((value[offset + 5] & 0xFF) << 8));
+            listener.onEvent(seq, index, event, data);
+        }
+        return count;
+    }
+}
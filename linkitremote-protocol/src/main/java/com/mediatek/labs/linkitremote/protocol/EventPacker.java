@@ -0,0 +1,73 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+/**
+ * Packs remote events into a single rcEventArray write.
+ *
+ * Every event is a 6-byte frame: sequence number, control index, event, reserved,
+ * data low byte, data high byte. Protocol v3 boards take exactly one frame per
+ * write. Boards reporting PROTOCOL_VERSION_BATCH or later accept several frames
+ * back to back in one write, as many as fit into the negotiated ATT MTU.
+ */
+public class EventPacker {
+    public static final int FRAME_SIZE = 6;
+    public static final int ATT_WRITE_HEADER_SIZE = 3;   // opcode + attribute handle
+    public static final int DEFAULT_MTU = 23;
+
+    private final byte[] mBuffer;
+    private final int mCapacity;
+    private int mCount = 0;
+
+    /**
+     * Return how many event frames fit into one write with the given ATT MTU.
+     */
+    public static int capacityForMtu(int mtu) {
+        return Math.max(1, (mtu - ATT_WRITE_HEADER_SIZE) / FRAME_SIZE);
+    }
+
+    public static void writeFrame(byte[] buffer, int offset, byte seq, int index, byte event, int data) {
+        buffer[offset] = seq;                                   // sequence number
+        buffer[offset + 1] = (byte)index;                       // control index
+        buffer[offset + 2] = event;                             // event
+        buffer[offset + 3] = 0;                                 // ignored & reserved
+        buffer[offset + 4] = (byte)(data & 0xFF);               // event data, low byte
+        buffer[offset + 5] = (byte)((data >> 8) & 0xFF);        // event data, high byte
+    }
+
+    public EventPacker(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        mCapacity = capacity;
+        mBuffer = new byte[capacity * FRAME_SIZE];
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public boolean isFull() {
+        return mCount >= mCapacity;
+    }
+
+    public void add(byte seq, int index, byte event, int data) {
+        if (isFull()) {
+            throw new IllegalStateException("packer is full");
+        }
+        writeFrame(mBuffer, mCount * FRAME_SIZE, seq, index, event, data);
+        mCount += 1;
+    }
+
+    /**
+     * Return the packed frames as one characteristic value and start a new batch.
+     */
+    public byte[] pack() {
+        byte[] value = new byte[mCount * FRAME_SIZE];
+        System.arraycopy(mBuffer, 0, value, 0, value.length);
+        mCount = 0;
+        return value;
+    }
+}
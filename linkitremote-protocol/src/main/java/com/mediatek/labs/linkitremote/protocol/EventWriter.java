@@ -0,0 +1,351 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.util.ArrayDeque;
+
+/**
+ * Owns the rcEventArray characteristic and writes remote events to it.
+ *
+ * Android only allows one outstanding GATT operation per connection, so events
+ * are queued and written back to back from onCharacteristicWrite. While a write
+ * is in flight, a newer valueChange of the same slider replaces the queued one
+ * instead of growing the queue. Button and switch edges are never merged.
+ *
+ * With boards that accept batched writes, all queued events that fit into the
+ * ATT MTU go out together in one write, see {@link EventPacker}.
+ *
+ * With a {@link LatencyRecorder} set, each event is timestamped along the way
+ * and recorded once written. All times come from the {@link Scheduler} clock,
+ * which retries are posted to as well.
+ *
+ * A write the link rejects is retried with exponential backoff. After
+ * MAX_RETRIES rejections in a row the writer stops retrying and reports the
+ * stall; events stay queued until the next send() or flush().
+ */
+public class EventWriter {
+    static private final int MAX_CONTROLS = 256;     // control index is a single byte
+    static private final long RETRY_DELAY_MS = 20;   // first retry when the stack rejects a write
+    public static final int MAX_RETRIES = 6;         // about 1.3 s of backoff
+
+    /**
+     * Progress of events, for tracing. Called with the writer locked.
+     */
+    public interface Listener {
+        void onQueued(int index);
+
+        // a write of count events was initiated
+        void onWrite(int count);
+
+        void onWritten(int status);
+
+        // the link rejected MAX_RETRIES writes in a row, retrying stopped
+        void onStalled();
+    }
+
+    private static class Event {
+        int index;
+        byte event;
+        int data;
+        boolean idempotent;     // can be superseded & written without response
+        long enqueueTime;       // Scheduler clock
+        ControlInfo.ControlType type;
+        // only with a recorder set
+        boolean timed;
+        long inputTime;
+        long queueTime;
+        long writeTime;
+    }
+
+    private final GattLink mLink;
+    private final Scheduler mScheduler;
+    private final boolean mWriteWithoutResponse;
+
+    private final ArrayDeque<Event> mQueue = new ArrayDeque<>();
+    private final Event[] mQueuedValues = new Event[MAX_CONTROLS];
+    private EventPacker mPacker = new EventPacker(1);
+    private Event[] mInFlight = new Event[1];
+    private int mInFlightCount = 0;
+    private byte mSequence;
+    private boolean mClosed = false;
+    private boolean mHeld = false;
+    private int mRetries = 0;           // rejected writes in a row
+    private LatencyRecorder mRecorder;
+    private EchoProbe mEchoProbe;
+    private Listener mListener;
+
+    // statistics, in milliseconds
+    private long mLastLatency;
+    private long mMaxLatency;
+    private long mTotalLatency;
+    private long mSmoothedLatency8;     // 8 times the moving average, as in TCP's SRTT
+    private int mWriteCount;
+    private int mCoalescedCount;
+    private int mFailedCount;
+
+    private final Runnable mRetry = new Runnable() {
+        @Override
+        public void run() {
+            writeNext();
+        }
+    };
+
+    /**
+     * writeWithoutResponse tells whether the rcEventArray characteristic of the board
+     * supports WRITE_TYPE_NO_RESPONSE. The first event gets sequence number
+     * firstSequence, so a reconnected session continues where the last writer stopped.
+     */
+    public EventWriter(GattLink link, boolean writeWithoutResponse, Scheduler scheduler, byte firstSequence) {
+        mLink = link;
+        mScheduler = scheduler;
+        mWriteWithoutResponse = writeWithoutResponse;
+        mSequence = firstSequence;
+    }
+
+    /**
+     * Pack up to capacity events into each write. Only use a capacity larger than 1
+     * for boards reporting PROTOCOL_VERSION_BATCH or later.
+     */
+    public synchronized void setBatchCapacity(int capacity) {
+        if (capacity == mPacker.getCapacity()) {
+            return;
+        }
+        mPacker = new EventPacker(capacity);
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    // null stops recording
+    public synchronized void setLatencyRecorder(LatencyRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    /**
+     * While held, events are only queued, so events sent together, e.g. the button
+     * edges of one touch, go out in the same write when batching allows.
+     */
+    public synchronized void setHeld(boolean held) {
+        mHeld = held;
+        if (!held) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Write queued events now, e.g. once the link is free again after a stall.
+     */
+    public synchronized void flush() {
+        mScheduler.removeCallbacks(mRetry);
+        mRetries = 0;
+        writeNext();
+    }
+
+    // probe is told the sequence number and write time of each ECHO_INDEX event
+    public synchronized void setEchoProbe(EchoProbe probe) {
+        mEchoProbe = probe;
+    }
+
+    /**
+     * Queue an event for the control at index. Idempotent events (slider values)
+     * replace a queued event of the same control and type, and are written
+     * without response when the characteristic supports it.
+     *
+     * type is the control type, null for events to no control like echo probes.
+     * inputTime is when the user caused the event, on the Scheduler clock.
+     * It is only used with a recorder set.
+     */
+    public synchronized void send(int index, ControlInfo.ControlType type, byte event, int data,
+                           boolean idempotent, long inputTime) {
+        if (mClosed) {
+            return;
+        }
+        if (mListener != null) {
+            mListener.onQueued(index);
+        }
+
+        final int slot = index & 0xFF;
+        if (idempotent) {
+            final Event queued = mQueuedValues[slot];
+            if (queued != null && queued.event == event) {
+                // still waiting for the link - just carry the newest value
+                queued.data = data;
+                if (mRecorder != null) {
+                    queued.timed = true;
+                    queued.inputTime = inputTime;
+                    queued.queueTime = mScheduler.now();
+                }
+                mCoalescedCount += 1;
+                return;
+            }
+        }
+
+        Event e = new Event();
+        e.index = index;
+        e.event = event;
+        e.data = data;
+        e.idempotent = idempotent;
+        e.enqueueTime = mScheduler.now();
+        e.type = type;
+        if (mRecorder != null) {
+            e.timed = true;
+            e.inputTime = inputTime;
+            e.queueTime = e.enqueueTime;
+        }
+        if (idempotent) {
+            mQueuedValues[slot] = e;
+        }
+        mQueue.add(e);
+        writeNext();
+    }
+
+    // called from onCharacteristicWrite of rcEventArray
+    public synchronized void onWritten(int status) {
+        if (mInFlightCount == 0) {
+            return;
+        }
+        if (mListener != null) {
+            mListener.onWritten(status);
+        }
+        if (status != GattLink.GATT_SUCCESS) {
+            mFailedCount += 1;
+        }
+
+        final long now = mScheduler.now();
+        final LatencyRecorder recorder = mRecorder;
+        for (int i = 0; i < mInFlightCount; ++i) {
+            final Event e = mInFlight[i];
+            final long latency = (now - e.enqueueTime) / 1000;
+            mLastLatency = latency;
+            mMaxLatency = Math.max(mMaxLatency, latency);
+            mTotalLatency += latency;
+            mSmoothedLatency8 = mWriteCount > 0 ? mSmoothedLatency8 + latency - mSmoothedLatency8 / 8 : latency * 8;
+            mWriteCount += 1;
+            // events queued before the recorder was set have no timestamps
+            if (recorder != null && e.timed && e.type != null) {
+                recorder.record(e.type, e.inputTime, e.queueTime, e.writeTime, now);
+            }
+            mInFlight[i] = null;
+        }
+        mInFlightCount = 0;
+
+        writeNext();
+    }
+
+    public synchronized void close() {
+        mClosed = true;
+        mScheduler.removeCallbacks(mRetry);
+        mQueue.clear();
+        for (int i = 0; i < MAX_CONTROLS; ++i) {
+            mQueuedValues[i] = null;
+        }
+        mInFlightCount = 0;
+    }
+
+    // sequence number of the next event written
+    public synchronized byte getSequence() {
+        return mSequence;
+    }
+
+    // number of events queued or being written
+    public synchronized int getQueueDepth() {
+        return mQueue.size() + mInFlightCount;
+    }
+
+    // enqueue-to-written latency of the last event
+    public synchronized long getLastLatencyMs() {
+        return mLastLatency;
+    }
+
+    public synchronized long getMaxLatencyMs() {
+        return mMaxLatency;
+    }
+
+    public synchronized long getAverageLatencyMs() {
+        return mWriteCount > 0 ? mTotalLatency / mWriteCount : 0;
+    }
+
+    // moving average of enqueue-to-written latency, weighing recent writes most
+    public synchronized long getSmoothedLatencyMs() {
+        return mSmoothedLatency8 / 8;
+    }
+
+    // number of writes that completed with an error status
+    public synchronized int getFailedCount() {
+        return mFailedCount;
+    }
+
+    // number of slider values replaced before they reached the link
+    public synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    private synchronized void writeNext() {
+        if (mClosed || mHeld || mInFlightCount > 0 || mQueue.isEmpty()) {
+            return;
+        }
+        if (mInFlight.length != mPacker.getCapacity()) {
+            mInFlight = new Event[mPacker.getCapacity()];
+        }
+
+        // write without response only if every event in this write allows it
+        boolean noResponse = mWriteWithoutResponse;
+        while (!mPacker.isFull() && !mQueue.isEmpty()) {
+            final Event e = mQueue.poll();
+            final int slot = e.index & 0xFF;
+            if (mQueuedValues[slot] == e) {
+                mQueuedValues[slot] = null;
+            }
+            noResponse &= e.idempotent;
+            mPacker.add((byte)(mSequence + mInFlightCount), e.index, e.event, e.data);
+            mInFlight[mInFlightCount++] = e;
+        }
+
+        final boolean initiated = mLink.writeCharacteristic(RemoteProtocol.rcService, RemoteProtocol.rcEventArray,
+                mPacker.pack(), noResponse);
+        if (initiated) {
+            mRetries = 0;
+            if (mListener != null) {
+                mListener.onWrite(mInFlightCount);
+            }
+            if (mRecorder != null) {
+                final long writeTime = mScheduler.now();
+                for (int i = 0; i < mInFlightCount; ++i) {
+                    if (mInFlight[i].timed) {
+                        mInFlight[i].writeTime = writeTime;
+                    }
+                }
+            }
+            if (mEchoProbe != null) {
+                for (int i = 0; i < mInFlightCount; ++i) {
+                    if (mInFlight[i].index == RemoteProtocol.ECHO_INDEX) {
+                        mEchoProbe.onSent(mSequence + i, mScheduler.now());
+                    }
+                }
+            }
+            mSequence += mInFlightCount;
+        } else {
+            // GATT is busy with another operation - put them back and try again shortly.
+            for (int i = mInFlightCount - 1; i >= 0; --i) {
+                final Event e = mInFlight[i];
+                final int slot = e.index & 0xFF;
+                mQueue.addFirst(e);
+                if (e.idempotent && mQueuedValues[slot] == null) {
+                    mQueuedValues[slot] = e;
+                }
+                mInFlight[i] = null;
+            }
+            mInFlightCount = 0;
+
+            mScheduler.removeCallbacks(mRetry);
+            if (mRetries < MAX_RETRIES) {
+                mScheduler.postDelayed(mRetry, RETRY_DELAY_MS << mRetries);
+                mRetries += 1;
+            } else {
+                mRetries = 0;
+                if (mListener != null) {
+                    mListener.onStalled();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.util.UUID;
+
+/**
+ * GATT operations the remote session issues on a connected board.
+ *
+ * The app goes through this instead of calling BluetoothGatt directly, so
+ * connection policies can be exercised against a fake or simulated link off the
+ * device. Each method returns false if the operation could not be initiated;
+ * results arrive at the {@link Callback} of the link.
+ */
+public interface GattLink {
+    // same values as the BluetoothGatt, BluetoothProfile and BluetoothGattCharacteristic constants
+    int GATT_SUCCESS = 0;
+    int GATT_FAILURE = 0x101;
+    int CONNECTION_PRIORITY_BALANCED = 0;
+    int CONNECTION_PRIORITY_HIGH = 1;
+    int CONNECTION_PRIORITY_LOW_POWER = 2;
+    int STATE_DISCONNECTED = 0;
+    int STATE_CONNECTED = 2;
+    int PROPERTY_READ = 0x02;
+    int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    int PROPERTY_WRITE = 0x08;
+    int PROPERTY_NOTIFY = 0x10;
+
+    /**
+     * Results of link operations, and notifications from the board.
+     */
+    interface Callback {
+        void onConnectionStateChange(int status, int newState);
+
+        void onMtuChanged(int mtu, int status);
+
+        void onServicesDiscovered(int status);
+
+        void onCharacteristicRead(UUID characteristic, byte[] value, int status);
+
+        void onCharacteristicWrite(UUID characteristic, int status);
+
+        void onCharacteristicChanged(UUID characteristic, byte[] value);
+    }
+
+    boolean requestMtu(int mtu);
+
+    boolean requestConnectionPriority(int priority);
+
+    boolean discoverServices();
+
+    boolean readCharacteristic(UUID service, UUID characteristic);
+
+    boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withoutResponse);
+
+    boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable);
+
+    // the characteristic was discovered
+    boolean hasCharacteristic(UUID service, UUID characteristic);
+
+    // PROPERTY_* flags of the characteristic, 0 if it was not discovered
+    int getProperties(UUID service, UUID characteristic);
+
+    /**
+     * Drop the services the OS cached for the board, so the next discovery reads
+     * them from the board. Returns false if the stack cannot.
+     */
+    boolean refreshServices();
+}
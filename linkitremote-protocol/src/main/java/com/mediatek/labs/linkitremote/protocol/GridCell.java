@@ -0,0 +1,35 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+/**
+ * Position and size of a control in the Remote Grid, in cells, not screen pixels.
+ */
+public class GridCell {
+    public int column;
+    public int row;
+    public int columnSpan = 1;
+    public int rowSpan = 1;
+
+    public GridCell() {
+    }
+
+    public GridCell(int column, int row, int columnSpan, int rowSpan) {
+        this.column = column;
+        this.row = row;
+        this.columnSpan = columnSpan;
+        this.rowSpan = rowSpan;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GridCell)) {
+            return false;
+        }
+        GridCell c = (GridCell) o;
+        return column == c.column && row == c.row && columnSpan == c.columnSpan && rowSpan == c.rowSpan;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((column * 31 + row) * 31 + columnSpan) * 31 + rowSpan;
+    }
+}
@@ -0,0 +1,116 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+/**
+ * Fixed-size histogram of latencies, in the spirit of HdrHistogram.
+ *
+ * Values below 32 are counted exactly. Larger values go to log-linear buckets,
+ * 16 per power of two, so any reported percentile is within about 6% of the
+ * recorded value. Recording never allocates. Units are up to the caller; the
+ * largest trackable value is 2^40 - 1, larger ones are clamped.
+ *
+ * Not thread safe.
+ */
+public class LatencyHistogram {
+    static private final int LINEAR_LIMIT = 32;
+    static private final int SUB_BUCKETS = 16;
+    static private final int MAX_EXPONENT = 39;
+    static private final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    static private final int BUCKET_COUNT = bucketOf(MAX_VALUE) + 1;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mTotal;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    public void record(long value) {
+        value = Math.max(0, Math.min(value, MAX_VALUE));
+        mCounts[bucketOf(value)] += 1;
+        mCount += 1;
+        mTotal += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mCount += other.mCount;
+        mTotal += other.mTotal;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mTotal = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMin() {
+        return mCount > 0 ? mMin : 0;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public double getMean() {
+        return mCount > 0 ? (double) mTotal / mCount : 0;
+    }
+
+    /**
+     * Return the smallest value that percentile percent of the recorded values do not
+     * exceed, rounded up to the end of its bucket. percentile is in [0, 100].
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * mCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + mCount + " min=" + getMin() + " p50=" + getValueAtPercentile(50)
+                + " p90=" + getValueAtPercentile(90) + " p99=" + getValueAtPercentile(99)
+                + " max=" + mMax;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        // keep the 5 most significant bits: 16 sub-buckets of each power of two
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - 4;
+        final int top = (int) (value >> shift);
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        final int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        final long top = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
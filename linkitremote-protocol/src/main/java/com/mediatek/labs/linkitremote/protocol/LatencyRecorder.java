@@ -0,0 +1,128 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Latency of remote events along the write path, per control type.
+ *
+ * Each written event carries four timestamps: input (the MotionEvent, or the
+ * widget callback for sliders and switches), enqueue into the EventWriter,
+ * writeCharacteristic issued, and onCharacteristicWrite. The gaps between them
+ * go into one histogram per stage and control type:
+ *
+ *   input  - input to enqueue, time spent in the UI thread
+ *   queue  - enqueue to write, waiting for the link or a slot in a batch
+ *   ack    - write to acknowledged by the stack (or the board, with response)
+ *   total  - input to acknowledged
+ *
+ * Times are in microseconds on the uptime clock, which MotionEvent uses too,
+ * see {@link #now()}.
+ */
+public class LatencyRecorder {
+    public static final int STAGE_INPUT = 0;
+    public static final int STAGE_QUEUE = 1;
+    public static final int STAGE_ACK = 2;
+    public static final int STAGE_TOTAL = 3;
+
+    static private final String[] STAGE_NAMES = {"input", "queue", "ack", "total"};
+    static private final ControlInfo.ControlType[] TYPES = ControlInfo.ControlType.values();
+
+    private final LatencyHistogram[][] mHistograms =
+            new LatencyHistogram[TYPES.length][STAGE_NAMES.length];
+
+    public LatencyRecorder() {
+        for (int t = 0; t < TYPES.length; ++t) {
+            for (int s = 0; s < STAGE_NAMES.length; ++s) {
+                mHistograms[t][s] = new LatencyHistogram();
+            }
+        }
+    }
+
+    // System.nanoTime() and SystemClock.uptimeMillis() share CLOCK_MONOTONIC on Android
+    public static long now() {
+        return System.nanoTime() / 1000;
+    }
+
+    // MotionEvent.getEventTime() and friends are uptime milliseconds
+    public static long fromUptimeMillis(long uptimeMillis) {
+        return uptimeMillis * 1000;
+    }
+
+    public synchronized void record(ControlInfo.ControlType type, long input, long enqueue, long write, long ack) {
+        final LatencyHistogram[] h = mHistograms[type.ordinal()];
+        h[STAGE_INPUT].record(enqueue - input);
+        h[STAGE_QUEUE].record(write - enqueue);
+        h[STAGE_ACK].record(ack - write);
+        h[STAGE_TOTAL].record(ack - input);
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram[] stages : mHistograms) {
+            for (LatencyHistogram h : stages) {
+                h.reset();
+            }
+        }
+    }
+
+    public synchronized long getCount(ControlInfo.ControlType type) {
+        return mHistograms[type.ordinal()][STAGE_TOTAL].getCount();
+    }
+
+    // copy of one histogram, safe to read on any thread
+    public synchronized LatencyHistogram get(ControlInfo.ControlType type, int stage) {
+        final LatencyHistogram copy = new LatencyHistogram();
+        copy.add(mHistograms[type.ordinal()][stage]);
+        return copy;
+    }
+
+    /**
+     * Short text for the debug overlay, a line of total latency per control type
+     * with events, in milliseconds.
+     */
+    public synchronized String getSummary() {
+        final StringBuilder b = new StringBuilder();
+        for (ControlInfo.ControlType type : TYPES) {
+            final LatencyHistogram[] h = mHistograms[type.ordinal()];
+            if (h[STAGE_TOTAL].getCount() == 0) {
+                continue;
+            }
+            if (b.length() > 0) {
+                b.append('\n');
+            }
+            b.append(type.name()).append(" n=").append(h[STAGE_TOTAL].getCount())
+                    .append(" p50=").append(millis(h[STAGE_TOTAL].getValueAtPercentile(50)))
+                    .append(" p99=").append(millis(h[STAGE_TOTAL].getValueAtPercentile(99)))
+                    .append(" queue p99=").append(millis(h[STAGE_QUEUE].getValueAtPercentile(99)))
+                    .append(" ack p99=").append(millis(h[STAGE_ACK].getValueAtPercentile(99)));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Write one CSV line per control type and stage with events, all values in
+     * microseconds.
+     */
+    public synchronized void writeCsv(Writer out) throws IOException {
+        out.write("type,stage,count,min,p50,p90,p99,max,mean\n");
+        for (ControlInfo.ControlType type : TYPES) {
+            final LatencyHistogram[] h = mHistograms[type.ordinal()];
+            if (h[STAGE_TOTAL].getCount() == 0) {
+                continue;
+            }
+            for (int s = 0; s < STAGE_NAMES.length; ++s) {
+                out.write(type.name() + "," + STAGE_NAMES[s] + "," + h[s].getCount()
+                        + "," + h[s].getMin()
+                        + "," + h[s].getValueAtPercentile(50)
+                        + "," + h[s].getValueAtPercentile(90)
+                        + "," + h[s].getValueAtPercentile(99)
+                        + "," + h[s].getMax()
+                        + "," + Math.round(h[s].getMean()) + "\n");
+            }
+        }
+    }
+
+    public static String millis(long micros) {
+        return String.valueOf(micros / 1000) + "." + String.valueOf(micros % 1000 / 100) + "ms";
+    }
+}
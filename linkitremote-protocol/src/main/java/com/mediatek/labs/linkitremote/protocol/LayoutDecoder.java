@@ -0,0 +1,184 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming decoder of the rcLayout blob, the whole layout in one characteristic.
+ *
+ * The blob is little endian and length prefixed:
+ *
+ *   header, 10 bytes: format version, protocol version, uint16 blob length
+ *   (header included), rows, columns, orientation, reserved, uint16 control count
+ *
+ *   per control, 15 bytes and the name: type, color, column, row, column span,
+ *   row span, four int16 config values, name length, name in UTF-8
+ *
+ * An attribute value holds at most MAX_CHUNK_SIZE bytes, so larger blobs are
+ * read in chunks: the client writes the uint16 offset and uint16 length of the
+ * next chunk to rcLayout, and the following read returns those bytes of the blob,
+ * fewer at its end. See {@link LayoutReader}.
+ *
+ * Controls are decoded as soon as their bytes arrive, so nothing is left to parse
+ * once the last chunk is in. Not thread safe.
+ */
+public class LayoutDecoder {
+    public static final int FORMAT_VERSION = 1;
+    public static final int HEADER_SIZE = 10;
+    public static final int SELECT_SIZE = 4;           // uint16 offset, uint16 length
+    public static final int MAX_CHUNK_SIZE = 512;      // largest attribute value
+    public static final int MAX_BLOB_SIZE = 0xFFFF;   // the blob length is a uint16
+
+    static private final int CONTROL_SIZE = 15;        // without the name
+    static private final int MAX_CONTROLS = 256;
+
+    private final String mDefaultName;
+
+    private byte[] mBlob = new byte[256];
+    private int mLength = 0;            // bytes received
+    private int mTotal = -1;            // blob length, once the header is in
+    private int mParsed = 0;            // bytes decoded into mInfo
+    private DeviceInfo mInfo;
+    private int mControls = 0;          // controls decoded
+
+    /**
+     * Controls without a name get defaultName.
+     */
+    public LayoutDecoder(String defaultName) {
+        mDefaultName = defaultName;
+    }
+
+    /**
+     * Decode a complete blob.
+     *
+     * @throws IllegalArgumentException if blob is not a valid layout.
+     */
+    public static DeviceInfo decode(byte[] blob, String defaultName) {
+        final LayoutDecoder decoder = new LayoutDecoder(defaultName);
+        decoder.feed(blob, 0, blob.length);
+        if (!decoder.isComplete()) {
+            throw new IllegalArgumentException("layout blob truncated at " + blob.length + " bytes");
+        }
+        return decoder.getDeviceInfo();
+    }
+
+    // the value to write to rcLayout to select the chunk of length bytes at offset
+    public static byte[] select(int offset, int length) {
+        return new byte[]{(byte) offset, (byte) (offset >> 8), (byte) length, (byte) (length >> 8)};
+    }
+
+    /**
+     * Feed the next length bytes of the blob.
+     *
+     * @throws IllegalArgumentException if the data is not a valid layout.
+     */
+    public void feed(byte[] data, int offset, int length) {
+        if (mTotal >= 0 && mLength + length > mTotal) {
+            throw new IllegalArgumentException("layout blob longer than " + mTotal + " bytes");
+        }
+        if (mLength + length > mBlob.length) {
+            mBlob = Arrays.copyOf(mBlob, Math.max(mBlob.length * 2, mLength + length));
+        }
+        System.arraycopy(data, offset, mBlob, mLength, length);
+        mLength += length;
+
+        if (mInfo == null && mLength >= HEADER_SIZE) {
+            parseHeader();
+        }
+        while (mInfo != null && mControls < mInfo.controls.length && parseControl()) {
+            mControls += 1;
+        }
+        if (isComplete() && mParsed != mTotal) {
+            throw new IllegalArgumentException("layout blob length " + mTotal + " does not match controls");
+        }
+    }
+
+    public boolean isComplete() {
+        return mTotal >= 0 && mLength == mTotal;
+    }
+
+    // bytes received so far, the offset of the next chunk
+    public int getLength() {
+        return mLength;
+    }
+
+    // blob length once the header is in, otherwise -1
+    public int getTotal() {
+        return mTotal;
+    }
+
+    // the blob received so far
+    public byte[] getBytes() {
+        return Arrays.copyOf(mBlob, mLength);
+    }
+
+    // the layout, once complete, otherwise null
+    public DeviceInfo getDeviceInfo() {
+        return isComplete() ? mInfo : null;
+    }
+
+    // controls decoded so far
+    public int getControlCount() {
+        return mControls;
+    }
+
+    private void parseHeader() {
+        final int version = mBlob[0] & 0xFF;
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("unknown layout format " + version);
+        }
+        final DeviceInfo d = new DeviceInfo();
+        d.protocolVersion = mBlob[1] & 0xFF;
+        mTotal = uint16(2);
+        d.row = mBlob[4] & 0xFF;
+        d.col = mBlob[5] & 0xFF;
+        d.isLandscape = mBlob[6] != 0;
+        final int count = uint16(8);
+
+        if (d.row < 1 || d.col < 1) {
+            throw new IllegalArgumentException("invalid grid " + d.row + " x " + d.col);
+        }
+        if (count > MAX_CONTROLS) {
+            throw new IllegalArgumentException("invalid control count " + count);
+        }
+        if (mTotal < HEADER_SIZE + count * CONTROL_SIZE || mLength > mTotal) {
+            throw new IllegalArgumentException("invalid layout blob length " + mTotal);
+        }
+        d.controls = new ControlInfo[count];
+        mInfo = d;
+        mParsed = HEADER_SIZE;
+    }
+
+    // decode the control at mParsed if all of it is in
+    private boolean parseControl() {
+        final int p = mParsed;
+        if (mLength < p + CONTROL_SIZE) {
+            return false;
+        }
+        final int nameLength = mBlob[p + 14] & 0xFF;
+        if (mLength < p + CONTROL_SIZE + nameLength) {
+            return false;
+        }
+
+        final ControlInfo c = new ControlInfo();
+        c.index = mControls;
+        c.type = ControlInfo.ControlType.getEnum(mBlob[p]);
+        c.color = Brandcolor.fromBLE(mBlob[p + 1]).primary;
+        c.cell = new GridCell(mBlob[p + 2], mBlob[p + 3], mBlob[p + 4], mBlob[p + 5]);
+        c.config = new ControlConfig();
+        c.config.data1 = (short) uint16(p + 6);
+        c.config.data2 = (short) uint16(p + 8);
+        c.config.data3 = (short) uint16(p + 10);
+        c.config.data4 = (short) uint16(p + 12);
+        c.text = (nameLength > 0) ?
+                new String(mBlob, p + CONTROL_SIZE, nameLength, StandardCharsets.UTF_8) : mDefaultName;
+
+        mInfo.controls[mControls] = c;
+        mParsed = p + CONTROL_SIZE + nameLength;
+        return true;
+    }
+
+    private int uint16(int offset) {
+        return (mBlob[offset] & 0xFF) | ((mBlob[offset + 1] & 0xFF) << 8);
+    }
+}
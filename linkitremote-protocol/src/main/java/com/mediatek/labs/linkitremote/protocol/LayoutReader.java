@@ -0,0 +1,240 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads the layout of a board once its services are discovered.
+ *
+ * Boards with rcLayout get their blob read chunk by chunk and decoded as it
+ * arrives, see {@link LayoutDecoder}; older boards get their layout
+ * characteristics read, the ones that size the layout first. All reads go
+ * through one {@link ReadScheduler}, optional ones like the GAP device name
+ * behind the layout.
+ *
+ * Each chunk is selected by offset before it is read, so a failed read is
+ * retried at the same offset. Chunks are sized to the MTU: one byte short of a
+ * whole number of full read responses, so the stack's long read ends without an
+ * extra empty Read Blob round trip. A malformed blob falls back to the layout
+ * characteristics if the board has them.
+ *
+ * Forward every read result of the link here; results of reads this reader did
+ * not issue are ignored.
+ */
+public class LayoutReader implements ReadScheduler.Listener {
+
+    /**
+     * Called on the thread link callbacks run on.
+     */
+    public interface Listener {
+        // all layout characteristics read; decoded is the layout streamed from
+        // rcLayout, null if read from the legacy characteristics
+        void onLayoutRead(Map<UUID, byte[]> values, DeviceInfo decoded);
+
+        void onOptionalRead(UUID characteristic, byte[] value);
+
+        // a required read failed, reading stopped
+        void onReadFailed(UUID characteristic);
+
+        // the rcLayout blob is malformed and the board has no layout characteristics, reading stopped
+        void onLayoutInvalid(String reason);
+    }
+
+    // the layout characteristics, unless the board has rcLayout
+    static private final UUID[] LEGACY_LAYOUT = {
+            RemoteProtocol.rcProtocolVersion,
+            RemoteProtocol.rcControlCount,
+            RemoteProtocol.rcRow,
+            RemoteProtocol.rcCol,
+            RemoteProtocol.rcOrientation,
+            RemoteProtocol.rcControlTypes,
+            RemoteProtocol.rcFrames,
+            RemoteProtocol.rcColors,
+            RemoteProtocol.rcConfigDataArray,
+            RemoteProtocol.rcNames
+    };
+    static private final int[] LEGACY_PRIORITY = {
+            ReadScheduler.PRIORITY_GEOMETRY,
+            ReadScheduler.PRIORITY_GEOMETRY,
+            ReadScheduler.PRIORITY_GEOMETRY,
+            ReadScheduler.PRIORITY_GEOMETRY,
+            ReadScheduler.PRIORITY_GEOMETRY,
+            ReadScheduler.PRIORITY_CONTROLS,
+            ReadScheduler.PRIORITY_CONTROLS,
+            ReadScheduler.PRIORITY_CONTROLS,
+            ReadScheduler.PRIORITY_CONTROLS,
+            ReadScheduler.PRIORITY_NAMES
+    };
+
+    private final GattLink mLink;
+    private final int mChunkSize;
+    private final Listener mListener;
+    private final ReadScheduler mReadScheduler;
+    private final HashMap<UUID, byte[]> mValues = new HashMap<>();
+    private LayoutDecoder mDecoder;     // while the rcLayout blob is read
+    private int mChunkReads = 0;
+    private int mRequested;             // length of the chunk selected last
+
+    /**
+     * mtu is the ATT MTU of the link. Controls without a name get defaultName.
+     */
+    public LayoutReader(GattLink link, Scheduler scheduler, int mtu, String defaultName, Listener listener) {
+        mLink = link;
+        mChunkSize = chunkSize(mtu);
+        mListener = listener;
+        mReadScheduler = new ReadScheduler(link, scheduler, this);
+
+        if (link.hasCharacteristic(RemoteProtocol.rcService, RemoteProtocol.rcLayout)) {
+            mDecoder = new LayoutDecoder(defaultName);
+            addChunkRead();
+        } else {
+            addLegacyReads();
+        }
+    }
+
+    // the rcEventArray characteristic and a layout, as blob or legacy characteristics
+    public static boolean hasRequiredCharacteristics(GattLink link) {
+        if (!link.hasCharacteristic(RemoteProtocol.rcService, RemoteProtocol.rcEventArray)) {
+            return false;
+        }
+        return link.hasCharacteristic(RemoteProtocol.rcService, RemoteProtocol.rcLayout) || hasLegacyLayout(link);
+    }
+
+    // the board has every layout characteristic older boards have
+    public static boolean hasLegacyLayout(GattLink link) {
+        for (UUID uuid : LEGACY_LAYOUT) {
+            if (!link.hasCharacteristic(RemoteProtocol.rcService, uuid)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // rcLayout bytes to read at a time with the ATT MTU mtu
+    public static int chunkSize(int mtu) {
+        final int payload = Math.min(mtu - 1, LayoutDecoder.MAX_CHUNK_SIZE);
+        return Math.max(1, (LayoutDecoder.MAX_CHUNK_SIZE + 1) / payload) * payload - 1;
+    }
+
+    // read characteristic once the layout is in, reported to onOptionalRead()
+    public synchronized void addOptional(UUID service, UUID characteristic) {
+        mReadScheduler.add(service, characteristic, ReadScheduler.PRIORITY_OPTIONAL, false);
+    }
+
+    public synchronized void start() {
+        mReadScheduler.start();
+    }
+
+    public synchronized void cancel() {
+        mReadScheduler.cancel();
+    }
+
+    // rcLayout reads so far, 0 for legacy boards
+    public synchronized int getChunkReadCount() {
+        return mChunkReads;
+    }
+
+    public ReadScheduler getReadScheduler() {
+        return mReadScheduler;
+    }
+
+    /**
+     * Forwarded from GattLink.Callback.onCharacteristicWrite, for the chunk
+     * selection. Returns false if the result does not belong to this reader.
+     */
+    public synchronized boolean onCharacteristicWrite(UUID characteristic, int status) {
+        return mReadScheduler.onCharacteristicWrite(characteristic, status);
+    }
+
+    /**
+     * Forwarded from GattLink.Callback.onCharacteristicRead. Returns false if the
+     * result does not belong to a read of this reader.
+     */
+    public synchronized boolean onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+        final boolean success = (status == GattLink.GATT_SUCCESS);
+        if (success) {
+            if (mDecoder != null && RemoteProtocol.rcLayout.equals(characteristic)) {
+                if (!onLayoutChunk(value)) {
+                    // reading stopped with this chunk
+                    return true;
+                }
+            } else if (isLayout(characteristic)) {
+                mValues.put(characteristic, value);
+            } else {
+                mListener.onOptionalRead(characteristic, value);
+            }
+        }
+        return mReadScheduler.onCharacteristicRead(characteristic, success);
+    }
+
+    @Override
+    public void onRequiredReadsComplete() {
+        final DeviceInfo decoded = (null != mDecoder) ? mDecoder.getDeviceInfo() : null;
+        mListener.onLayoutRead(new HashMap<>(mValues), decoded);
+    }
+
+    @Override
+    public void onReadFailed(UUID characteristic) {
+        mListener.onReadFailed(characteristic);
+    }
+
+    private void addLegacyReads() {
+        for (int i = 0; i < LEGACY_LAYOUT.length; ++i) {
+            mReadScheduler.add(RemoteProtocol.rcService, LEGACY_LAYOUT[i], LEGACY_PRIORITY[i], true);
+        }
+    }
+
+    // select and read the next chunk, no further than the end of the blob once known
+    private void addChunkRead() {
+        final int offset = mDecoder.getLength();
+        final int total = mDecoder.getTotal();
+        mRequested = (total >= 0) ? Math.min(mChunkSize, total - offset) : mChunkSize;
+        mChunkReads += 1;
+        mReadScheduler.add(RemoteProtocol.rcService, RemoteProtocol.rcLayout, ReadScheduler.PRIORITY_GEOMETRY, true,
+                LayoutDecoder.select(offset, mRequested));
+    }
+
+    // a chunk of the layout blob arrived, queue the next read until it is complete
+    // returns false if the blob is invalid and reading stopped
+    private boolean onLayoutChunk(byte[] chunk) {
+        try {
+            if (chunk == null || chunk.length == 0 || chunk.length > mRequested) {
+                throw new IllegalArgumentException("layout chunk of " + (chunk == null ? 0 : chunk.length)
+                        + " bytes for " + mRequested + " requested at " + mDecoder.getLength());
+            }
+            mDecoder.feed(chunk, 0, chunk.length);
+            if (!mDecoder.isComplete() && chunk.length < mRequested) {
+                throw new IllegalArgumentException("layout blob ends at " + mDecoder.getLength() + " bytes");
+            }
+        } catch (IllegalArgumentException e) {
+            mDecoder = null;
+            if (hasLegacyLayout(mLink)) {
+                // the reads queued here keep the scheduler going after this one
+                addLegacyReads();
+                return true;
+            }
+            mReadScheduler.cancel();
+            mListener.onLayoutInvalid(e.getMessage());
+            return false;
+        }
+        if (mDecoder.isComplete()) {
+            mValues.put(RemoteProtocol.rcLayout, mDecoder.getBytes());
+        } else {
+            addChunkRead();
+        }
+        return true;
+    }
+
+    private boolean isLayout(UUID characteristic) {
+        if (RemoteProtocol.rcLayout.equals(characteristic)) {
+            return true;
+        }
+        for (UUID uuid : LEGACY_LAYOUT) {
+            if (uuid.equals(characteristic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
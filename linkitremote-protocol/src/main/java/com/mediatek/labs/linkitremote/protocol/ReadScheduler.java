@@ -0,0 +1,226 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Reads characteristics one at a time, in a fixed priority order.
+ *
+ * Android rejects a read while another GATT operation is pending, so reads are
+ * issued strictly one after another from onCharacteristicRead. Lower priority
+ * values are read first; reads of equal priority keep the order they were added.
+ * A read that is rejected or fails is retried with exponential backoff.
+ *
+ * A read may come with a select value, written without response to the same
+ * characteristic right before each attempt, e.g. the window of an rcLayout chunk.
+ *
+ * The listener is told once every required read has completed, even if optional
+ * reads are still queued behind them. The time each successful read took, from
+ * its last attempt to its result, is kept in a histogram.
+ */
+public class ReadScheduler {
+    // layout discovery order, see LayoutReader
+    public static final int PRIORITY_GEOMETRY = 0;    // version, count, row, col, orientation
+    public static final int PRIORITY_CONTROLS = 1;    // types, frames, colors, config
+    public static final int PRIORITY_NAMES = 2;       // control names
+    public static final int PRIORITY_OPTIONAL = 3;    // e.g. GAP device name
+
+    public static final int MAX_ATTEMPTS = 4;
+    public static final long RETRY_BASE_DELAY_MS = 25;
+
+    public interface Listener {
+        // all required reads completed, called once
+        void onRequiredReadsComplete();
+
+        // a required read failed MAX_ATTEMPTS times, scheduling stops
+        void onReadFailed(UUID characteristic);
+    }
+
+    private static class Read {
+        UUID service;
+        UUID characteristic;
+        int priority;
+        boolean required;
+        byte[] select;          // written before each attempt, or null
+        boolean selected;       // the select write of this attempt completed
+        int attempts;
+        long startTime;
+    }
+
+    private final GattLink mLink;
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+    private final ArrayList<Read> mReads = new ArrayList<>();
+    private Read mCurrent;
+    private int mRequiredPending = 0;
+    private long mStartTime;
+    private long mRequiredTime = -1;
+    private final LatencyHistogram mReadTimes = new LatencyHistogram();
+    private boolean mStarted = false;
+    private boolean mCancelled = false;
+
+    private final Runnable mRetry = new Runnable() {
+        @Override
+        public void run() {
+            issueNext();
+        }
+    };
+
+    public ReadScheduler(GattLink link, Scheduler scheduler, Listener listener) {
+        mLink = link;
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    /**
+     * Queue a read. Reads added after start(), e.g. the next chunk of rcLayout,
+     * go behind queued reads of the same or lower priority value. They are issued
+     * when the current read completes, so add them from onCharacteristicRead
+     * before forwarding it here.
+     */
+    public synchronized void add(UUID service, UUID characteristic, int priority, boolean required) {
+        add(service, characteristic, priority, required, null);
+    }
+
+    // like add(), with select written to the characteristic before each attempt
+    public synchronized void add(UUID service, UUID characteristic, int priority, boolean required,
+                                 byte[] select) {
+        Read r = new Read();
+        r.service = service;
+        r.characteristic = characteristic;
+        r.priority = priority;
+        r.required = required;
+        r.select = select;
+        int position = mReads.size();
+        if (mStarted) {
+            while (position > 0 && mReads.get(position - 1).priority > priority) {
+                position -= 1;
+            }
+        }
+        mReads.add(position, r);
+        if (required) {
+            mRequiredPending += 1;
+        }
+    }
+
+    public synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mStartTime = mScheduler.now();
+
+        // stable sort keeps insertion order within a priority
+        Collections.sort(mReads, new Comparator<Read>() {
+            @Override
+            public int compare(Read a, Read b) {
+                return a.priority - b.priority;
+            }
+        });
+        issueNext();
+    }
+
+    public synchronized void cancel() {
+        mCancelled = true;
+        mScheduler.removeCallbacks(mRetry);
+        mReads.clear();
+        mCurrent = null;
+    }
+
+    /**
+     * Forwarded from GattLink.Callback.onCharacteristicRead. Returns false if
+     * the result does not belong to the read this scheduler issued.
+     */
+    public synchronized boolean onCharacteristicRead(UUID characteristic, boolean success) {
+        if (mCancelled || mCurrent == null || !mCurrent.characteristic.equals(characteristic)
+                || (mCurrent.select != null && !mCurrent.selected)) {
+            return false;
+        }
+
+        final Read r = mCurrent;
+        mCurrent = null;
+        if (!success) {
+            retry(r);
+            return true;
+        }
+
+        mReadTimes.record(mScheduler.now() - r.startTime);
+        if (r.required) {
+            mRequiredPending -= 1;
+            if (mRequiredPending == 0) {
+                mRequiredTime = mScheduler.now() - mStartTime;
+                mListener.onRequiredReadsComplete();
+            }
+        }
+        issueNext();
+        return true;
+    }
+
+    /**
+     * Forwarded from GattLink.Callback.onCharacteristicWrite. Returns false if
+     * the result is not of the select write this scheduler issued.
+     */
+    public synchronized boolean onCharacteristicWrite(UUID characteristic, int status) {
+        if (mCancelled || mCurrent == null || !mCurrent.characteristic.equals(characteristic)
+                || mCurrent.select == null || mCurrent.selected) {
+            return false;
+        }
+
+        final Read r = mCurrent;
+        r.selected = true;
+        if (status != GattLink.GATT_SUCCESS || !mLink.readCharacteristic(r.service, r.characteristic)) {
+            mCurrent = null;
+            retry(r);
+        }
+        return true;
+    }
+
+    // microseconds from start() until the required reads completed, -1 until then
+    public synchronized long getRequiredTime() {
+        return mRequiredTime;
+    }
+
+    // microseconds each successful read took
+    public synchronized LatencyHistogram getReadTimes() {
+        final LatencyHistogram copy = new LatencyHistogram();
+        copy.add(mReadTimes);
+        return copy;
+    }
+
+    private synchronized void issueNext() {
+        if (mCancelled || mCurrent != null || mReads.isEmpty()) {
+            return;
+        }
+
+        final Read r = mReads.remove(0);
+        r.attempts += 1;
+        r.startTime = mScheduler.now();
+        r.selected = false;
+        mCurrent = r;
+        final boolean initiated = (r.select != null) ?
+                mLink.writeCharacteristic(r.service, r.characteristic, r.select, true) :
+                mLink.readCharacteristic(r.service, r.characteristic);
+        if (!initiated) {
+            mCurrent = null;
+            retry(r);
+        }
+    }
+
+    private void retry(Read r) {
+        if (r.attempts >= MAX_ATTEMPTS) {
+            if (r.required) {
+                mCancelled = true;
+                mListener.onReadFailed(r.characteristic);
+            } else {
+                issueNext();
+            }
+            return;
+        }
+
+        // retry ahead of everything else, after a growing delay
+        mReads.add(0, r);
+        mScheduler.postDelayed(mRetry, RETRY_BASE_DELAY_MS << (r.attempts - 1));
+    }
+}
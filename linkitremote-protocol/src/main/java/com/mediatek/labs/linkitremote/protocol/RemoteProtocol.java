@@ -0,0 +1,32 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.util.UUID;
+
+/**
+ * Wire constants of the LinkIt Remote GATT service, shared with the board firmware.
+ */
+public final class RemoteProtocol {
+    public static final int PROTOCOL_VERSION = 3;
+    public static final int PROTOCOL_VERSION_BATCH = 4;    // accepts several event frames per rcEventArray write
+
+    // reserved control index: boards echo events to it back, see EchoProbe
+    public static final int ECHO_INDEX = 0xFF;
+
+    public static final UUID rcService = UUID.fromString("3f60ab39-1710-4456-930c-7e9c9539917e");
+    public static final UUID rcControlCount = UUID.fromString("3f60ab39-1711-4456-930c-7e9c9539917e");
+    public static final UUID rcControlTypes = UUID.fromString("3f60ab39-1712-4456-930c-7e9c9539917e");
+    public static final UUID rcRow = UUID.fromString("3f60ab39-1713-4456-930c-7e9c9539917e");
+    public static final UUID rcCol = UUID.fromString("3f60ab39-1714-4456-930c-7e9c9539917e");
+    public static final UUID rcColors = UUID.fromString("3f60ab39-1715-4456-930c-7e9c9539917e"); // Array of UINT8, enum of
+    public static final UUID rcFrames = UUID.fromString("3f60ab39-1716-4456-930c-7e9c9539917e"); // Array of UINT8[4],  = UUID.fromString(x,
+    public static final UUID rcNames = UUID.fromString("3f60ab39-1717-4456-930c-7e9c9539917e"); // String of control names,
+    public static final UUID rcEventArray = UUID.fromString("b5d2ff7b-6eff-4fb5-9b72-6b9cff5181e7"); // Array of UINT8[4],
+    public static final UUID rcConfigDataArray = UUID.fromString("5d7a63ff-4155-4c7c-a348-1c0a323a6383");
+    public static final UUID rcOrientation = UUID.fromString("203fbbcd-9967-4eba-b0ff-0f72e5a634eb"); // 0: portrait, 1: landscape
+    public static final UUID rcProtocolVersion = UUID.fromString("ae73266e-65d4-4023-8868-88b070d5d576"); // protocol version, to ensure version match between arduino and mobile.
+    public static final UUID rcUIUpdate = UUID.fromString("e4b1ddfe-eb37-4c78-aba8-c5fa944775cb"); // variable-length structure for UI Label text update
+    public static final UUID rcLayout = UUID.fromString("3f60ab39-1718-4456-930c-7e9c9539917e"); // whole layout in one blob, read in chunks, see LayoutDecoder
+
+    private RemoteProtocol() {
+    }
+}
@@ -0,0 +1,180 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Scanned devices by address, in the order they were first seen.
+ *
+ * Lookups go through a map, so a scan result costs O(1) regardless of how many
+ * boards advertise nearby. RSSI is smoothed with an exponential moving average,
+ * and a device only counts as changed when its displayed, rounded RSSI or its name
+ * changes. Changes accumulate until the list is refreshed: appended or removed
+ * devices mark the structure changed, anything else only the changed entries.
+ * Devices not seen for maxAge are dropped by removeStale().
+ *
+ * Times are in milliseconds from the same monotonic clock. Not thread safe.
+ */
+public class ScanStore<T> {
+
+    public static final double DEFAULT_RSSI_ALPHA = 0.25;
+
+    public static class Entry<T> {
+        public final String address;
+        public T value;             // latest scan result
+        public String name;
+        public long firstSeen;
+        public long lastSeen;
+        public int updates;
+        double mRssi;               // smoothed
+        int mPosition;
+        boolean mChanged;
+
+        Entry(String address) {
+            this.address = address;
+        }
+
+        // smoothed RSSI, rounded to whole dBm for display
+        public int getRssi() {
+            return (int) Math.round(mRssi);
+        }
+
+        public int getPosition() {
+            return mPosition;
+        }
+    }
+
+    private final double mAlpha;
+    private final long mMaxAge;
+    private final HashMap<String, Entry<T>> mByAddress = new HashMap<>();
+    private final ArrayList<Entry<T>> mEntries = new ArrayList<>();
+    private final ArrayList<Entry<T>> mChanged = new ArrayList<>();
+    private boolean mStructureChanged = false;
+
+    /**
+     * alpha is the weight of a new RSSI sample, 1 disables smoothing.
+     */
+    public ScanStore(double alpha, long maxAge) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha out of range: " + alpha);
+        }
+        mAlpha = alpha;
+        mMaxAge = maxAge;
+    }
+
+    /**
+     * Record a scan result of the device at address. Returns true for a new device.
+     */
+    public boolean update(String address, String name, int rssi, T value, long now) {
+        Entry<T> e = mByAddress.get(address);
+        final boolean added = (e == null);
+        if (added) {
+            e = new Entry<>(address);
+            e.firstSeen = now;
+            e.mRssi = rssi;
+            e.mPosition = mEntries.size();
+            mByAddress.put(address, e);
+            mEntries.add(e);
+            mStructureChanged = true;
+        }
+
+        final int shown = e.getRssi();
+        if (!added) {
+            e.mRssi += mAlpha * (rssi - e.mRssi);
+        }
+        final boolean nameChanged = (name != null) && !name.equals(e.name);
+        if (nameChanged) {
+            e.name = name;
+        }
+        e.value = value;
+        e.lastSeen = now;
+        e.updates += 1;
+
+        if (!added && (nameChanged || e.getRssi() != shown)) {
+            markChanged(e);
+        }
+        return added;
+    }
+
+    /**
+     * Drop devices not seen since now - maxAge. Returns the number removed.
+     */
+    public int removeStale(long now) {
+        int kept = 0;
+        for (int i = 0; i < mEntries.size(); ++i) {
+            final Entry<T> e = mEntries.get(i);
+            if (now - e.lastSeen > mMaxAge) {
+                mByAddress.remove(e.address);
+                continue;
+            }
+            e.mPosition = kept;
+            mEntries.set(kept++, e);
+        }
+
+        final int removed = mEntries.size() - kept;
+        if (removed > 0) {
+            mEntries.subList(kept, mEntries.size()).clear();
+            mStructureChanged = true;
+        }
+        return removed;
+    }
+
+    public void clear() {
+        mByAddress.clear();
+        mEntries.clear();
+        mStructureChanged = true;
+        clearChangedEntries();
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public Entry<T> get(int position) {
+        return mEntries.get(position);
+    }
+
+    // null if the device is not in the store
+    public Entry<T> find(String address) {
+        return mByAddress.get(address);
+    }
+
+    public boolean hasChanges() {
+        return mStructureChanged || !mChanged.isEmpty();
+    }
+
+    /**
+     * Whether devices were added or removed since the last clearChanges().
+     * Positions of entries may have moved.
+     */
+    public boolean isStructureChanged() {
+        return mStructureChanged;
+    }
+
+    /**
+     * Entries whose displayed values changed since the last clearChanges().
+     */
+    public List<Entry<T>> getChanged() {
+        return mChanged;
+    }
+
+    public void clearChanges() {
+        mStructureChanged = false;
+        clearChangedEntries();
+    }
+
+    private void markChanged(Entry<T> e) {
+        if (!e.mChanged) {
+            e.mChanged = true;
+            mChanged.add(e);
+        }
+    }
+
+    private void clearChangedEntries() {
+        for (int i = 0; i < mChanged.size(); ++i) {
+            mChanged.get(i).mChanged = false;
+        }
+        mChanged.clear();
+    }
+}
@@ -0,0 +1,16 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+/**
+ * Clock and delayed tasks of the thread link callbacks run on.
+ *
+ * The app backs it with a Handler and the monotonic clock, the simulator with
+ * its virtual time, so retries and timeouts run the same code in both.
+ */
+public interface Scheduler {
+    // monotonic time in microseconds
+    long now();
+
+    void postDelayed(Runnable task, long delayMs);
+
+    void removeCallbacks(Runnable task);
+}
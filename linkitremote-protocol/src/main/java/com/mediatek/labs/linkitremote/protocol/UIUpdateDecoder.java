@@ -0,0 +1,89 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes rcUIUpdate notifications without allocating on the repeat path.
+ *
+ * A notification is the control index, a data size, then dataSize bytes of
+ * null-terminated UTF-8 label text. The decoder remembers the raw text last seen
+ * for each control, so a board that keeps sending the same sensor value costs a
+ * byte comparison instead of a new String.
+ *
+ * Not thread safe; call it from the GATT callback thread only.
+ */
+public class UIUpdateDecoder {
+    public static final int HEADER_SIZE = 2;       // control index, data size
+
+    static private final int MAX_CONTROLS = 256;
+
+    private final byte[][] mLastText = new byte[MAX_CONTROLS][];
+    private final int[] mLastLength = new int[MAX_CONTROLS];
+    private int mIndex = -1;
+    private int mLength = 0;
+
+    /**
+     * Decode a notification value. Returns true if it is well formed and its text
+     * differs from the last one decoded for the same control.
+     */
+    public boolean decode(byte[] value) {
+        mIndex = -1;
+        if (value == null || value.length < HEADER_SIZE) {
+            return false;
+        }
+
+        final int index = value[0] & 0xFF;
+        final int dataSize = value[1] & 0xFF;
+        // dataSize includes the null terminator
+        final int length = dataSize - 1;
+        if (length < 0 || HEADER_SIZE + length > value.length) {
+            return false;
+        }
+
+        byte[] last = mLastText[index];
+        if (last != null && mLastLength[index] == length && regionEquals(value, HEADER_SIZE, last, length)) {
+            return false;
+        }
+
+        if (last == null || last.length < length) {
+            last = new byte[Math.max(length, 16)];
+            mLastText[index] = last;
+        }
+        System.arraycopy(value, HEADER_SIZE, last, 0, length);
+        mLastLength[index] = length;
+
+        mIndex = index;
+        mLength = length;
+        return true;
+    }
+
+    // control index of the last successful decode()
+    public int getIndex() {
+        return mIndex;
+    }
+
+    // label text of the last successful decode()
+    public String getText() {
+        if (mIndex < 0) {
+            return null;
+        }
+        return new String(mLastText[mIndex], 0, mLength, StandardCharsets.UTF_8);
+    }
+
+    // forget all remembered texts, e.g. when the layout is rebuilt
+    public void reset() {
+        for (int i = 0; i < MAX_CONTROLS; ++i) {
+            mLastLength[i] = -1;
+        }
+        mIndex = -1;
+    }
+
+    private static boolean regionEquals(byte[] a, int offset, byte[] b, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (a[offset + i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decoding of the layout characteristics, including malformed input.
+ */
+public class DeviceInfoParserTest {
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+
+    // a 2 x 2 grid with a slider and an unnamed label
+    private static Map<UUID, byte[]> layout() {
+        Map<UUID, byte[]> values = new HashMap<>();
+        values.put(RemoteProtocol.rcProtocolVersion, int32(RemoteProtocol.PROTOCOL_VERSION_BATCH));
+        values.put(RemoteProtocol.rcRow, int32(2));
+        values.put(RemoteProtocol.rcCol, int32(2));
+        values.put(RemoteProtocol.rcOrientation, int32(1));
+        values.put(RemoteProtocol.rcControlCount, int32(2));
+        values.put(RemoteProtocol.rcControlTypes, new byte[]{5, 1});
+        values.put(RemoteProtocol.rcColors, new byte[]{3, 6});
+        values.put(RemoteProtocol.rcFrames, new byte[]{0, 0, 2, 1, 1, 1, 1, 1});
+        values.put(RemoteProtocol.rcConfigDataArray, ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN)
+                .putShort((short) -10).putShort((short) 300).putShort((short) 5).putShort((short) 0)
+                .array());
+        values.put(RemoteProtocol.rcNames, "Speed".getBytes(StandardCharsets.UTF_8));
+        return values;
+    }
+
+    @Test
+    public void parse_decodesLayout() throws Exception {
+        DeviceInfo d = DeviceInfoParser.parse(layout(), "no name");
+
+        assertEquals(RemoteProtocol.PROTOCOL_VERSION_BATCH, d.protocolVersion);
+        assertEquals(2, d.row);
+        assertEquals(2, d.col);
+        assertTrue(d.isLandscape);
+        assertEquals(2, d.controls.length);
+
+        ControlInfo slider = d.controls[0];
+        assertEquals(ControlInfo.ControlType.slider, slider.type);
+        assertEquals(Brandcolor.blue.primary, slider.color);
+        assertEquals(new GridCell(0, 0, 2, 1), slider.cell);
+        assertEquals("Speed", slider.text);
+        assertEquals(-10, slider.config.data1);
+        assertEquals(300, slider.config.data2);
+        assertEquals(5, slider.config.data3);
+
+        ControlInfo label = d.controls[1];
+        assertEquals(1, label.index);
+        assertEquals(ControlInfo.ControlType.label, label.type);
+        assertEquals(new GridCell(1, 1, 1, 1), label.cell);
+        assertEquals("no name", label.text);
+    }
+
+    @Test
+    public void parse_emptyValues_returnsNull() throws Exception {
+        assertNull(DeviceInfoParser.parse(new HashMap<UUID, byte[]>(), "no name"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_shortControlArray_throws() throws Exception {
+        Map<UUID, byte[]> values = layout();
+        values.put(RemoteProtocol.rcFrames, new byte[]{0, 0, 2, 1});
+        DeviceInfoParser.parse(values, "no name");
+    }
+
+    @Test
+    public void fuzz_malformedValues_throwOnlyIllegalArgument() throws Exception {
+        final Random random = new Random(42);
+        final List<UUID> keys = new ArrayList<>(layout().keySet());
+
+        for (int round = 0; round < 5000; ++round) {
+            Map<UUID, byte[]> values = layout();
+            final UUID key = keys.get(random.nextInt(keys.size()));
+            if (random.nextInt(4) == 0) {
+                values.remove(key);
+            } else {
+                final byte[] value = new byte[random.nextInt(12)];
+                random.nextBytes(value);
+                values.put(key, value);
+            }
+
+            try {
+                DeviceInfo d = DeviceInfoParser.parse(values, "no name");
+                assertTrue(d.row >= 1 && d.col >= 1);
+                for (ControlInfo c : d.controls) {
+                    assertNotNull(c.type);
+                    assertNotNull(c.text);
+                }
+            } catch (IllegalArgumentException e) {
+                // rejected, which is fine
+            }
+        }
+    }
+}
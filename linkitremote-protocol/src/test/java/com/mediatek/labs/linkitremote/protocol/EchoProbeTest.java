@@ -0,0 +1,75 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Matching of echo notifications to probe frames.
+ */
+public class EchoProbeTest {
+
+    private static byte[] uiUpdate(int index, String text) {
+        final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] value = new byte[UIUpdateDecoder.HEADER_SIZE + utf8.length + 1];
+        value[0] = (byte) index;
+        value[1] = (byte) (utf8.length + 1);
+        System.arraycopy(utf8, 0, value, UIUpdateDecoder.HEADER_SIZE, utf8.length);
+        return value;
+    }
+
+    @Test
+    public void parseEcho() throws Exception {
+        assertEquals(0, EchoProbe.parseEcho(uiUpdate(RemoteProtocol.ECHO_INDEX, "0")));
+        assertEquals(255, EchoProbe.parseEcho(uiUpdate(RemoteProtocol.ECHO_INDEX, "255")));
+        assertEquals(-1, EchoProbe.parseEcho(uiUpdate(RemoteProtocol.ECHO_INDEX, "256")));
+        assertEquals(-1, EchoProbe.parseEcho(uiUpdate(RemoteProtocol.ECHO_INDEX, "")));
+        assertEquals(-1, EchoProbe.parseEcho(uiUpdate(RemoteProtocol.ECHO_INDEX, "1a")));
+        assertEquals(-1, EchoProbe.parseEcho(uiUpdate(3, "12")));
+        assertEquals(-1, EchoProbe.parseEcho(null));
+    }
+
+    @Test
+    public void rttAndJitter() throws Exception {
+        EchoProbe probe = new EchoProbe(1000);
+        probe.onSent(10, 0);
+        probe.onSent(11, 100);
+        probe.onEcho(10, 50);
+        probe.onEcho(11, 182);
+
+        assertEquals(2, probe.getSentCount());
+        assertEquals(2, probe.getReceivedCount());
+        assertEquals(50, probe.getRtt().getMin());
+        assertEquals(82, probe.getRtt().getMax());
+        assertEquals(2, probe.getJitter());     // 32 / 16
+    }
+
+    @Test
+    public void lossAndLateEchoes() throws Exception {
+        EchoProbe probe = new EchoProbe(1000);
+        probe.onSent(1, 0);
+        probe.onSent(2, 0);
+        probe.onEcho(2, 500);
+        assertEquals(1, probe.expire(900));
+        assertEquals(0, probe.expire(1500));
+
+        probe.onEcho(1, 1600);          // too late
+        probe.onEcho(2, 1600);          // duplicate
+        assertEquals(1, probe.getLostCount());
+        assertEquals(1, probe.getReceivedCount());
+        assertEquals(2, probe.getUnmatchedCount());
+    }
+
+    @Test
+    public void sequenceWrap_countsOverdueAsLost() throws Exception {
+        EchoProbe probe = new EchoProbe(1000);
+        probe.onSent(7, 0);
+        probe.onSent(7 + 256, 10);
+        probe.onEcho(7, 30);
+
+        assertEquals(1, probe.getLostCount());
+        assertEquals(20, probe.getRtt().getMax());
+    }
+}
@@ -0,0 +1,125 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip and fuzz tests for the batched rcEventArray frame format.
+ */
+public class EventBatchTest {
+
+    private static class Collector implements EventDecoder.Listener {
+        final List<int[]> events = new ArrayList<>();
+
+        @Override
+        public void onEvent(int seq, int index, int event, int data) {
+            events.add(new int[]{seq, index, event, data});
+        }
+    }
+
+    @Test
+    public void singleFrame_matchesVersion3Layout() throws Exception {
+        EventPacker packer = new EventPacker(1);
+        packer.add((byte)7, 3, ControlEvent.valueChange, 0x1234);
+
+        assertArrayEquals(new byte[]{7, 3, ControlEvent.valueChange, 0, 0x34, 0x12}, packer.pack());
+    }
+
+    @Test
+    public void capacity_followsMtu() throws Exception {
+        assertEquals(3, EventPacker.capacityForMtu(EventPacker.DEFAULT_MTU));
+        assertEquals(40, EventPacker.capacityForMtu(247));
+        assertEquals(1, EventPacker.capacityForMtu(5));
+    }
+
+    @Test
+    public void roundTrip_preservesOrderAndValues() throws Exception {
+        EventPacker packer = new EventPacker(3);
+        packer.add((byte)0, 0, ControlEvent.valueChange, 1);
+        packer.add((byte)1, 254, ControlEvent.valueChange, -100);
+        packer.add((byte)2, 5, ControlEvent.btnUp, 0);
+        assertTrue(packer.isFull());
+
+        Collector c = new Collector();
+        assertEquals(3, EventDecoder.decode(packer.pack(), c));
+        assertEquals(0, packer.getCount());
+
+        assertArrayEquals(new int[]{0, 0, ControlEvent.valueChange, 1}, c.events.get(0));
+        assertArrayEquals(new int[]{1, 254, ControlEvent.valueChange, -100}, c.events.get(1));
+        assertArrayEquals(new int[]{2, 5, ControlEvent.btnUp, 0}, c.events.get(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void add_rejectsOverflow() throws Exception {
+        EventPacker packer = new EventPacker(1);
+        packer.add((byte)0, 0, ControlEvent.valueChange, 0);
+        packer.add((byte)1, 0, ControlEvent.valueChange, 0);
+    }
+
+    @Test
+    public void decode_rejectsPartialFrames() throws Exception {
+        Collector c = new Collector();
+        for (int length = 0; length < 20; ++length) {
+            if (length > 0 && length % EventPacker.FRAME_SIZE == 0) {
+                continue;
+            }
+            try {
+                EventDecoder.decode(new byte[length], c);
+                fail("accepted length " + length);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertTrue(c.events.isEmpty());
+    }
+
+    @Test
+    public void fuzz_randomBatchesRoundTrip() throws Exception {
+        Random random = new Random(0x5EED);
+        for (int round = 0; round < 2000; ++round) {
+            final int mtu = 23 + random.nextInt(512 - 23);
+            EventPacker packer = new EventPacker(EventPacker.capacityForMtu(mtu));
+            final int count = 1 + random.nextInt(packer.getCapacity());
+
+            List<int[]> expected = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                final int seq = random.nextInt(256);
+                final int index = random.nextInt(256);
+                final int event = 1 + random.nextInt(3);
+                final int data = random.nextInt(65536) + Short.MIN_VALUE;
+                packer.add((byte)seq, index, (byte)event, data);
+                expected.add(new int[]{seq, index, event, data});
+            }
+
+            final byte[] value = packer.pack();
+            assertTrue(value.length + EventPacker.ATT_WRITE_HEADER_SIZE <= mtu);
+
+            Collector c = new Collector();
+            assertEquals(count, EventDecoder.decode(value, c));
+            for (int i = 0; i < count; ++i) {
+                assertArrayEquals(expected.get(i), c.events.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void fuzz_randomBytesNeverThrowUnexpectedly() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 2000; ++round) {
+            byte[] value = new byte[random.nextInt(64)];
+            random.nextBytes(value);
+            Collector c = new Collector();
+            try {
+                assertEquals(value.length / EventPacker.FRAME_SIZE, EventDecoder.decode(value, c));
+                assertEquals(value.length / EventPacker.FRAME_SIZE, c.events.size());
+            } catch (IllegalArgumentException e) {
+                assertTrue(value.length == 0 || value.length % EventPacker.FRAME_SIZE != 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Queueing, coalescing and retries of rcEventArray writes.
+ */
+public class EventWriterTest {
+    private static final ControlInfo.ControlType SLIDER = ControlInfo.ControlType.slider;
+    private static final ControlInfo.ControlType BUTTON = ControlInfo.ControlType.pushButton;
+
+    private FakeGattLink mLink;
+    private FakeScheduler mScheduler;
+    private int mStalls;
+
+    @Before
+    public void setUp() {
+        mLink = new FakeGattLink();
+        mScheduler = new FakeScheduler();
+        mStalls = 0;
+    }
+
+    private EventWriter writer(byte firstSequence) {
+        final EventWriter writer = new EventWriter(mLink, true, mScheduler, firstSequence);
+        writer.setListener(new EventWriter.Listener() {
+            @Override
+            public void onQueued(int index) {
+            }
+
+            @Override
+            public void onWrite(int count) {
+            }
+
+            @Override
+            public void onWritten(int status) {
+            }
+
+            @Override
+            public void onStalled() {
+                mStalls += 1;
+            }
+        });
+        return writer;
+    }
+
+    // frames of write i as {seq, index, event, data}
+    private List<int[]> frames(int i) {
+        final List<int[]> frames = new ArrayList<>();
+        EventDecoder.decode(mLink.writes.get(i), new EventDecoder.Listener() {
+            @Override
+            public void onEvent(int seq, int index, int event, int data) {
+                frames.add(new int[]{seq, index, event, data});
+            }
+        });
+        return frames;
+    }
+
+    @Test
+    public void coalescesQueuedSliderValues() {
+        final EventWriter writer = writer((byte) 0);
+        writer.send(0, SLIDER, ControlEvent.valueChange, 1, true, 0);
+        writer.send(0, SLIDER, ControlEvent.valueChange, 2, true, 0);
+        writer.send(1, SLIDER, ControlEvent.valueChange, 10, true, 0);
+        writer.send(0, SLIDER, ControlEvent.valueChange, 3, true, 0);
+        writer.send(1, SLIDER, ControlEvent.valueChange, 11, true, 0);
+
+        // the first value is in flight, one per slider waits with its newest value
+        assertEquals(3, writer.getQueueDepth());
+        assertEquals(2, writer.getCoalescedCount());
+
+        writer.onWritten(GattLink.GATT_SUCCESS);
+        writer.onWritten(GattLink.GATT_SUCCESS);
+        writer.onWritten(GattLink.GATT_SUCCESS);
+        assertEquals(3, mLink.writes.size());
+        assertArrayEquals(new int[]{0, 0, ControlEvent.valueChange, 1}, frames(0).get(0));
+        assertArrayEquals(new int[]{1, 0, ControlEvent.valueChange, 3}, frames(1).get(0));
+        assertArrayEquals(new int[]{2, 1, ControlEvent.valueChange, 11}, frames(2).get(0));
+        assertTrue(mLink.withoutResponse.get(0));
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void neverMergesButtonEdges() {
+        final EventWriter writer = writer((byte) 0);
+        writer.setBatchCapacity(2);
+        writer.send(4, BUTTON, ControlEvent.btnDown, 0, false, 0);
+        writer.send(4, BUTTON, ControlEvent.btnUp, 0, false, 0);
+        writer.send(4, BUTTON, ControlEvent.btnDown, 0, false, 0);
+        writer.send(4, BUTTON, ControlEvent.btnUp, 0, false, 0);
+        assertEquals(4, writer.getQueueDepth());
+        assertEquals(0, writer.getCoalescedCount());
+
+        writer.onWritten(GattLink.GATT_SUCCESS);
+        writer.onWritten(GattLink.GATT_SUCCESS);
+        assertEquals(3, mLink.writes.size());
+        final List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < mLink.writes.size(); ++i) {
+            edges.addAll(frames(i));
+        }
+        final byte[] expected = {ControlEvent.btnDown, ControlEvent.btnUp, ControlEvent.btnDown, ControlEvent.btnUp};
+        assertEquals(expected.length, edges.size());
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(i, edges.get(i)[0]);
+            assertEquals(expected[i], edges.get(i)[2]);
+        }
+        // edges need a response
+        assertFalse(mLink.withoutResponse.get(0));
+    }
+
+    @Test
+    public void requeuesRejectedWriteInOrder() {
+        final EventWriter writer = writer((byte) 0);
+        writer.setBatchCapacity(2);
+        mLink.accept = false;
+        writer.send(2, BUTTON, ControlEvent.btnDown, 0, false, 0);
+        writer.send(3, SLIDER, ControlEvent.valueChange, 1, true, 0);
+        writer.send(2, BUTTON, ControlEvent.btnUp, 0, false, 0);
+        // a requeued slider value still takes the newest one
+        writer.send(3, SLIDER, ControlEvent.valueChange, 2, true, 0);
+        assertTrue(mLink.rejected > 0);
+        assertEquals(0, mLink.writes.size());
+        assertEquals(3, writer.getQueueDepth());
+
+        mLink.accept = true;
+        mScheduler.advance(1000);
+        writer.onWritten(GattLink.GATT_SUCCESS);
+        assertEquals(2, mLink.writes.size());
+
+        final List<int[]> first = frames(0);
+        assertEquals(2, first.size());
+        assertArrayEquals(new int[]{0, 2, ControlEvent.btnDown, 0}, first.get(0));
+        assertArrayEquals(new int[]{1, 3, ControlEvent.valueChange, 2}, first.get(1));
+        assertArrayEquals(new int[]{2, 2, ControlEvent.btnUp, 0}, frames(1).get(0));
+    }
+
+    @Test
+    public void continuesSequenceAcrossWriters() {
+        final EventWriter first = writer((byte) 254);
+        first.send(0, BUTTON, ControlEvent.btnDown, 0, false, 0);
+        first.onWritten(GattLink.GATT_SUCCESS);
+        first.send(0, BUTTON, ControlEvent.btnUp, 0, false, 0);
+        first.onWritten(GattLink.GATT_SUCCESS);
+        // in flight when the link dropped
+        first.send(0, BUTTON, ControlEvent.btnDown, 0, false, 0);
+        first.close();
+        assertEquals(0, first.getQueueDepth());
+
+        final EventWriter second = writer(first.getSequence());
+        second.send(0, BUTTON, ControlEvent.btnUp, 0, false, 0);
+        assertEquals(4, mLink.writes.size());
+        assertEquals(254, frames(0).get(0)[0]);
+        assertEquals(255, frames(1).get(0)[0]);
+        // the sequence number wraps, the lost write used up its number
+        assertEquals(0, frames(2).get(0)[0]);
+        assertEquals(1, frames(3).get(0)[0]);
+    }
+
+    @Test
+    public void stallsAfterMaxRetries() {
+        final EventWriter writer = writer((byte) 0);
+        mLink.accept = false;
+        writer.send(0, BUTTON, ControlEvent.btnDown, 0, false, 0);
+
+        mScheduler.advance(10000);
+        assertEquals(1 + EventWriter.MAX_RETRIES, mLink.rejected);
+        assertEquals(1, mStalls);
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(1, writer.getQueueDepth());
+
+        mLink.accept = true;
+        writer.flush();
+        assertEquals(1, mLink.writes.size());
+        assertEquals(1, writer.getQueueDepth());
+        writer.onWritten(GattLink.GATT_SUCCESS);
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void backsOffBetweenRetries() {
+        final EventWriter writer = writer((byte) 0);
+        mLink.accept = false;
+        writer.send(0, BUTTON, ControlEvent.btnDown, 0, false, 0);
+        assertEquals(1, mLink.rejected);
+
+        mScheduler.advance(20);
+        assertEquals(2, mLink.rejected);
+        mScheduler.advance(39);
+        assertEquals(2, mLink.rejected);
+        mScheduler.advance(1);
+        assertEquals(3, mLink.rejected);
+
+        // a write going through starts the backoff over
+        mLink.accept = true;
+        mScheduler.advance(80);
+        assertEquals(1, mLink.writes.size());
+        writer.onWritten(GattLink.GATT_SUCCESS);
+        mLink.accept = false;
+        writer.send(0, BUTTON, ControlEvent.btnUp, 0, false, 0);
+        mScheduler.advance(20);
+        assertEquals(5, mLink.rejected);
+        assertEquals(0, mStalls);
+    }
+
+    @Test
+    public void countsFailedWrites() {
+        final EventWriter writer = writer((byte) 0);
+        writer.send(0, BUTTON, ControlEvent.btnDown, 0, false, 0);
+        writer.onWritten(GattLink.GATT_FAILURE);
+        assertEquals(1, writer.getFailedCount());
+        assertEquals(0, writer.getQueueDepth());
+    }
+}
@@ -0,0 +1,76 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Records the reads and writes issued on a {@link GattLink}; results are fed
+ * back by the test.
+ */
+class FakeGattLink implements GattLink {
+    final List<UUID> reads = new ArrayList<>();
+    final List<byte[]> writes = new ArrayList<>();
+    final List<Boolean> withoutResponse = new ArrayList<>();
+    final Set<UUID> characteristics = new HashSet<>();
+    boolean accept = true;      // initiate operations, otherwise reject them
+    int rejected;
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return accept;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        return accept;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return accept;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        if (!accept) {
+            rejected += 1;
+            return false;
+        }
+        reads.add(characteristic);
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withoutResponse) {
+        if (!accept) {
+            rejected += 1;
+            return false;
+        }
+        writes.add(value.clone());
+        this.withoutResponse.add(withoutResponse);
+        return true;
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        return true;
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID service, UUID characteristic) {
+        return characteristics.contains(characteristic);
+    }
+
+    @Override
+    public int getProperties(UUID service, UUID characteristic) {
+        return characteristics.contains(characteristic) ? PROPERTY_READ : 0;
+    }
+
+    @Override
+    public boolean refreshServices() {
+        return false;
+    }
+}
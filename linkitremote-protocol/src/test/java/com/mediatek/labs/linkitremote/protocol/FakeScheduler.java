@@ -0,0 +1,65 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Scheduler} on a manual clock: tasks run when a test advances past them.
+ */
+class FakeScheduler implements Scheduler {
+    private static class Task {
+        final long time;
+        final Runnable runnable;
+
+        Task(long time, Runnable runnable) {
+            this.time = time;
+            this.runnable = runnable;
+        }
+    }
+
+    private final List<Task> mTasks = new ArrayList<>();
+    private long mNow = 1000000;     // microseconds
+
+    @Override
+    public long now() {
+        return mNow;
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        mTasks.add(new Task(mNow + delayMs * 1000, task));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        for (int i = mTasks.size() - 1; i >= 0; --i) {
+            if (mTasks.get(i).runnable == task) {
+                mTasks.remove(i);
+            }
+        }
+    }
+
+    int getPendingCount() {
+        return mTasks.size();
+    }
+
+    // run the tasks due in the next delayMs, in time order
+    void advance(long delayMs) {
+        final long end = mNow + delayMs * 1000;
+        while (true) {
+            Task next = null;
+            for (Task t : mTasks) {
+                if (t.time <= end && (next == null || t.time < next.time)) {
+                    next = t;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            mTasks.remove(next);
+            mNow = next.time;
+            next.runnable.run();
+        }
+        mNow = end;
+    }
+}
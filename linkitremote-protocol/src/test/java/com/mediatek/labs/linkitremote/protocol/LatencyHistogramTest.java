@@ -0,0 +1,63 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValues_areExact() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 10; ++i) {
+            h.record(i);
+        }
+
+        assertEquals(10, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(10, h.getMax());
+        assertEquals(5, h.getValueAtPercentile(50));
+        assertEquals(10, h.getValueAtPercentile(100));
+        assertEquals(5.5, h.getMean(), 1e-9);
+    }
+
+    @Test
+    public void percentiles_withinBucketPrecision() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        Random random = new Random(7);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = 1000 + random.nextInt(1000000);
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            final long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            final long reported = h.getValueAtPercentile(p);
+            assertTrue(reported >= exact);
+            assertTrue(reported <= exact + exact / 16 + 1);
+        }
+    }
+
+    @Test
+    public void add_mergesCounts() throws Exception {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(100);
+        b.record(5000);
+        b.record(-3);
+
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(0, a.getMin());
+        assertEquals(5000, a.getMax());
+
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,50 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stage split and export of event latency.
+ */
+public class LatencyRecorderTest {
+
+    @Test
+    public void record_splitsStages() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record(ControlInfo.ControlType.pushButton, 1000, 1200, 4200, 9200);
+
+        assertEquals(1, recorder.getCount(ControlInfo.ControlType.pushButton));
+        assertEquals(0, recorder.getCount(ControlInfo.ControlType.slider));
+        assertEquals(200, recorder.get(ControlInfo.ControlType.pushButton, LatencyRecorder.STAGE_INPUT).getMax());
+        assertEquals(3000, recorder.get(ControlInfo.ControlType.pushButton, LatencyRecorder.STAGE_QUEUE).getMax());
+        assertEquals(5000, recorder.get(ControlInfo.ControlType.pushButton, LatencyRecorder.STAGE_ACK).getMax());
+        assertEquals(8200, recorder.get(ControlInfo.ControlType.pushButton, LatencyRecorder.STAGE_TOTAL).getMax());
+    }
+
+    @Test
+    public void writeCsv_onlyTypesWithEvents() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record(ControlInfo.ControlType.slider, 0, 10, 20, 30);
+
+        StringWriter out = new StringWriter();
+        recorder.writeCsv(out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("type,stage,count,min,p50,p90,p99,max,mean", lines[0]);
+        assertEquals("slider,total,1,30,30,30,30,30,30", lines[4]);
+        assertTrue(recorder.getSummary().startsWith("slider n=1"));
+    }
+
+    @Test
+    public void reset_clearsCounts() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record(ControlInfo.ControlType.switchButton, 0, 1, 2, 3);
+        recorder.reset();
+
+        assertEquals(0, recorder.getCount(ControlInfo.ControlType.switchButton));
+        assertEquals("", recorder.getSummary());
+    }
+}
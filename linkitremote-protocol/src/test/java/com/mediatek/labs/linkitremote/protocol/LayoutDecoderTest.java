@@ -0,0 +1,138 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streaming decode of the rcLayout blob, whole and byte by byte.
+ */
+public class LayoutDecoderTest {
+
+    // a 2 x 2 landscape grid with a slider and an unnamed label
+    static byte[] blob() {
+        final byte[] name = "Speed".getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer b = ByteBuffer.allocate(10 + 15 + name.length + 15).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte) LayoutDecoder.FORMAT_VERSION).put((byte) RemoteProtocol.PROTOCOL_VERSION_BATCH)
+                .putShort((short) b.capacity()).put((byte) 2).put((byte) 2).put((byte) 1).put((byte) 0)
+                .putShort((short) 2);
+        b.put((byte) 5).put((byte) 3).put(new byte[]{0, 0, 2, 1})
+                .putShort((short) -10).putShort((short) 300).putShort((short) 5).putShort((short) 0)
+                .put((byte) name.length).put(name);
+        b.put((byte) 1).put((byte) 6).put(new byte[]{1, 1, 1, 1})
+                .putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0)
+                .put((byte) 0);
+        return b.array();
+    }
+
+    static void assertLayout(DeviceInfo d) {
+        assertNotNull(d);
+        assertEquals(RemoteProtocol.PROTOCOL_VERSION_BATCH, d.protocolVersion);
+        assertEquals(2, d.row);
+        assertEquals(2, d.col);
+        assertTrue(d.isLandscape);
+        assertEquals(2, d.controls.length);
+
+        final ControlInfo slider = d.controls[0];
+        assertEquals(ControlInfo.ControlType.slider, slider.type);
+        assertEquals(new GridCell(0, 0, 2, 1), slider.cell);
+        assertEquals("Speed", slider.text);
+        assertEquals(-10, slider.config.data1);
+        assertEquals(300, slider.config.data2);
+        assertEquals(5, slider.config.data3);
+
+        final ControlInfo label = d.controls[1];
+        assertEquals(1, label.index);
+        assertEquals(ControlInfo.ControlType.label, label.type);
+        assertEquals("no name", label.text);
+    }
+
+    @Test
+    public void decodesWholeBlob() {
+        assertLayout(LayoutDecoder.decode(blob(), "no name"));
+
+        // DeviceInfoParser prefers the blob over the legacy characteristics
+        final Map<UUID, byte[]> values = new HashMap<>();
+        values.put(RemoteProtocol.rcLayout, blob());
+        assertLayout(DeviceInfoParser.parse(values, "no name"));
+        assertEquals(RemoteProtocol.PROTOCOL_VERSION_BATCH, DeviceInfoParser.readProtocolVersion(values));
+    }
+
+    @Test
+    public void decodesControlsAsBytesArrive() {
+        final byte[] blob = blob();
+        final LayoutDecoder decoder = new LayoutDecoder("no name");
+        for (int i = 0; i < blob.length; ++i) {
+            assertNull(decoder.getDeviceInfo());
+            decoder.feed(blob, i, 1);
+            if (i < 10 + 15 + 5 - 1) {
+                assertEquals(0, decoder.getControlCount());
+            } else if (i < blob.length - 1) {
+                assertEquals(1, decoder.getControlCount());
+            }
+        }
+        assertTrue(decoder.isComplete());
+        assertEquals(2, decoder.getControlCount());
+        assertLayout(decoder.getDeviceInfo());
+        assertArrayEquals(blob, decoder.getBytes());
+    }
+
+    @Test
+    public void tracksChunkOffsets() {
+        final byte[] blob = blob();
+        final LayoutDecoder decoder = new LayoutDecoder("no name");
+        assertEquals(0, decoder.getLength());
+        assertEquals(-1, decoder.getTotal());
+
+        decoder.feed(blob, 0, 8);
+        assertEquals(8, decoder.getLength());
+        assertEquals(-1, decoder.getTotal());
+        decoder.feed(blob, 8, 8);
+        assertEquals(blob.length, decoder.getTotal());
+        decoder.feed(blob, 16, blob.length - 16);
+        assertTrue(decoder.isComplete());
+        assertLayout(decoder.getDeviceInfo());
+
+        assertArrayEquals(new byte[]{0x34, 0x12, (byte) 0xEB, 0x01}, LayoutDecoder.select(0x1234, 491));
+    }
+
+    @Test
+    public void rejectsMalformedBlobs() {
+        final byte[] blob = blob();
+
+        final byte[] version = blob.clone();
+        version[0] = 2;
+        assertMalformed(version);
+
+        final byte[] grid = blob.clone();
+        grid[4] = 0;
+        assertMalformed(grid);
+
+        final byte[] count = blob.clone();
+        count[8] = 3;       // more controls than the length holds
+        assertMalformed(count);
+
+        final byte[] length = blob.clone();
+        length[2] += 1;     // a byte past the last control
+        assertMalformed(Arrays.copyOf(length, blob.length + 1));
+
+        assertMalformed(Arrays.copyOf(blob, blob.length - 1));
+    }
+
+    private static void assertMalformed(byte[] blob) {
+        try {
+            LayoutDecoder.decode(blob, "no name");
+            fail("malformed blob accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
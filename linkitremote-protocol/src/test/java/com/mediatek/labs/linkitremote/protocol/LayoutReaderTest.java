@@ -0,0 +1,225 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Chunked rcLayout reads and the fallback to the layout characteristics.
+ */
+public class LayoutReaderTest {
+    private static final int FAILURE = GattLink.GATT_FAILURE;
+
+    private FakeGattLink mLink;
+    private FakeScheduler mScheduler;
+    private DeviceInfo mDecoded;
+    private Map<UUID, byte[]> mValues;
+    private String mInvalid;
+    private UUID mFailed;
+
+    @Before
+    public void setUp() {
+        mLink = new FakeGattLink();
+        mLink.characteristics.add(RemoteProtocol.rcEventArray);
+        mScheduler = new FakeScheduler();
+        mDecoded = null;
+        mValues = null;
+        mInvalid = null;
+        mFailed = null;
+    }
+
+    private LayoutReader reader(int mtu) {
+        return new LayoutReader(mLink, mScheduler, mtu, "no name", new LayoutReader.Listener() {
+            @Override
+            public void onLayoutRead(Map<UUID, byte[]> values, DeviceInfo decoded) {
+                mValues = values;
+                mDecoded = decoded;
+            }
+
+            @Override
+            public void onOptionalRead(UUID characteristic, byte[] value) {
+            }
+
+            @Override
+            public void onReadFailed(UUID characteristic) {
+                mFailed = characteristic;
+            }
+
+            @Override
+            public void onLayoutInvalid(String reason) {
+                mInvalid = reason;
+            }
+        });
+    }
+
+    // count labels named "Label NNN" in one row
+    private static byte[] blob(int count) {
+        final ByteBuffer b = ByteBuffer.allocate(LayoutDecoder.HEADER_SIZE + count * 24).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte) LayoutDecoder.FORMAT_VERSION).put((byte) RemoteProtocol.PROTOCOL_VERSION_BATCH)
+                .putShort((short) b.capacity()).put((byte) 1).put((byte) count).put((byte) 1).put((byte) 0)
+                .putShort((short) count);
+        for (int i = 0; i < count; ++i) {
+            final byte[] name = String.format("Label %03d", i).getBytes(StandardCharsets.UTF_8);
+            b.put((byte) 1).put((byte) 0).put(new byte[]{(byte) i, 0, 1, 1})
+                    .putLong(0).put((byte) name.length).put(name);
+        }
+        return b.array();
+    }
+
+    // answer the select write, then the read with value
+    private void serve(LayoutReader reader, byte[] value, int status) {
+        assertTrue(reader.onCharacteristicWrite(RemoteProtocol.rcLayout, GattLink.GATT_SUCCESS));
+        assertEquals(RemoteProtocol.rcLayout, mLink.reads.get(mLink.reads.size() - 1));
+        assertTrue(reader.onCharacteristicRead(RemoteProtocol.rcLayout, value, status));
+    }
+
+    private byte[] lastWrite() {
+        return mLink.writes.get(mLink.writes.size() - 1);
+    }
+
+    @Test
+    public void sizesChunksToTheMtu() {
+        // one byte short of two full responses
+        assertEquals(491, LayoutReader.chunkSize(247));
+        assertEquals(505, LayoutReader.chunkSize(23));
+        assertEquals(511, LayoutReader.chunkSize(517));
+    }
+
+    @Test
+    public void readsSelectedChunks() {
+        mLink.characteristics.add(RemoteProtocol.rcLayout);
+        final byte[] blob = blob(40);
+        final LayoutReader reader = reader(247);
+        reader.start();
+
+        assertTrue(mLink.reads.isEmpty());
+        assertArrayEquals(LayoutDecoder.select(0, 491), lastWrite());
+        assertTrue(mLink.withoutResponse.get(0));
+        serve(reader, Arrays.copyOfRange(blob, 0, 491), GattLink.GATT_SUCCESS);
+
+        // the header told the blob length, the last chunk ends there
+        assertArrayEquals(LayoutDecoder.select(491, blob.length - 491), lastWrite());
+        serve(reader, Arrays.copyOfRange(blob, 491, blob.length), GattLink.GATT_SUCCESS);
+
+        assertNotNull(mDecoded);
+        assertEquals(40, mDecoded.controls.length);
+        assertEquals("Label 039", mDecoded.controls[39].text);
+        assertArrayEquals(blob, mValues.get(RemoteProtocol.rcLayout));
+        assertEquals(2, reader.getChunkReadCount());
+    }
+
+    @Test
+    public void retriesFailedChunkAtItsOffset() {
+        mLink.characteristics.add(RemoteProtocol.rcLayout);
+        final byte[] blob = blob(40);
+        final LayoutReader reader = reader(247);
+        reader.start();
+        serve(reader, Arrays.copyOfRange(blob, 0, 491), GattLink.GATT_SUCCESS);
+        serve(reader, null, FAILURE);
+        assertEquals(2, mLink.writes.size());
+
+        mScheduler.advance(ReadScheduler.RETRY_BASE_DELAY_MS);
+        assertEquals(3, mLink.writes.size());
+        assertArrayEquals(LayoutDecoder.select(491, blob.length - 491), lastWrite());
+
+        // a failed select write is retried the same way
+        assertTrue(reader.onCharacteristicWrite(RemoteProtocol.rcLayout, FAILURE));
+        mScheduler.advance(2 * ReadScheduler.RETRY_BASE_DELAY_MS);
+        assertArrayEquals(LayoutDecoder.select(491, blob.length - 491), lastWrite());
+        serve(reader, Arrays.copyOfRange(blob, 491, blob.length), GattLink.GATT_SUCCESS);
+
+        assertEquals(40, mDecoded.controls.length);
+        assertNull(mFailed);
+    }
+
+    @Test
+    public void fallsBackToLayoutCharacteristics() {
+        mLink.characteristics.add(RemoteProtocol.rcLayout);
+        mLink.characteristics.add(RemoteProtocol.rcProtocolVersion);
+        mLink.characteristics.add(RemoteProtocol.rcControlCount);
+        mLink.characteristics.add(RemoteProtocol.rcRow);
+        mLink.characteristics.add(RemoteProtocol.rcCol);
+        mLink.characteristics.add(RemoteProtocol.rcOrientation);
+        mLink.characteristics.add(RemoteProtocol.rcControlTypes);
+        mLink.characteristics.add(RemoteProtocol.rcFrames);
+        mLink.characteristics.add(RemoteProtocol.rcColors);
+        mLink.characteristics.add(RemoteProtocol.rcConfigDataArray);
+        mLink.characteristics.add(RemoteProtocol.rcNames);
+        assertTrue(LayoutReader.hasLegacyLayout(mLink));
+
+        final byte[] blob = blob(2);
+        blob[0] = 2;        // unknown format
+        final LayoutReader reader = reader(247);
+        reader.start();
+        serve(reader, blob, GattLink.GATT_SUCCESS);
+
+        assertNull(mInvalid);
+        assertEquals(RemoteProtocol.rcProtocolVersion, mLink.reads.get(mLink.reads.size() - 1));
+    }
+
+    @Test
+    public void reportsInvalidBlobWithoutLayoutCharacteristics() {
+        mLink.characteristics.add(RemoteProtocol.rcLayout);
+        assertTrue(LayoutReader.hasRequiredCharacteristics(mLink));
+        assertFalse(LayoutReader.hasLegacyLayout(mLink));
+
+        final byte[] blob = blob(2);
+        blob[0] = 2;
+        final LayoutReader reader = reader(247);
+        reader.start();
+        serve(reader, blob, GattLink.GATT_SUCCESS);
+
+        assertNotNull(mInvalid);
+        assertNull(mFailed);
+        assertNull(mDecoded);
+        assertEquals(1, mLink.reads.size());
+        mScheduler.advance(1000);
+        assertEquals(1, mLink.writes.size());
+    }
+
+    @Test
+    public void rejectsBlobEndingEarly() {
+        mLink.characteristics.add(RemoteProtocol.rcLayout);
+        final byte[] blob = blob(40);
+        final LayoutReader reader = reader(247);
+        reader.start();
+        // fewer bytes than selected, before the end of the blob
+        serve(reader, Arrays.copyOfRange(blob, 0, 200), GattLink.GATT_SUCCESS);
+
+        assertNotNull(mInvalid);
+        assertEquals(1, mLink.writes.size());
+    }
+
+    @Test
+    public void readsLegacyBoards() {
+        final UUID[] legacy = {
+                RemoteProtocol.rcProtocolVersion, RemoteProtocol.rcControlCount, RemoteProtocol.rcRow,
+                RemoteProtocol.rcCol, RemoteProtocol.rcOrientation, RemoteProtocol.rcControlTypes,
+                RemoteProtocol.rcFrames, RemoteProtocol.rcColors, RemoteProtocol.rcConfigDataArray,
+                RemoteProtocol.rcNames
+        };
+        mLink.characteristics.addAll(Arrays.asList(legacy));
+        final UUID name = UUID.fromString("00002A00-0000-1000-8000-00805F9B34FB");
+        final LayoutReader reader = reader(23);
+        reader.addOptional(name, name);
+        reader.start();
+
+        for (UUID uuid : legacy) {
+            assertEquals(uuid, mLink.reads.get(mLink.reads.size() - 1));
+            assertTrue(reader.onCharacteristicRead(uuid, new byte[]{1}, GattLink.GATT_SUCCESS));
+        }
+        assertNull(mDecoded);
+        assertEquals(legacy.length, mValues.size());
+        assertEquals(name, mLink.reads.get(mLink.reads.size() - 1));
+        assertTrue(mLink.writes.isEmpty());
+        assertEquals(0, reader.getChunkReadCount());
+    }
+}
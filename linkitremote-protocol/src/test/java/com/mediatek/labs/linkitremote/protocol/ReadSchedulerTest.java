@@ -0,0 +1,185 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Order, retries and completion of layout reads.
+ */
+public class ReadSchedulerTest {
+    private static final UUID SERVICE = RemoteProtocol.rcService;
+    private static final UUID A = RemoteProtocol.rcProtocolVersion;
+    private static final UUID B = RemoteProtocol.rcControlTypes;
+    private static final UUID C = RemoteProtocol.rcNames;
+    private static final UUID D = UUID.fromString("00002A00-0000-1000-8000-00805F9B34FB");
+
+    private FakeGattLink mLink;
+    private FakeScheduler mScheduler;
+    private ReadScheduler mReads;
+    private int mCompleted;
+    private UUID mFailed;
+
+    @Before
+    public void setUp() {
+        mLink = new FakeGattLink();
+        mScheduler = new FakeScheduler();
+        mCompleted = 0;
+        mFailed = null;
+        mReads = new ReadScheduler(mLink, mScheduler, new ReadScheduler.Listener() {
+            @Override
+            public void onRequiredReadsComplete() {
+                mCompleted += 1;
+            }
+
+            @Override
+            public void onReadFailed(UUID characteristic) {
+                mFailed = characteristic;
+            }
+        });
+    }
+
+    // complete the last read issued
+    private boolean complete(boolean success) {
+        return mReads.onCharacteristicRead(mLink.reads.get(mLink.reads.size() - 1), success);
+    }
+
+    @Test
+    public void readsInPriorityOrder() {
+        mReads.add(SERVICE, D, ReadScheduler.PRIORITY_OPTIONAL, false);
+        mReads.add(SERVICE, C, ReadScheduler.PRIORITY_NAMES, true);
+        mReads.add(SERVICE, B, ReadScheduler.PRIORITY_CONTROLS, true);
+        mReads.add(SERVICE, A, ReadScheduler.PRIORITY_GEOMETRY, true);
+        assertTrue(mLink.reads.isEmpty());
+
+        mReads.start();
+        // one read at a time
+        assertEquals(Arrays.asList(A), mLink.reads);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(complete(true));
+        }
+        assertEquals(Arrays.asList(A, B, C, D), mLink.reads);
+    }
+
+    @Test
+    public void insertsAfterStartBehindSamePriority() {
+        mReads.add(SERVICE, A, ReadScheduler.PRIORITY_GEOMETRY, true);
+        mReads.add(SERVICE, C, ReadScheduler.PRIORITY_NAMES, true);
+        mReads.start();
+
+        // like the next rcLayout chunk, added before the result is forwarded
+        mReads.add(SERVICE, A, ReadScheduler.PRIORITY_GEOMETRY, true);
+        mReads.add(SERVICE, B, ReadScheduler.PRIORITY_CONTROLS, true);
+        while (mLink.reads.size() < 4) {
+            assertTrue(complete(true));
+        }
+        assertEquals(Arrays.asList(A, A, B, C), mLink.reads);
+        assertEquals(0, mCompleted);
+        complete(true);
+        assertEquals(1, mCompleted);
+    }
+
+    @Test
+    public void retriesWithBackoff() {
+        mReads.add(SERVICE, A, ReadScheduler.PRIORITY_GEOMETRY, true);
+        mReads.add(SERVICE, B, ReadScheduler.PRIORITY_CONTROLS, true);
+        mReads.start();
+
+        assertTrue(complete(false));
+        mScheduler.advance(ReadScheduler.RETRY_BASE_DELAY_MS - 1);
+        assertEquals(1, mLink.reads.size());
+        mScheduler.advance(1);
+        assertEquals(Arrays.asList(A, A), mLink.reads);
+
+        // rejected by the link counts as an attempt too
+        mLink.accept = false;
+        assertTrue(complete(false));
+        mScheduler.advance(2 * ReadScheduler.RETRY_BASE_DELAY_MS);
+        assertEquals(1, mLink.rejected);
+        mLink.accept = true;
+        mScheduler.advance(4 * ReadScheduler.RETRY_BASE_DELAY_MS - 1);
+        assertEquals(2, mLink.reads.size());
+        mScheduler.advance(1);
+        assertEquals(Arrays.asList(A, A, A), mLink.reads);
+
+        // the retry went ahead of B
+        assertTrue(complete(true));
+        assertEquals(Arrays.asList(A, A, A, B), mLink.reads);
+    }
+
+    @Test
+    public void givesUpOnRequiredRead() {
+        mReads.add(SERVICE, A, ReadScheduler.PRIORITY_GEOMETRY, true);
+        mReads.add(SERVICE, B, ReadScheduler.PRIORITY_CONTROLS, true);
+        mReads.start();
+
+        for (int i = 0; i < ReadScheduler.MAX_ATTEMPTS; ++i) {
+            assertNull(mFailed);
+            assertTrue(complete(false));
+            mScheduler.advance(1000);
+        }
+        assertEquals(A, mFailed);
+        assertEquals(ReadScheduler.MAX_ATTEMPTS, mLink.reads.size());
+        assertEquals(0, mScheduler.getPendingCount());
+
+        // scheduling stopped
+        assertFalse(mReads.onCharacteristicRead(A, true));
+        assertEquals(0, mCompleted);
+    }
+
+    @Test
+    public void skipsFailedOptionalRead() {
+        mReads.add(SERVICE, D, ReadScheduler.PRIORITY_OPTIONAL, false);
+        mReads.add(SERVICE, A, ReadScheduler.PRIORITY_GEOMETRY, true);
+        mReads.start();
+        assertTrue(complete(true));
+        assertEquals(1, mCompleted);
+
+        for (int i = 0; i < ReadScheduler.MAX_ATTEMPTS; ++i) {
+            assertTrue(complete(false));
+            mScheduler.advance(1000);
+        }
+        assertNull(mFailed);
+        assertEquals(1 + ReadScheduler.MAX_ATTEMPTS, mLink.reads.size());
+    }
+
+    @Test
+    public void completesRequiredReadsOnce() {
+        mReads.add(SERVICE, A, ReadScheduler.PRIORITY_GEOMETRY, true);
+        mReads.add(SERVICE, D, ReadScheduler.PRIORITY_OPTIONAL, false);
+        mReads.start();
+        assertEquals(-1, mReads.getRequiredTime());
+
+        mScheduler.advance(30);
+        assertTrue(complete(true));
+        assertEquals(1, mCompleted);
+        assertEquals(30000, mReads.getRequiredTime());
+
+        // results of reads not issued, or late, are not ours
+        assertFalse(mReads.onCharacteristicRead(B, true));
+        mScheduler.advance(45);
+        assertTrue(complete(true));
+        assertFalse(mReads.onCharacteristicRead(D, true));
+        assertEquals(1, mCompleted);
+
+        final LatencyHistogram times = mReads.getReadTimes();
+        assertEquals(2, times.getCount());
+        assertEquals(30000, times.getMin());
+        assertEquals(45000, times.getMax());
+    }
+
+    @Test
+    public void cancelStopsRetries() {
+        mReads.add(SERVICE, A, ReadScheduler.PRIORITY_GEOMETRY, true);
+        mReads.start();
+        assertTrue(complete(false));
+        mReads.cancel();
+        mScheduler.advance(1000);
+        assertEquals(1, mLink.reads.size());
+        assertFalse(mReads.onCharacteristicRead(A, true));
+    }
+}
@@ -0,0 +1,80 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScanStoreTest {
+
+    @Test
+    public void update_dedupsByAddressInFirstSeenOrder() throws Exception {
+        ScanStore<String> store = new ScanStore<>(ScanStore.DEFAULT_RSSI_ALPHA, 10000);
+
+        assertTrue(store.update("A", "a", -60, "a1", 0));
+        assertTrue(store.update("B", "b", -70, "b1", 1));
+        assertFalse(store.update("A", "a", -61, "a2", 2));
+
+        assertEquals(2, store.size());
+        assertEquals("A", store.get(0).address);
+        assertEquals("a2", store.get(0).value);
+        assertEquals(2, store.find("A").updates);
+        assertNull(store.find("C"));
+    }
+
+    @Test
+    public void rssi_isSmoothed() throws Exception {
+        ScanStore<String> store = new ScanStore<>(0.5, 10000);
+
+        store.update("A", null, -60, null, 0);
+        store.update("A", null, -80, null, 1);
+        assertEquals(-70, store.find("A").getRssi());
+
+        // a single outlier moves the average only by alpha
+        store.update("A", null, -70, null, 2);
+        store.update("A", null, -100, null, 3);
+        assertEquals(-85, store.find("A").getRssi());
+    }
+
+    @Test
+    public void changes_onlyWhenDisplayedValuesChange() throws Exception {
+        ScanStore<String> store = new ScanStore<>(1, 10000);
+        store.update("A", "a", -60, null, 0);
+        store.update("B", "b", -60, null, 0);
+        assertTrue(store.isStructureChanged());
+        store.clearChanges();
+        assertFalse(store.hasChanges());
+
+        store.update("A", "a", -60, null, 1);
+        assertFalse(store.hasChanges());
+
+        store.update("B", "b", -65, null, 2);
+        store.update("B", "board", -65, null, 3);
+        assertFalse(store.isStructureChanged());
+        assertEquals(1, store.getChanged().size());
+        assertEquals("B", store.getChanged().get(0).address);
+
+        store.clearChanges();
+        assertFalse(store.hasChanges());
+    }
+
+    @Test
+    public void removeStale_keepsOrderAndPositions() throws Exception {
+        ScanStore<String> store = new ScanStore<>(1, 1000);
+        store.update("A", null, -60, null, 0);
+        store.update("B", null, -60, null, 0);
+        store.update("C", null, -60, null, 0);
+        store.update("A", null, -60, null, 900);
+        store.update("C", null, -60, null, 900);
+        store.clearChanges();
+
+        assertEquals(1, store.removeStale(1500));
+        assertEquals(2, store.size());
+        assertEquals("A", store.get(0).address);
+        assertEquals("C", store.get(1).address);
+        assertEquals(1, store.find("C").getPosition());
+        assertNull(store.find("B"));
+        assertTrue(store.isStructureChanged());
+
+        assertEquals(0, store.removeStale(1500));
+    }
+}
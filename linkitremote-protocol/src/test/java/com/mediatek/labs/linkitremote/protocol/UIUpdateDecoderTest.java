@@ -0,0 +1,92 @@
+package com.mediatek.labs.linkitremote.protocol;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parsing and repeat suppression of rcUIUpdate notifications.
+ */
+public class UIUpdateDecoderTest {
+
+    // index, data size including the null terminator, text, terminator
+    private static byte[] frame(int index, String text) {
+        final byte[] t = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] value = new byte[UIUpdateDecoder.HEADER_SIZE + t.length + 1];
+        value[0] = (byte) index;
+        value[1] = (byte) (t.length + 1);
+        System.arraycopy(t, 0, value, UIUpdateDecoder.HEADER_SIZE, t.length);
+        return value;
+    }
+
+    @Test
+    public void decodesIndexAndText() {
+        final UIUpdateDecoder decoder = new UIUpdateDecoder();
+        assertTrue(decoder.decode(frame(3, "21.5 \u00B0C")));
+        assertEquals(3, decoder.getIndex());
+        assertEquals("21.5 \u00B0C", decoder.getText());
+
+        // an index above 127 is unsigned
+        assertTrue(decoder.decode(frame(200, "x")));
+        assertEquals(200, decoder.getIndex());
+    }
+
+    @Test
+    public void dropsRepeatedText() {
+        final UIUpdateDecoder decoder = new UIUpdateDecoder();
+        assertTrue(decoder.decode(frame(1, "on")));
+        assertFalse(decoder.decode(frame(1, "on")));
+        assertEquals(-1, decoder.getIndex());
+        assertNull(decoder.getText());
+
+        // same text on another control is news
+        assertTrue(decoder.decode(frame(2, "on")));
+        assertFalse(decoder.decode(frame(1, "on")));
+    }
+
+    @Test
+    public void forwardsChangedText() {
+        final UIUpdateDecoder decoder = new UIUpdateDecoder();
+        assertTrue(decoder.decode(frame(1, "100")));
+        assertTrue(decoder.decode(frame(1, "99")));
+        assertEquals("99", decoder.getText());
+        // a prefix of the previous text differs in length only
+        assertTrue(decoder.decode(frame(1, "9")));
+        assertEquals("9", decoder.getText());
+        // longer than the buffer kept so far
+        assertTrue(decoder.decode(frame(1, "a label longer than sixteen bytes")));
+        assertEquals("a label longer than sixteen bytes", decoder.getText());
+        assertTrue(decoder.decode(frame(1, "")));
+        assertEquals("", decoder.getText());
+    }
+
+    @Test
+    public void rejectsTruncatedFrames() {
+        final UIUpdateDecoder decoder = new UIUpdateDecoder();
+        assertFalse(decoder.decode(null));
+        assertFalse(decoder.decode(new byte[]{1}));
+        // no room for the terminator
+        assertFalse(decoder.decode(new byte[]{1, 0}));
+
+        final byte[] full = frame(1, "hello");
+        final byte[] cut = new byte[full.length - 2];
+        System.arraycopy(full, 0, cut, 0, cut.length);
+        assertFalse(decoder.decode(cut));
+        assertEquals(-1, decoder.getIndex());
+
+        // a truncated frame does not count as the last text
+        assertTrue(decoder.decode(full));
+        assertFalse(decoder.decode(full));
+    }
+
+    @Test
+    public void resetForwardsTheSameTextAgain() {
+        final UIUpdateDecoder decoder = new UIUpdateDecoder();
+        assertTrue(decoder.decode(frame(5, "ready")));
+        decoder.reset();
+        assertTrue(decoder.decode(frame(5, "ready")));
+        assertEquals("ready", decoder.getText());
+    }
+}
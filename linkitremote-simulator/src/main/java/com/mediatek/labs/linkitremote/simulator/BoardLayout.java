@@ -0,0 +1,161 @@
+package com.mediatek.labs.linkitremote.simulator;
+
+import com.mediatek.labs.linkitremote.protocol.LayoutDecoder;
+import com.mediatek.labs.linkitremote.protocol.RemoteProtocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encodes a remote layout into rcService characteristic values, the way the
+ * board firmware exposes them.
+ */
+public class BoardLayout {
+    // control types and colors as sent over the air
+    public static final byte LABEL = 1;
+    public static final byte PUSH_BUTTON = 2;
+    public static final byte CIRCLE_BUTTON = 3;
+    public static final byte SWITCH_BUTTON = 4;
+    public static final byte SLIDER = 5;
+
+    private static class Control {
+        byte type;
+        byte color;
+        byte[] frame;
+        String name;
+        short[] config;
+    }
+
+    private final int mRow;
+    private final int mCol;
+    private boolean mLandscape = false;
+    private final List<Control> mControls = new ArrayList<>();
+
+    public BoardLayout(int row, int col) {
+        mRow = row;
+        mCol = col;
+    }
+
+    /**
+     * A layout of count controls of one type, one per cell, eight per row.
+     */
+    public static BoardLayout grid(int count, byte type) {
+        final int col = 8;
+        BoardLayout layout = new BoardLayout((count + col - 1) / col, col);
+        for (int i = 0; i < count; ++i) {
+            layout.add(type, (byte) (1 + i % 6), i % col, i / col, 1, 1, "Control " + i, 0, 1000, 500);
+        }
+        return layout;
+    }
+
+    public BoardLayout setLandscape(boolean landscape) {
+        mLandscape = landscape;
+        return this;
+    }
+
+    public BoardLayout add(byte type, byte color, int column, int row, int columnSpan, int rowSpan,
+                           String name, int data1, int data2, int data3) {
+        Control c = new Control();
+        c.type = type;
+        c.color = color;
+        c.frame = new byte[]{(byte) column, (byte) row, (byte) columnSpan, (byte) rowSpan};
+        c.name = name;
+        c.config = new short[]{(short) data1, (short) data2, (short) data3, 0};
+        mControls.add(c);
+        return this;
+    }
+
+    public int getControlCount() {
+        return mControls.size();
+    }
+
+    public Map<UUID, byte[]> encode(int protocolVersion) {
+        return encode(protocolVersion, false);
+    }
+
+    /**
+     * The layout characteristics, and if layoutBlob is set the rcLayout blob too,
+     * like newer firmware does.
+     */
+    public Map<UUID, byte[]> encode(int protocolVersion, boolean layoutBlob) {
+        final int count = mControls.size();
+        final byte[] types = new byte[count];
+        final byte[] colors = new byte[count];
+        final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        final ByteBuffer config = ByteBuffer.allocate(count * 8).order(ByteOrder.LITTLE_ENDIAN);
+        final StringBuilder names = new StringBuilder();
+
+        for (int i = 0; i < count; ++i) {
+            final Control c = mControls.get(i);
+            types[i] = c.type;
+            colors[i] = c.color;
+            frames.write(c.frame, 0, c.frame.length);
+            for (short s : c.config) {
+                config.putShort(s);
+            }
+            if (i > 0) {
+                names.append('\n');
+            }
+            names.append(c.name);
+        }
+
+        Map<UUID, byte[]> values = new HashMap<>();
+        values.put(RemoteProtocol.rcProtocolVersion, int32(protocolVersion));
+        values.put(RemoteProtocol.rcRow, int32(mRow));
+        values.put(RemoteProtocol.rcCol, int32(mCol));
+        values.put(RemoteProtocol.rcOrientation, int32(mLandscape ? 1 : 0));
+        values.put(RemoteProtocol.rcControlCount, int32(count));
+        values.put(RemoteProtocol.rcControlTypes, types);
+        values.put(RemoteProtocol.rcColors, colors);
+        values.put(RemoteProtocol.rcFrames, frames.toByteArray());
+        values.put(RemoteProtocol.rcConfigDataArray, config.array());
+        values.put(RemoteProtocol.rcNames, names.toString().getBytes(StandardCharsets.UTF_8));
+        if (layoutBlob) {
+            values.put(RemoteProtocol.rcLayout, encodeBlob(protocolVersion));
+        }
+        return values;
+    }
+
+    /**
+     * The whole layout as one blob, in the format LayoutDecoder reads.
+     */
+    public byte[] encodeBlob(int protocolVersion) {
+        final ByteArrayOutputStream controls = new ByteArrayOutputStream();
+        final ByteBuffer record = ByteBuffer.allocate(15).order(ByteOrder.LITTLE_ENDIAN);
+        for (Control c : mControls) {
+            final byte[] name = c.name.getBytes(StandardCharsets.UTF_8);
+            record.clear();
+            record.put(c.type).put(c.color).put(c.frame);
+            for (short s : c.config) {
+                record.putShort(s);
+            }
+            record.put((byte) name.length);
+            controls.write(record.array(), 0, record.position());
+            controls.write(name, 0, name.length);
+        }
+
+        final ByteBuffer blob = ByteBuffer.allocate(LayoutDecoder.HEADER_SIZE + controls.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        blob.put((byte) LayoutDecoder.FORMAT_VERSION)
+                .put((byte) protocolVersion)
+                .putShort((short) blob.capacity())
+                .put((byte) mRow)
+                .put((byte) mCol)
+                .put((byte) (mLandscape ? 1 : 0))
+                .put((byte) 0)
+                .putShort((short) mControls.size())
+                .put(controls.toByteArray());
+        return blob.array();
+    }
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+}
@@ -0,0 +1,34 @@
+package com.mediatek.labs.linkitremote.simulator;
+
+import com.mediatek.labs.linkitremote.protocol.GattLink;
+
+/**
+ * Radio and connection parameters of a simulated link.
+ *
+ * Defaults are close to a phone talking to a LinkIt 7697: 30 ms connection
+ * interval, no data length extension, a few packets per connection event.
+ */
+public class LinkModel {
+    public long balancedIntervalUs = 30000;
+    public long highPriorityIntervalUs = 7500;
+    public long lowPowerIntervalUs = 100000;
+
+    public int maxMtu = 247;            // largest ATT MTU the board accepts
+    public int linkLayerPayload = 27;   // bytes per link layer packet, 251 with DLE
+    public int packetsPerEvent = 4;     // per direction and connection event
+    public int controllerBuffers = 4;   // outgoing packets the phone's controller can hold
+
+    public double lossRate = 0;         // probability that a packet has to be retransmitted
+    public long seed = 1;
+
+    long intervalFor(int priority) {
+        switch (priority) {
+            case GattLink.CONNECTION_PRIORITY_HIGH:
+                return highPriorityIntervalUs;
+            case GattLink.CONNECTION_PRIORITY_LOW_POWER:
+                return lowPowerIntervalUs;
+            default:
+                return balancedIntervalUs;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.mediatek.labs.linkitremote.simulator;
+
+import com.mediatek.labs.linkitremote.protocol.EventDecoder;
+import com.mediatek.labs.linkitremote.protocol.LayoutDecoder;
+import com.mediatek.labs.linkitremote.protocol.RemoteProtocol;
+import com.mediatek.labs.linkitremote.protocol.UIUpdateDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The peripheral side of a simulated connection: serves the layout
+ * characteristics, decodes rcEventArray writes and sends rcUIUpdate notifications.
+ *
+ * An rcLayout blob in the values is served in chunks: a write to rcLayout
+ * selects the offset and length of the chunk the following reads return.
+ */
+public class SimulatedBoard {
+
+    /**
+     * Receives every event frame the board decodes, with the virtual time it arrived.
+     */
+    public interface EventListener {
+        void onEvent(int seq, int index, int event, int data, long timeUs);
+    }
+
+    private final SimulationClock mClock;
+    private final Map<UUID, byte[]> mValues;
+    private SimulatedLink mLink;
+    private EventListener mListener;
+    private long mEventCount;
+    private long mWriteCount;
+    private boolean mEcho = false;
+    // the rcLayout chunk reads return
+    private int mLayoutOffset = 0;
+    private int mLayoutLength = LayoutDecoder.MAX_CHUNK_SIZE;
+    private final Map<UUID, Integer> mDrops = new HashMap<>();
+
+    public SimulatedBoard(SimulationClock clock, Map<UUID, byte[]> values) {
+        mClock = clock;
+        mValues = new HashMap<>(values);
+    }
+
+    public void setEventListener(EventListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Answer events to ECHO_INDEX with an rcUIUpdate of their sequence number,
+     * like a sketch supporting the echo probe.
+     */
+    public void setEcho(boolean echo) {
+        mEcho = echo;
+    }
+
+    /**
+     * Fail the nth next read of characteristic, counting from 1, like a read lost
+     * to an error response.
+     */
+    public void dropRead(UUID characteristic, int nth) {
+        mDrops.put(characteristic, nth);
+    }
+
+    public long getEventCount() {
+        return mEventCount;
+    }
+
+    public long getWriteCount() {
+        return mWriteCount;
+    }
+
+    /**
+     * Notify a new label text through rcUIUpdate.
+     */
+    public void updateLabel(int index, String text) {
+        if (mLink != null) {
+            mLink.notifyClient(RemoteProtocol.rcUIUpdate, encodeUIUpdate(index, text));
+        }
+    }
+
+    /**
+     * Update the labels at indices rate times per second each, for durationUs.
+     * The text is the virtual send time in microseconds, so every update is a
+     * change and receivers can tell its latency.
+     */
+    public void startLabelUpdates(final int[] indices, int rate, final long durationUs) {
+        final long period = 1000000L / rate;
+        final long end = mClock.now() + durationUs;
+        mClock.schedule(period, new Runnable() {
+            @Override
+            public void run() {
+                for (int index : indices) {
+                    updateLabel(index, String.valueOf(mClock.now()));
+                }
+                if (mClock.now() + period <= end) {
+                    mClock.schedule(period, this);
+                }
+            }
+        });
+    }
+
+    // rcUIUpdate value: control index, data size including the null terminator, text
+    public static byte[] encodeUIUpdate(int index, String text) {
+        final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] value = new byte[UIUpdateDecoder.HEADER_SIZE + utf8.length + 1];
+        value[0] = (byte) index;
+        value[1] = (byte) (utf8.length + 1);
+        System.arraycopy(utf8, 0, value, UIUpdateDecoder.HEADER_SIZE, utf8.length);
+        return value;
+    }
+
+    void attach(SimulatedLink link) {
+        mLink = link;
+    }
+
+    // the layout characteristics in the values, rcEventArray and rcUIUpdate
+    boolean hasCharacteristic(UUID characteristic) {
+        return mValues.containsKey(characteristic) || RemoteProtocol.rcEventArray.equals(characteristic)
+                || RemoteProtocol.rcUIUpdate.equals(characteristic);
+    }
+
+    // null if the read fails
+    byte[] read(UUID characteristic) {
+        final Integer drop = mDrops.get(characteristic);
+        if (drop != null) {
+            if (drop == 1) {
+                mDrops.remove(characteristic);
+                return null;
+            }
+            mDrops.put(characteristic, drop - 1);
+        }
+
+        final byte[] value = mValues.get(characteristic);
+        if (value == null || !RemoteProtocol.rcLayout.equals(characteristic)) {
+            return value;
+        }
+        final int offset = Math.min(mLayoutOffset, value.length);
+        return Arrays.copyOfRange(value, offset, Math.min(offset + mLayoutLength, value.length));
+    }
+
+    boolean write(UUID characteristic, byte[] value) {
+        if (RemoteProtocol.rcLayout.equals(characteristic) && mValues.containsKey(characteristic)) {
+            if (value.length != LayoutDecoder.SELECT_SIZE) {
+                return false;
+            }
+            mLayoutOffset = (value[0] & 0xFF) | ((value[1] & 0xFF) << 8);
+            mLayoutLength = Math.min((value[2] & 0xFF) | ((value[3] & 0xFF) << 8), LayoutDecoder.MAX_CHUNK_SIZE);
+            return true;
+        }
+        if (!RemoteProtocol.rcEventArray.equals(characteristic)) {
+            return false;
+        }
+        mWriteCount += 1;
+        EventDecoder.decode(value, new EventDecoder.Listener() {
+            @Override
+            public void onEvent(int seq, int index, int event, int data) {
+                mEventCount += 1;
+                if (mEcho && index == RemoteProtocol.ECHO_INDEX) {
+                    updateLabel(index, String.valueOf(seq));
+                }
+                if (mListener != null) {
+                    mListener.onEvent(seq, index, event, data, mClock.now());
+                }
+            }
+        });
+        return true;
+    }
+}
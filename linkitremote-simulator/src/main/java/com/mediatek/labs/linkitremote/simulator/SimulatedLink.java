@@ -0,0 +1,406 @@
+package com.mediatek.labs.linkitremote.simulator;
+
+import com.mediatek.labs.linkitremote.protocol.EventPacker;
+import com.mediatek.labs.linkitremote.protocol.GattLink;
+import com.mediatek.labs.linkitremote.protocol.RemoteProtocol;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A {@link GattLink} to a {@link SimulatedBoard} over a modelled BLE connection.
+ *
+ * Packets only move at connection events, every connection interval. In each
+ * event up to packetsPerEvent link layer packets go each way; ATT PDUs larger
+ * than one packet are fragmented, and a lost packet is retransmitted at the next
+ * event, holding back everything behind it. A response is sent at the earliest
+ * in the event after its request arrived. Like Android, the link takes one GATT
+ * operation at a time and rejects others until its callback has run.
+ *
+ * Writes without response complete as soon as the controller has buffer space
+ * for them, otherwise once they reached the board. Long reads continue with Read
+ * Blob requests while responses come back full, as the Android stack does, so a
+ * value of a whole number of responses costs an extra, empty one.
+ */
+public class SimulatedLink implements GattLink {
+    static private final int L2CAP_HEADER = 4;
+    static private final int DISCOVERY_ROUND_TRIPS = 6;
+    static private final int PARAMETER_UPDATE_EVENTS = 6;  // until a new interval applies
+
+    private static class Packet {
+        final int fragments;
+        final long eligibleAt;
+        final Runnable onDelivered;
+        int sent = 0;
+
+        Packet(int fragments, long eligibleAt, Runnable onDelivered) {
+            this.fragments = fragments;
+            this.eligibleAt = eligibleAt;
+            this.onDelivered = onDelivered;
+        }
+    }
+
+    private final SimulationClock mClock;
+    private final LinkModel mModel;
+    private final SimulatedBoard mBoard;
+    private final Callback mCallback;
+    private final Random mRandom;
+
+    private final ArrayDeque<Packet> mToBoard = new ArrayDeque<>();
+    private final ArrayDeque<Packet> mToClient = new ArrayDeque<>();
+    private final Set<UUID> mNotifying = new HashSet<>();
+    private long mInterval;
+    private int mMtu = EventPacker.DEFAULT_MTU;
+    private boolean mBusy = false;
+    private boolean mConnected = false;
+
+    // statistics
+    private long mConnectionEvents;
+    private long mPacketsSent;
+    private long mPacketsLost;
+    private long mNotificationsDropped;
+
+    private final Runnable mConnectionEvent = new Runnable() {
+        @Override
+        public void run() {
+            if (!mConnected) {
+                return;
+            }
+            mConnectionEvents += 1;
+            transmit(mToBoard);
+            transmit(mToClient);
+            mClock.schedule(mInterval, this);
+        }
+    };
+
+    public SimulatedLink(SimulationClock clock, LinkModel model, SimulatedBoard board, Callback callback) {
+        mClock = clock;
+        mModel = model;
+        mBoard = board;
+        mCallback = callback;
+        mRandom = new Random(model.seed);
+        mInterval = model.balancedIntervalUs;
+        board.attach(this);
+    }
+
+    /**
+     * Start connection events, the first one interval from now, where the client
+     * is told it is connected.
+     */
+    public void connect() {
+        if (mConnected) {
+            return;
+        }
+        mConnected = true;
+        mClock.schedule(mInterval, mConnectionEvent);
+        mClock.schedule(mInterval, new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onConnectionStateChange(GATT_SUCCESS, STATE_CONNECTED);
+            }
+        });
+    }
+
+    public void disconnect() {
+        mConnected = false;
+        mToBoard.clear();
+        mToClient.clear();
+        mBusy = false;
+    }
+
+    public int getMtu() {
+        return mMtu;
+    }
+
+    public long getConnectionIntervalUs() {
+        return mInterval;
+    }
+
+    public long getConnectionEventCount() {
+        return mConnectionEvents;
+    }
+
+    public long getPacketsSent() {
+        return mPacketsSent;
+    }
+
+    public long getPacketsLost() {
+        return mPacketsLost;
+    }
+
+    public long getNotificationsDropped() {
+        return mNotificationsDropped;
+    }
+
+    @Override
+    public boolean requestMtu(final int mtu) {
+        if (!begin()) {
+            return false;
+        }
+        toBoard(3, new Runnable() {
+            @Override
+            public void run() {
+                final int exchanged = Math.max(EventPacker.DEFAULT_MTU, Math.min(mtu, mModel.maxMtu));
+                toClient(3, new Runnable() {
+                    @Override
+                    public void run() {
+                        mMtu = exchanged;
+                        mBusy = false;
+                        mCallback.onMtuChanged(exchanged, GATT_SUCCESS);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(final int priority) {
+        if (!mConnected) {
+            return false;
+        }
+        // an LL connection update, not an ATT operation
+        mClock.schedule(PARAMETER_UPDATE_EVENTS * mInterval, new Runnable() {
+            @Override
+            public void run() {
+                mInterval = mModel.intervalFor(priority);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        if (!begin()) {
+            return false;
+        }
+        roundTrips(DISCOVERY_ROUND_TRIPS, new Runnable() {
+            @Override
+            public void run() {
+                mBusy = false;
+                mCallback.onServicesDiscovered(GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean readCharacteristic(final UUID service, final UUID characteristic) {
+        if (!begin()) {
+            return false;
+        }
+        // the board reads the value when the request arrives, after writes sent before it
+        toBoard(3, new Runnable() {
+            @Override
+            public void run() {
+                final byte[] value = RemoteProtocol.rcService.equals(service) ? mBoard.read(characteristic) : null;
+                respond(characteristic, value, 0);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, final UUID characteristic, final byte[] value,
+                                       boolean withoutResponse) {
+        if (value.length > mMtu - 3 || !begin()) {
+            return false;
+        }
+        if (withoutResponse) {
+            final Runnable complete = new Runnable() {
+                @Override
+                public void run() {
+                    mBusy = false;
+                    mCallback.onCharacteristicWrite(characteristic, GATT_SUCCESS);
+                }
+            };
+            final boolean buffered = queuedFragments(mToBoard) + fragments(3 + value.length)
+                    <= mModel.controllerBuffers;
+            toBoard(3 + value.length, new Runnable() {
+                @Override
+                public void run() {
+                    mBoard.write(characteristic, value);
+                    if (!buffered) {
+                        complete.run();
+                    }
+                }
+            });
+            if (buffered) {
+                mClock.schedule(0, complete);
+            }
+        } else {
+            toBoard(3 + value.length, new Runnable() {
+                @Override
+                public void run() {
+                    final int status = mBoard.write(characteristic, value) ? GATT_SUCCESS : GATT_FAILURE;
+                    toClient(1, new Runnable() {
+                        @Override
+                        public void run() {
+                            mBusy = false;
+                            mCallback.onCharacteristicWrite(characteristic, status);
+                        }
+                    });
+                }
+            });
+        }
+        return true;
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        if (enable) {
+            mNotifying.add(characteristic);
+        } else {
+            mNotifying.remove(characteristic);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID service, UUID characteristic) {
+        return RemoteProtocol.rcService.equals(service) && mBoard.hasCharacteristic(characteristic);
+    }
+
+    @Override
+    public int getProperties(UUID service, UUID characteristic) {
+        if (!hasCharacteristic(service, characteristic)) {
+            return 0;
+        }
+        if (RemoteProtocol.rcEventArray.equals(characteristic)) {
+            return PROPERTY_WRITE | PROPERTY_WRITE_NO_RESPONSE;
+        }
+        if (RemoteProtocol.rcUIUpdate.equals(characteristic)) {
+            return PROPERTY_NOTIFY;
+        }
+        if (RemoteProtocol.rcLayout.equals(characteristic)) {
+            return PROPERTY_READ | PROPERTY_WRITE_NO_RESPONSE;
+        }
+        return PROPERTY_READ;
+    }
+
+    // the simulated attribute table never goes stale
+    @Override
+    public boolean refreshServices() {
+        return false;
+    }
+
+    // called by the board
+    void notifyClient(final UUID characteristic, final byte[] value) {
+        if (!mConnected || !mNotifying.contains(characteristic)) {
+            mNotificationsDropped += 1;
+            return;
+        }
+        toClient(3 + value.length, new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onCharacteristicChanged(characteristic, value);
+            }
+        });
+    }
+
+    private boolean begin() {
+        if (!mConnected || mBusy) {
+            return false;
+        }
+        mBusy = true;
+        return true;
+    }
+
+    // response to a Read Request or Read Blob Request at offset, null value for an error response
+    private void respond(final UUID characteristic, final byte[] value, final int offset) {
+        if (value == null) {
+            toClient(5, new Runnable() {
+                @Override
+                public void run() {
+                    mBusy = false;
+                    mCallback.onCharacteristicRead(characteristic, null, GATT_FAILURE);
+                }
+            });
+            return;
+        }
+
+        final int chunk = Math.min(mMtu - 1, value.length - offset);
+        toClient(1 + chunk, new Runnable() {
+            @Override
+            public void run() {
+                if (chunk == mMtu - 1) {
+                    // a full response, the stack asks for more with Read Blob
+                    toBoard(5, new Runnable() {
+                        @Override
+                        public void run() {
+                            respond(characteristic, value, offset + chunk);
+                        }
+                    });
+                } else {
+                    mBusy = false;
+                    mCallback.onCharacteristicRead(characteristic, value, GATT_SUCCESS);
+                }
+            }
+        });
+    }
+
+    private void roundTrips(final int count, final Runnable done) {
+        toBoard(7, new Runnable() {
+            @Override
+            public void run() {
+                toClient(mMtu - 3, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (count > 1) {
+                            roundTrips(count - 1, done);
+                        } else {
+                            done.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void toBoard(int attLength, Runnable onDelivered) {
+        mToBoard.add(new Packet(fragments(attLength), mClock.now(), onDelivered));
+    }
+
+    // responses leave the board at the next connection event at the earliest
+    private void toClient(int attLength, Runnable onDelivered) {
+        mToClient.add(new Packet(fragments(attLength), mClock.now() + 1, onDelivered));
+    }
+
+    private int fragments(int attLength) {
+        final int payload = mModel.linkLayerPayload;
+        return (attLength + L2CAP_HEADER + payload - 1) / payload;
+    }
+
+    private static int queuedFragments(ArrayDeque<Packet> queue) {
+        int count = 0;
+        for (Packet p : queue) {
+            count += p.fragments - p.sent;
+        }
+        return count;
+    }
+
+    private void transmit(ArrayDeque<Packet> queue) {
+        int slots = mModel.packetsPerEvent;
+        while (slots > 0 && !queue.isEmpty()) {
+            final Packet p = queue.peek();
+            if (p.eligibleAt > mClock.now()) {
+                break;
+            }
+            slots -= 1;
+            mPacketsSent += 1;
+            if (mRandom.nextDouble() < mModel.lossRate) {
+                // not acknowledged, retransmitted at the next event
+                mPacketsLost += 1;
+                break;
+            }
+            p.sent += 1;
+            if (p.sent == p.fragments) {
+                queue.poll();
+                p.onDelivered.run();
+            }
+        }
+    }
+}
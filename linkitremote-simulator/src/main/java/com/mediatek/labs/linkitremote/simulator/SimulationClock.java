@@ -0,0 +1,83 @@
+package com.mediatek.labs.linkitremote.simulator;
+
+import com.mediatek.labs.linkitremote.protocol.Scheduler;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Virtual time for a simulation, in microseconds.
+ *
+ * Tasks run in time order, and in scheduling order at equal times, so a
+ * scenario gives the same result on every run and machine. Nothing sleeps: a
+ * minute of link time takes as long as the work done in it.
+ *
+ * As a {@link Scheduler}, it runs the retries and timeouts of the client code
+ * under test on the same virtual time as the link.
+ */
+public class SimulationClock implements Scheduler {
+
+    private static class Task implements Comparable<Task> {
+        final long time;
+        final long order;
+        final Runnable runnable;
+
+        Task(long time, long order, Runnable runnable) {
+            this.time = time;
+            this.order = order;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>();
+    private long mNow = 0;
+    private long mOrder = 0;
+
+    @Override
+    public long now() {
+        return mNow;
+    }
+
+    public void schedule(long delayUs, Runnable runnable) {
+        mTasks.add(new Task(mNow + Math.max(0, delayUs), mOrder++, runnable));
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        schedule(delayMs * 1000, task);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        final Iterator<Task> i = mTasks.iterator();
+        while (i.hasNext()) {
+            if (i.next().runnable == task) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Run all tasks due up to timeUs, including ones they schedule, then advance to timeUs.
+     */
+    public void runUntil(long timeUs) {
+        while (!mTasks.isEmpty() && mTasks.peek().time <= timeUs) {
+            final Task task = mTasks.poll();
+            mNow = task.time;
+            task.runnable.run();
+        }
+        mNow = Math.max(mNow, timeUs);
+    }
+
+    public void runFor(long durationUs) {
+        runUntil(mNow + durationUs);
+    }
+}
@@ -0,0 +1,340 @@
+package com.mediatek.labs.linkitremote.simulator;
+
+import com.mediatek.labs.linkitremote.protocol.ControlEvent;
+import com.mediatek.labs.linkitremote.protocol.ControlInfo;
+import com.mediatek.labs.linkitremote.protocol.DeviceInfo;
+import com.mediatek.labs.linkitremote.protocol.DeviceInfoParser;
+import com.mediatek.labs.linkitremote.protocol.EchoProbe;
+import com.mediatek.labs.linkitremote.protocol.EventPacker;
+import com.mediatek.labs.linkitremote.protocol.EventWriter;
+import com.mediatek.labs.linkitremote.protocol.GattLink;
+import com.mediatek.labs.linkitremote.protocol.LatencyHistogram;
+import com.mediatek.labs.linkitremote.protocol.LayoutReader;
+import com.mediatek.labs.linkitremote.protocol.ReadScheduler;
+import com.mediatek.labs.linkitremote.protocol.RemoteProtocol;
+import com.mediatek.labs.linkitremote.protocol.UIUpdateDecoder;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load scenarios against a simulated board, run by the client classes the app
+ * ships. Times are virtual, so results are the same on every machine; latency
+ * histograms are printed in microseconds.
+ */
+public class LoadScenarioTest {
+    private static final long SECOND = 1000000;
+
+    /**
+     * Connects, exchanges the MTU, discovers and reads the layout with the app's
+     * LayoutReader, then writes events with its EventWriter, the way RemoteSession
+     * drives them.
+     */
+    private static class Client implements GattLink.Callback, LayoutReader.Listener {
+        final SimulationClock clock;
+        final SimulatedLink link;
+        final EventWriter writer;
+        LayoutReader reader;
+        int mtu = EventPacker.DEFAULT_MTU;
+        Map<UUID, byte[]> values;
+        DeviceInfo decoded;
+        long doneAt = -1;
+
+        Client(SimulationClock clock, LinkModel model, SimulatedBoard board) {
+            this.clock = clock;
+            link = new SimulatedLink(clock, model, board, this);
+            writer = new EventWriter(link, true, clock, (byte) 0);
+        }
+
+        @Override
+        public void onConnectionStateChange(int status, int newState) {
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            this.mtu = mtu;
+            assertTrue(link.discoverServices());
+        }
+
+        @Override
+        public void onServicesDiscovered(int status) {
+            assertTrue(LayoutReader.hasRequiredCharacteristics(link));
+            reader = new LayoutReader(link, clock, mtu, "no name", this);
+            reader.start();
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+            assertTrue(reader.onCharacteristicRead(characteristic, value, status));
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int status) {
+            if (RemoteProtocol.rcLayout.equals(characteristic)) {
+                assertTrue(reader.onCharacteristicWrite(characteristic, status));
+            } else if (RemoteProtocol.rcEventArray.equals(characteristic)) {
+                writer.onWritten(status);
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+        }
+
+        @Override
+        public void onLayoutRead(Map<UUID, byte[]> values, DeviceInfo decoded) {
+            this.values = values;
+            this.decoded = decoded;
+            doneAt = clock.now();
+        }
+
+        @Override
+        public void onOptionalRead(UUID characteristic, byte[] value) {
+        }
+
+        @Override
+        public void onReadFailed(UUID characteristic) {
+            fail("read of " + characteristic + " failed");
+        }
+
+        @Override
+        public void onLayoutInvalid(String reason) {
+            fail(reason);
+        }
+    }
+
+    private static Client readLayout(LinkModel model, int controls, boolean blob) {
+        return readLayout(model, controls, blob, 0);
+    }
+
+    // dropChunk is the rcLayout read to fail, counting from 1, or 0
+    private static Client readLayout(LinkModel model, int controls, boolean blob, int dropChunk) {
+        final SimulationClock clock = new SimulationClock();
+        final SimulatedBoard board = new SimulatedBoard(clock,
+                BoardLayout.grid(controls, BoardLayout.SLIDER).encode(RemoteProtocol.PROTOCOL_VERSION_BATCH, blob));
+        if (dropChunk > 0) {
+            board.dropRead(RemoteProtocol.rcLayout, dropChunk);
+        }
+        final Client client = new Client(clock, model, board);
+
+        client.link.connect();
+        assertTrue(client.link.requestMtu(247));
+        clock.runUntil(60 * SECOND);
+
+        assertTrue("layout read did not finish", client.doneAt > 0);
+        return client;
+    }
+
+    private static long readLayout(LinkModel model, int controls) {
+        final Client client = readLayout(model, controls, false);
+        assertNull(client.decoded);
+        DeviceInfo d = DeviceInfoParser.parse(client.values, "no name");
+        assertEquals(controls, d.controls.length);
+        return client.doneAt;
+    }
+
+    @Test
+    public void layoutRead_255Controls() throws Exception {
+        LinkModel balanced = new LinkModel();
+        LinkModel fast = new LinkModel();
+        fast.balancedIntervalUs = fast.highPriorityIntervalUs;
+        LinkModel lossy = new LinkModel();
+        lossy.lossRate = 0.05;
+
+        final long balancedTime = readLayout(balanced, 255);
+        final long fastTime = readLayout(fast, 255);
+        final long lossyTime = readLayout(lossy, 255);
+        System.out.println("layout read, 255 controls: " + balancedTime / 1000 + " ms at 30 ms interval, "
+                + fastTime / 1000 + " ms at 7.5 ms, " + lossyTime / 1000 + " ms at 30 ms with 5% loss");
+
+        assertTrue(fastTime < balancedTime);
+        assertTrue(lossyTime >= balancedTime);
+        assertTrue(readLayout(balanced, 8) < balancedTime);
+    }
+
+    private static Client readBlob(LinkModel model, int controls) {
+        return readBlob(model, controls, 0);
+    }
+
+    private static Client readBlob(LinkModel model, int controls, int dropChunk) {
+        final Client client = readLayout(model, controls, true, dropChunk);
+        final DeviceInfo expected = DeviceInfoParser.parse(
+                BoardLayout.grid(controls, BoardLayout.SLIDER).encode(RemoteProtocol.PROTOCOL_VERSION_BATCH), "no name");
+        final DeviceInfo d = client.decoded;
+        assertEquals(expected.controls.length, d.controls.length);
+        assertEquals(expected.row, d.row);
+        assertEquals(expected.controls[controls - 1].text, d.controls[controls - 1].text);
+        assertEquals(expected.controls[controls - 1].cell, d.controls[controls - 1].cell);
+        return client;
+    }
+
+    @Test
+    public void layoutBlob() throws Exception {
+        final LinkModel model = new LinkModel();
+        final long smallLegacy = readLayout(model, 8);
+        final Client small = readBlob(model, 8);
+        final long largeLegacy = readLayout(model, 255);
+        final Client large = readBlob(model, 255);
+        final int smallReads = small.reader.getChunkReadCount();
+        final int largeReads = large.reader.getChunkReadCount();
+        System.out.println("layout read from 10 characteristics / rcLayout: 8 controls "
+                + smallLegacy / 1000 + " ms / " + small.doneAt / 1000 + " ms in " + smallReads + " reads, 255 controls "
+                + largeLegacy / 1000 + " ms / " + large.doneAt / 1000 + " ms in " + largeReads + " reads");
+
+        // small layouts are bound by round trips, large ones by bytes
+        assertEquals(1, smallReads);
+        assertTrue(small.doneAt < smallLegacy);
+        assertTrue(large.doneAt < largeLegacy);
+    }
+
+    @Test
+    public void layoutBlob_droppedChunk() throws Exception {
+        final LinkModel model = new LinkModel();
+        final Client clean = readBlob(model, 255);
+        final Client dropped = readBlob(model, 255, 2);
+        final long cost = dropped.doneAt - clean.doneAt;
+        System.out.println("layout blob, 255 controls, second chunk read failed: " + dropped.doneAt / 1000
+                + " ms, " + cost / 1000 + " ms to recover");
+
+        // the same chunk is selected and read again after the retry delay, the rest
+        // of the blob is not read twice
+        assertEquals(clean.reader.getChunkReadCount(), dropped.reader.getChunkReadCount());
+        assertTrue(cost <= ReadScheduler.RETRY_BASE_DELAY_MS * 1000 + 4 * model.balancedIntervalUs);
+    }
+
+    @Test
+    public void labelUpdates_100Hz() throws Exception {
+        final SimulationClock clock = new SimulationClock();
+        final LinkModel model = new LinkModel();
+        model.balancedIntervalUs = model.highPriorityIntervalUs;
+        final SimulatedBoard board = new SimulatedBoard(clock,
+                BoardLayout.grid(8, BoardLayout.LABEL).encode(RemoteProtocol.PROTOCOL_VERSION));
+        final LatencyHistogram latency = new LatencyHistogram();
+        final UIUpdateDecoder decoder = new UIUpdateDecoder();
+
+        final SimulatedLink link = new Client(clock, model, board) {
+            @Override
+            public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+                if (decoder.decode(value)) {
+                    latency.record(clock.now() - Long.parseLong(decoder.getText()));
+                }
+            }
+        }.link;
+        link.connect();
+        link.setCharacteristicNotification(RemoteProtocol.rcService, RemoteProtocol.rcUIUpdate, true);
+
+        board.startLabelUpdates(new int[]{0, 1, 2, 3}, 100, 2 * SECOND);
+        clock.runUntil(3 * SECOND);
+        System.out.println("4 labels at 100 Hz, 7.5 ms interval: " + latency);
+
+        assertEquals(800, latency.getCount());
+        assertTrue(latency.getValueAtPercentile(99) <= 4 * model.highPriorityIntervalUs);
+    }
+
+    private static LatencyHistogram moveSliders(int sliders, int rate, int capacity, long[] delivered) {
+        final SimulationClock clock = new SimulationClock();
+        final LinkModel model = new LinkModel();
+        final SimulatedBoard board = new SimulatedBoard(clock,
+                BoardLayout.grid(sliders, BoardLayout.SLIDER).encode(RemoteProtocol.PROTOCOL_VERSION_BATCH));
+        final Client client = new Client(clock, model, board);
+        client.writer.setBatchCapacity(capacity);
+
+        // data is the tick number, sentAt tells when each slider reached it
+        final int ticks = 2 * rate;
+        final long period = SECOND / rate;
+        final long[][] sentAt = new long[sliders][ticks];
+        final LatencyHistogram latency = new LatencyHistogram();
+        board.setEventListener(new SimulatedBoard.EventListener() {
+            @Override
+            public void onEvent(int seq, int index, int event, int data, long timeUs) {
+                latency.record(timeUs - sentAt[index][data]);
+            }
+        });
+
+        client.link.connect();
+        clock.runFor(period);
+        for (int i = 0; i < sliders; ++i) {
+            final int index = i;
+            clock.schedule(i * period / sliders, new Runnable() {
+                private int mTick = 0;
+
+                @Override
+                public void run() {
+                    sentAt[index][mTick] = clock.now();
+                    client.writer.send(index, ControlInfo.ControlType.slider, ControlEvent.valueChange, mTick,
+                            true, clock.now());
+                    mTick += 1;
+                    if (mTick < ticks) {
+                        clock.schedule(period, this);
+                    }
+                }
+            });
+        }
+        clock.runFor(4 * SECOND);
+        delivered[0] = board.getEventCount();
+        return latency;
+    }
+
+    @Test
+    public void sliders_10Concurrent() throws Exception {
+        final long[] single = new long[1];
+        final long[] batched = new long[1];
+        final LatencyHistogram singleLatency = moveSliders(10, 60, 1, single);
+        final LatencyHistogram batchedLatency = moveSliders(10, 60, EventPacker.capacityForMtu(EventPacker.DEFAULT_MTU), batched);
+        System.out.println("10 sliders at 60 Hz, one event per write: " + single[0] + " delivered, " + singleLatency);
+        System.out.println("10 sliders at 60 Hz, batched: " + batched[0] + " delivered, " + batchedLatency);
+
+        assertTrue(batched[0] >= single[0]);
+        assertTrue(batchedLatency.getValueAtPercentile(99) <= singleLatency.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void echoProbe_lossyLink() throws Exception {
+        final SimulationClock clock = new SimulationClock();
+        final LinkModel model = new LinkModel();
+        model.lossRate = 0.05;
+        final SimulatedBoard board = new SimulatedBoard(clock,
+                BoardLayout.grid(4, BoardLayout.SLIDER).encode(RemoteProtocol.PROTOCOL_VERSION_BATCH));
+        board.setEcho(true);
+        final EchoProbe probe = new EchoProbe(SECOND);
+
+        final Client client = new Client(clock, model, board) {
+            @Override
+            public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+                final int seq = EchoProbe.parseEcho(value);
+                if (seq >= 0) {
+                    probe.onEcho(seq, clock.now());
+                }
+            }
+        };
+        client.writer.setEchoProbe(probe);
+        client.link.connect();
+        client.link.setCharacteristicNotification(RemoteProtocol.rcService, RemoteProtocol.rcUIUpdate, true);
+
+        // one probe every 100 ms, written with response like RemoteSession's probe run
+        clock.schedule(SECOND / 10, new Runnable() {
+            private int mProbe = 0;
+
+            @Override
+            public void run() {
+                client.writer.send(RemoteProtocol.ECHO_INDEX, null, ControlEvent.valueChange, mProbe, false, 0);
+                mProbe += 1;
+                if (mProbe < 100) {
+                    clock.schedule(SECOND / 10, this);
+                }
+            }
+        });
+        clock.runFor(12 * SECOND);
+        probe.expire(clock.now());
+        System.out.println("echo probe, 30 ms interval with 5% loss: " + probe);
+
+        assertTrue(probe.getSentCount() > 90);
+        assertEquals(probe.getSentCount(), probe.getReceivedCount() + probe.getLostCount());
+        // a frame reaches the board at one connection event, the echo leaves at a later one
+        assertTrue(probe.getRtt().getMin() >= model.balancedIntervalUs);
+    }
+}